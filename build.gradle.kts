@@ -1,10 +1,17 @@
 plugins {
     application
     java
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories { mavenCentral() }
 
+dependencies {
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
 java {
     toolchain { languageVersion.set(JavaLanguageVersion.of(17)) }
 }
@@ -13,6 +20,78 @@ application {
     mainClass.set("com.cbl.game.app.App")
 }
 
+// src/test: same packages as main, like src/jmh (RoomAllocationTest reads Room's tick meter)
+tasks.test {
+    useJUnitPlatform()
+}
+
 tasks.jar {
     manifest { attributes["Main-Class"] = "com.cbl.game.app.App" }
 }
+
+// Dedicated server: same jar, its own start script (bin/cbl-server) in the distribution
+val serverMain = "com.cbl.game.app.ServerMain"
+val serverJvmArgs = listOf("-Djava.awt.headless=true")
+
+val serverStartScripts by tasks.registering(CreateStartScripts::class) {
+    applicationName = "cbl-server"
+    mainClass.set(serverMain)
+    defaultJvmOpts = serverJvmArgs
+    outputDir = layout.buildDirectory.dir("server-scripts").get().asFile
+    classpath = files(tasks.jar) + configurations.runtimeClasspath.get()
+}
+
+val replayStartScripts by tasks.registering(CreateStartScripts::class) {
+    applicationName = "cbl-replay"
+    mainClass.set("com.cbl.game.net.Replay")
+    defaultJvmOpts = serverJvmArgs
+    outputDir = layout.buildDirectory.dir("replay-scripts").get().asFile
+    classpath = files(tasks.jar) + configurations.runtimeClasspath.get()
+}
+
+distributions {
+    main {
+        contents {
+            from(serverStartScripts) { into("bin") }
+            from(replayStartScripts) { into("bin") }
+        }
+    }
+}
+
+tasks.register<JavaExec>("runServer") {
+    group = "application"
+    description = "Runs the headless dedicated server (pass options with --args)."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set(serverMain)
+    jvmArgs(serverJvmArgs)
+}
+
+// Bot swarm against a server; exits 3 if a stage fails its p99 / disconnect / overrun limits.
+// ./gradlew loadTest --args="--local=true --profile=50:30,200:60"
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the headless bot-swarm load test (pass options with --args, --help for the list)."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("com.cbl.game.loadtest.BotSwarm")
+    jvmArgs(serverJvmArgs)
+}
+
+// Plays a room journal (server --record-dir) back and checks it against the recorded checksums.
+// ./gradlew replay --args="build/journals/FILE.cbj --repeat=5"
+tasks.register<JavaExec>("replay") {
+    group = "application"
+    description = "Replays a recorded room journal as fast as possible (FILE [--speed=N] [--repeat=N])."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("com.cbl.game.net.Replay")
+    jvmArgs(serverJvmArgs)
+}
+
+// Microbenchmarks in src/jmh (same packages as main, so package-private hot paths are reachable).
+// ./gradlew jmh                      all of them
+// ./gradlew jmh -PjmhInclude=RoomTick one class (regex); results in build/results/jmh/results.json
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")   // gc.alloc.rate.norm = bytes allocated per op, next to the time/throughput
+    resultFormat.set("JSON")
+    (findProperty("jmhInclude") as String?)?.let { includes.add(it) }
+}
@@ -0,0 +1,98 @@
+package com.cbl.game.core.spatial;
+
+import com.cbl.game.core.entity.EntityStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-tick spatial queries. {@code nearestPlayer}: every enemy looks up its
+ * chase target, as the server tick does ({@link SpatialHash#nearest}), next
+ * to a plain linear scan for reference. {@code clientBullets}: the client's
+ * bullet loop (re-index enemies, move each bullet, {@link SpatialHash#firstWithin});
+ * a bullet that hits or expires is re-fired so the count stays fixed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialBenchmark {
+    static final int WORLD = 2048;
+    static final float HIT_R = 26f, DT = 1f / 60;
+    static final int X = 0, Y = 1, VX = 2, VY = 3, LIFE = 0;
+
+    @Param({"100", "1000", "10000"})
+    public int enemies;
+
+    @Param({"1", "8", "64"})
+    public int players;
+
+    @Param({"64"})
+    public int bullets;
+
+    private float[] ex, ey, px, py;
+    private final SpatialHash playerGrid = new SpatialHash(256f, 64);
+    private final SpatialHash enemyGrid = new SpatialHash(64f, 512);
+    private final EntityStore shots = new EntityStore(4, 1, 128);
+    private final SplittableRandom rnd = new SplittableRandom(5);
+
+    @Setup
+    public void setup() {
+        ex = new float[enemies]; ey = new float[enemies];
+        for (int i = 0; i < enemies; i++) { ex[i] = rnd.nextInt(WORLD); ey[i] = rnd.nextInt(WORLD); }
+        px = new float[players]; py = new float[players];
+        for (int i = 0; i < players; i++) {
+            px[i] = rnd.nextInt(WORLD); py[i] = rnd.nextInt(WORLD);
+            playerGrid.put(i + 1, px[i], py[i]);
+        }
+        for (int i = 0; i < bullets; i++) { shots.add(); fire(i); }
+    }
+
+    @Benchmark
+    public int nearestPlayer() {
+        int sum = 0;
+        for (int i = 0; i < enemies; i++) sum += playerGrid.nearest(ex[i], ey[i], Float.MAX_VALUE);
+        return sum;
+    }
+
+    @Benchmark
+    public int nearestPlayerLinear() {
+        int sum = 0;
+        for (int i = 0; i < enemies; i++) {
+            int best = -1;
+            float bestD = Float.MAX_VALUE;
+            for (int p = 0; p < players; p++) {
+                float dx = px[p] - ex[i], dy = py[p] - ey[i], d = dx * dx + dy * dy;
+                if (d < bestD) { bestD = d; best = p; }
+            }
+            sum += best;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int clientBullets() {
+        enemyGrid.clear();
+        for (int i = 0; i < enemies; i++) enemyGrid.put(i + 1, ex[i], ey[i]);
+        float[] x = shots.f(X), y = shots.f(Y), vx = shots.f(VX), vy = shots.f(VY);
+        int[] life = shots.i(LIFE);
+        int hits = 0, lifeStep = Math.round(DT * 1000);
+        for (int r = shots.size() - 1; r >= 0; r--) {
+            x[r] += vx[r] * DT; y[r] += vy[r] * DT;
+            life[r] -= lifeStep;
+            if (life[r] <= 0) { fire(r); continue; }
+            if (enemyGrid.firstWithin(x[r], y[r], HIT_R) != SpatialHash.NONE) { hits++; fire(r); }
+        }
+        return hits;
+    }
+
+    private void fire(int row) {
+        double a = rnd.nextDouble() * Math.PI * 2;
+        shots.f(X)[row] = rnd.nextInt(WORLD); shots.f(Y)[row] = rnd.nextInt(WORLD);
+        shots.f(VX)[row] = (float) Math.cos(a) * 300; shots.f(VY)[row] = (float) Math.sin(a) * 300;
+        shots.i(LIFE)[row] = 900;
+    }
+}
@@ -0,0 +1,51 @@
+package com.cbl.game.net;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-of-tick fan-out: the tick's shared events appended and a snapshot
+ * handed to each of {@code sinks} connections ({@link Connection#enqueueTick}),
+ * the copy and locking every client costs per tick. The connections are
+ * in-memory: their loop never runs and their output is discarded per op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"1", "8", "64", "512"})
+    public int sinks;
+
+    @Param({"64", "1024"})
+    public int snapshotBytes;
+
+    private final ByteBuffer events = ByteBuffer.allocate(4096);
+    private ByteBuffer state;
+    private IoLoop loop;
+    private Connection[] conns;
+
+    @Setup
+    public void setup() throws IOException {
+        for (int i = 0; i < 16; i++) NetMessage.writeEnHp(events, i, 40);   // a few shared events
+        state = ByteBuffer.allocate(snapshotBytes);
+        state.position(snapshotBytes);
+        loop = new IoLoop("bench-io", null);
+        conns = new Connection[sinks];
+        for (int i = 0; i < sinks; i++) conns[i] = new Connection(i + 1, i, null, loop);
+    }
+
+    @TearDown
+    public void tearDown() { loop.stop(); }
+
+    @Benchmark
+    public void enqueueTick() {
+        for (Connection c : conns) c.enqueueTick(events, state);
+        for (Connection c : conns) c.discardOutput();
+    }
+}
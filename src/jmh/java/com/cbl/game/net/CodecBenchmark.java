@@ -0,0 +1,116 @@
+package com.cbl.game.net;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wire codec: the frames a client builds every input step, the frames it
+ * decodes from the TCP stream ({@link FrameReader} + {@link NetMessage#read}),
+ * and snapshot deltas of {@code entities} rows, 10% of them moving per tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private static final int FRAMES = 97;
+
+    @Param({"16", "256", "2048"})
+    public int entities;
+
+    private final ByteBuffer tx = ByteBuffer.allocate(256);
+    private final ByteBuffer frame = ByteBuffer.allocate(NetMessage.MAX_FRAME);
+    private final ByteBuffer snap = ByteBuffer.allocate(NetMessage.MAX_FRAME);
+    private final NetMessage msg = new NetMessage();
+    private final int[] buttons = {1, 9, 9, 8, 8, 0, 4, 4};
+    private final Snapshot base = new Snapshot(), cur = new Snapshot(), decoded = new Snapshot();
+    private ByteArrayInputStream stream;
+    private FrameReader reader;
+    private int seq;
+
+    @Setup
+    public void setup() {
+        var rnd = new SplittableRandom(42);
+        base.seq = 1;
+        cur.seq = 2;
+        for (int i = 0; i < entities; i++) {
+            int x = rnd.nextInt(4000 * 4), y = rnd.nextInt(4000 * 4);
+            int r = base.enemies.add(i + 1);
+            base.enemies.set(r, Snapshot.ENEMY_X, x);
+            base.enemies.set(r, Snapshot.ENEMY_Y, y);
+            base.enemies.set(r, Snapshot.ENEMY_HP, 50);
+            r = cur.enemies.add(i + 1);
+            boolean moved = i % 10 == 0;
+            cur.enemies.set(r, Snapshot.ENEMY_X, moved ? x + 20 : x);
+            cur.enemies.set(r, Snapshot.ENEMY_Y, moved ? y - 7 : y);
+            cur.enemies.set(r, Snapshot.ENEMY_HP, 50);
+        }
+        base.enemies.sort();
+        cur.enemies.sort();
+
+        // one tick's worth of mixed server frames, as the client's reader sees them
+        var b = ByteBuffer.allocate(NetMessage.MAX_FRAME * 4);
+        for (int i = 0; i < (FRAMES - 1) / 3; i++) {
+            NetMessage.writeEnemy(b, MessageType.ENSPAWN, i, i * 10, i * 5, 50);
+            NetMessage.writeShot(b, 7, i, i, 300, 0, 99);
+            NetMessage.writeEnHp(b, i, 40);
+        }
+        NetMessage.writeSnapshot(b, cur, base);
+        stream = new ByteArrayInputStream(java.util.Arrays.copyOf(b.array(), b.position()));
+        reader = new FrameReader(stream);
+    }
+
+    /** What {@code NetClient.sendInputs} builds: datagram header + INPUT frame. */
+    @Benchmark
+    public ByteBuffer encodeInput() {
+        tx.clear().position(NetMessage.UDP_CLIENT_HEADER);
+        NetMessage.writeInput(tx, ++seq, buttons, buttons.length);
+        tx.putInt(0, 7).putLong(4, 0x5EEDL).putInt(12, seq);
+        return tx;
+    }
+
+    @Benchmark
+    public int decodeShot() {
+        frame.clear();
+        NetMessage.writeShot(frame, 7, 120.25f, 80.5f, 300, -12.75f, 99);
+        frame.flip().position(2);
+        msg.read(frame, frame.remaining());
+        return msg.value;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeSnapshotDelta() {
+        snap.clear();
+        NetMessage.writeSnapshot(snap, cur, base);
+        return snap;
+    }
+
+    @Benchmark
+    public Snapshot decodeSnapshotDelta() {
+        snap.clear();
+        NetMessage.writeSnapshot(snap, cur, base);
+        snap.flip().position(2);
+        msg.read(snap, snap.remaining());
+        msg.body.position(msg.bodyPos);
+        decoded.readDelta(msg.body, base);
+        return decoded;
+    }
+
+    /** Client read loop over one tick's frames (96 small ones + one SNAP); reads them all, so the reader ends empty. */
+    @Benchmark
+    public void readFrames(Blackhole bh) throws IOException {
+        stream.reset();
+        for (int n = 0; n < FRAMES; n++) {
+            bh.consume(reader.next(msg));
+        }
+        bh.consume(msg.id);
+    }
+}
@@ -0,0 +1,66 @@
+package com.cbl.game.net;
+
+import com.cbl.game.config.GameConfig;
+import com.cbl.game.core.spatial.SpatialHash;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server bullet-vs-enemy sweep ({@link Projectiles#step}): {@code shotsPerTick}
+ * new bullets each tick, every live bullet swept against enemies rewound 3
+ * ticks. Hits do not consume bullets or enemies, so the load stays steady
+ * (about {@code BULLET_LIFETIME_MS / tick} × shotsPerTick live bullets).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectilesBenchmark {
+    static final int WORLD = 2048, SEQ = 32, TICK_MS = 50;
+
+    @Param({"4", "32", "256"})
+    public int shotsPerTick;
+
+    @Param({"100", "1000"})
+    public int enemies;
+
+    private final Projectiles projectiles = new Projectiles(TICK_MS);
+    private final Snapshot.History history = new Snapshot.History(SEQ);
+    private final SpatialHash grid = new SpatialHash(64f, 1024);
+    private final Projectiles.HitSink sink = (enemy, owner) -> false;
+    private final SplittableRandom rnd = new SplittableRandom(3);
+
+    @Setup
+    public void setup() {
+        var r = new SplittableRandom(11);
+        float[] xs = new float[enemies], ys = new float[enemies];
+        for (int i = 0; i < enemies; i++) {
+            xs[i] = r.nextInt(WORLD); ys[i] = r.nextInt(WORLD);
+            grid.put(i + 1, xs[i], ys[i]);
+        }
+        for (int s = 1; s <= SEQ; s++) {
+            Snapshot snap = history.slot(s);
+            for (int i = 0; i < enemies; i++) {
+                int row = snap.enemies.add(i + 1);
+                snap.enemies.set(row, Snapshot.ENEMY_X, NetMessage.quantize(xs[i]));
+                snap.enemies.set(row, Snapshot.ENEMY_Y, NetMessage.quantize(ys[i]));
+            }
+            snap.enemies.sort();
+        }
+    }
+
+    @Benchmark
+    public int step() {
+        for (int i = 0; i < shotsPerTick; i++) {
+            double a = rnd.nextDouble() * Math.PI * 2;
+            projectiles.spawn(i, rnd.nextInt(WORLD), rnd.nextInt(WORLD),
+                    (float) Math.cos(a) * GameConfig.BULLET_SPEED, (float) Math.sin(a) * GameConfig.BULLET_SPEED, SEQ - 3);
+        }
+        projectiles.step(TICK_MS / 1000f, SEQ, history, grid, sink);
+        return projectiles.size();
+    }
+}
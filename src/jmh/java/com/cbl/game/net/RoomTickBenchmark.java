@@ -0,0 +1,78 @@
+package com.cbl.game.net;
+
+import com.cbl.game.config.ServerConfig;
+import com.cbl.game.sim.PlayerMotion;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One server tick ({@link Room#tick()}): drain commands, move players and
+ * enemies, contact damage, snapshot, interest filtering and per-client delta
+ * encoding. Players are in-memory connections that send one input and ack
+ * the last snapshot every tick; their output is discarded after the tick.
+ * The map is large enough that interest filtering matters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomTickBenchmark {
+    static final int WORLD = 4096;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int enemies;
+
+    @Param({"1", "8", "64"})
+    public int players;
+
+    private Room room;
+    private IoLoop loop;
+    private Connection[] clients;
+    private final NetMessage input = new NetMessage();
+    private int inputSeq;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        var cfg = new ServerConfig(0, 20, 1, WORLD, WORLD, enemies, 1, 1, 1, 0, 0, 0, 0, null, false);
+        room = new Room("bench", 0, cfg, null, new BufferPool(NetMessage.MAX_FRAME, 4));
+        loop = new IoLoop("bench-io", null);   // never started: only collects write requests
+        clients = new Connection[players];
+        var rnd = new SplittableRandom(7);
+        for (int i = 0; i < players; i++) {
+            clients[i] = new Connection(i + 1, i, null, loop);
+            room.commands.join(clients[i]);
+        }
+        room.tick();
+        for (Connection c : clients) {
+            c.player.x = 64 + rnd.nextInt(WORLD - 128);
+            c.player.y = 64 + rnd.nextInt(WORLD - 128);
+            c.player.iframe = Float.MAX_VALUE;   // enemies reach them but nobody dies mid-run
+        }
+        for (int i = 0; i < enemies; i++) room.spawnEnemy();
+        input.type = MessageType.INPUT;
+        input.value = 1;
+        step();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() { loop.stop(); }
+
+    @Benchmark
+    public void tick() { step(); }
+
+    private void step() {
+        input.id = ++inputSeq;
+        input.inputs[0] = (inputSeq & 32) == 0 ? PlayerMotion.RIGHT | PlayerMotion.DOWN : PlayerMotion.LEFT | PlayerMotion.UP;
+        for (Connection c : clients) {
+            room.commands.input(c, input);
+            room.commands.ack(c, c.lastSentSeq);
+        }
+        room.tick();
+        for (Connection c : clients) c.discardOutput();
+    }
+}
@@ -0,0 +1,69 @@
+package com.cbl.game.app;
+
+import com.cbl.game.config.ServerConfig;
+import com.cbl.game.net.NetServer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Dedicated server: runs {@link NetServer} alone, without a window or any
+ * Swing/AWT class, so it works on machines with no display. Options are in
+ * {@link ServerConfig#USAGE}; Ctrl-C / SIGTERM stops it cleanly.
+ */
+public final class ServerMain {
+    private ServerMain() {}
+
+    public static void main(String[] args) {
+        long t0 = System.nanoTime();
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 1 && (args[0].equals("--help") || args[0].equals("-h"))) {
+            System.out.println("usage: cbl-server [--key=value ...]\n" + ServerConfig.USAGE);
+            return;
+        }
+        ServerConfig cfg;
+        try {
+            cfg = ServerConfig.fromArgs(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("[Server] " + e.getMessage() + "\n" + ServerConfig.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        var server = new NetServer(cfg);
+        if (!server.startAsync()) System.exit(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "server-shutdown"));
+
+        // startup metrics: how long until we accept players, and what it cost
+        var rt = ManagementFactory.getRuntimeMXBean();
+        var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long mainMs = (System.nanoTime() - t0) / 1_000_000;
+        System.out.println("[Server] " + cfg);
+        System.out.println("[Server] ready: " + mainMs + " ms in main, " + rt.getUptime() + " ms since JVM start"
+                + ", heap " + heap.getUsed() / (1024 * 1024) + "/" + heap.getCommitted() / (1024 * 1024) + " MB"
+                + ", " + ManagementFactory.getThreadMXBean().getThreadCount() + " threads"
+                + ", " + Runtime.getRuntime().availableProcessors() + " cpus, " + rt.getVmName() + " " + rt.getVmVersion());
+        if (cfg.statsSeconds > 0) {
+            var stats = new Thread(() -> printStats(server, cfg.statsSeconds), "server-stats");
+            stats.setDaemon(true);
+            stats.start();
+        }
+        // the sim threads keep the JVM alive until the shutdown hook stops them
+    }
+
+    /** Every {@code seconds}: room count, per-thread load, and the rooms with the slowest ticks. */
+    private static void printStats(NetServer server, int seconds) {
+        while (server.isRunning()) {
+            try { Thread.sleep(seconds * 1000L); } catch (InterruptedException e) { return; }
+            var rooms = server.roomStats();
+            int players = 0;
+            for (var r : rooms) players += r.players;
+            var sb = new StringBuilder("[Stats] ").append(rooms.size()).append(" room(s), ")
+                    .append(players).append(" player(s), sim load");
+            for (double l : server.shardLoads()) sb.append(String.format(" %.0f%%", l * 100));
+            System.out.println(sb);
+            rooms.sort((a, b) -> Double.compare(b.avgTickUs, a.avgTickUs));
+            for (int i = 0; i < Math.min(5, rooms.size()); i++) System.out.println("[Stats]   " + rooms.get(i));
+        }
+    }
+}
@@ -2,7 +2,37 @@ package com.cbl.game.config;
 
 public final class GameConfig {
     private GameConfig() {}
-    public static final int TICK_MS = 16;           // ~60 FPS
+    public static final int TICK_HZ = 60;           // fixed update rate; one player input per update
+    public static final int MAX_FPS = 144;          // render cap (0 = no cap)
+    public static final int MAX_FRAME_MS = 250;     // longer frames are clamped (spiral-of-death guard)
+    public static final int MAX_UPDATES_PER_FRAME = 5;
+    /** Draw scenes that allow it through a BufferStrategy; -Dcbl.passiveRender=true falls back to Swing repaint. */
+    public static final boolean ACTIVE_RENDERING = !Boolean.getBoolean("cbl.passiveRender");
     public static final int DEFAULT_PORT = 7777;    // TCP port
-    public static final float SEND_POS_HZ = 15f;    // position sync rate
+    public static final float SEND_INPUT_HZ = 30f;  // INPUT frames/s (each repeats recent inputs)
+    public static final int SERVER_IO_THREADS = 1;  // selector loops on the host
+    public static final int UDP_MAX_PACKET = 1200;  // stay under typical path MTU
+    public static final float INTEREST_RADIUS = 640f; // px; clients only get entities closer than this
+    public static final int INTERP_DELAY_MS = 100;    // remote entities are drawn this far in the past
+    public static final int MAX_EXTRAPOLATE_MS = 100; // then guessed ahead at most this long when packets are late
+
+    // server simulation (defaults; a dedicated server can override them, see ServerConfig)
+    public static final int WORLD_W = 960, WORLD_H = 540; // px; players are kept inside
+    public static final float PLAYER_HIT_RADIUS = 26f;    // player corner vs enemy centre (contact damage)
+    public static final int CONTACT_DAMAGE = 15;
+    public static final int MAX_INPUT_BACKLOG = 6;        // inputs a client may bank beyond one tick's worth
+    public static final int SERVER_TICK_MS = 50;      // 20 Hz, one snapshot per tick
+    public static final float ENEMY_SPEED = 100f;     // px/s
+    public static final int MAX_ENEMIES = 64;         // alive at once
+    public static final int ENEMY_SPAWN_MS = 3000;
+    public static final float BULLET_SPEED = 300f;    // px/s; faster SHOTs are rejected
+    public static final int BULLET_LIFETIME_MS = 900;
+    public static final int BULLET_DAMAGE = 10;
+    public static final float BULLET_HIT_RADIUS = 26f; // bullet point vs enemy centre
+    public static final int MAX_REWIND_TICKS = 10;    // lag compensation cap (500 ms)
+    public static final int MAX_PENDING_SHOTS = 256;  // per tick, all clients
+    public static final int COMMAND_QUEUE_CAPACITY = 1024; // per room: decoded client commands waiting for its tick
+    public static final int MAX_ROOMS = 256;          // sessions one server process hosts
+    public static final int ROOM_IDLE_MS = 30_000;    // an empty room is closed after this
+    public static final int RESUME_MS = 10_000;       // a dropped player's slot waits this long for a reconnect
 }
@@ -0,0 +1,141 @@
+package com.cbl.game.config;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Settings of one server process, shared by every room it hosts. Defaults
+ * come from {@link GameConfig}; a properties file
+ * ({@code --config=server.properties}) overrides them and {@code --key=value}
+ * arguments override the file.
+ */
+public final class ServerConfig {
+    public static final String USAGE = String.join("\n",
+            "options (also valid as keys in the --config properties file):",
+            "  --config=FILE           properties file read before the other options",
+            "  --port=N                TCP and UDP port (default " + GameConfig.DEFAULT_PORT + ")",
+            "  --tick-rate=HZ          simulation ticks and snapshots per second (default " + 1000 / GameConfig.SERVER_TICK_MS + ")",
+            "  --io-threads=N          selector threads (default " + GameConfig.SERVER_IO_THREADS + ")",
+            "  --world-width=PX        map size players are kept inside and enemies spawn around",
+            "  --world-height=PX       (default " + GameConfig.WORLD_W + "x" + GameConfig.WORLD_H + ")",
+            "  --max-enemies=N         no spawns while this many are alive (default " + GameConfig.MAX_ENEMIES + ")",
+            "  --enemy-spawn-ms=MS     time between spawns (default " + GameConfig.ENEMY_SPAWN_MS + ")",
+            "  --sim-threads=N         threads ticking the rooms (default: one per cpu)",
+            "  --max-rooms=N           rooms hosted at once; JOINs for new rooms beyond it are refused (default " + GameConfig.MAX_ROOMS + ")",
+            "  --room-idle-ms=MS       an empty room is closed after this (default " + GameConfig.ROOM_IDLE_MS + ")",
+            "  --resume-ms=MS          a dropped player stays in the room this long, and a client reconnecting",
+            "                          with its session token takes it back (default " + GameConfig.RESUME_MS + ", 0 = off)",
+            "  --stats-seconds=S       print per-room tick times every S seconds (default 0 = off)",
+            "  --metrics-port=N        serve tick histograms and traffic counters as text on",
+            "                          http://127.0.0.1:N/metrics (default 0 = off; JMX is always on)",
+            "  --record-dir=DIR        journal every room's client commands into DIR for cbl-replay (default off)",
+            "  --lockstep=BOOL         rooms run the deterministic world and send only player inputs per tick",
+            "                          (clients simulate the enemies themselves; default false)");
+
+    public final int port, tickRate, ioThreads, worldW, worldH, maxEnemies, enemySpawnMs;
+    public final int simThreads, maxRooms, roomIdleMs, resumeMs, statsSeconds, metricsPort;
+    /** Where room journals go ({@code null} = not recording). */
+    public final String recordDir;
+    /** Rooms run {@link com.cbl.game.sim.LockstepWorld} and broadcast inputs instead of snapshots. */
+    public final boolean lockstep;
+
+    public ServerConfig(int port, int tickRate, int ioThreads, int worldW, int worldH, int maxEnemies, int enemySpawnMs,
+                        int simThreads, int maxRooms, int roomIdleMs, int resumeMs, int statsSeconds, int metricsPort,
+                        String recordDir, boolean lockstep) {
+        this.port = check("port", port, 0, 65535);
+        this.tickRate = check("tick-rate", tickRate, 1, 1000);
+        this.ioThreads = check("io-threads", ioThreads, 1, 64);
+        this.worldW = check("world-width", worldW, 64, 1 << 20);
+        this.worldH = check("world-height", worldH, 64, 1 << 20);
+        this.maxEnemies = check("max-enemies", maxEnemies, 0, 1 << 20);
+        this.enemySpawnMs = check("enemy-spawn-ms", enemySpawnMs, 1, Integer.MAX_VALUE);
+        this.simThreads = check("sim-threads", simThreads, 1, 256);
+        this.maxRooms = check("max-rooms", maxRooms, 1, 1 << 16);
+        this.roomIdleMs = check("room-idle-ms", roomIdleMs, 0, Integer.MAX_VALUE);
+        this.resumeMs = check("resume-ms", resumeMs, 0, 3_600_000);
+        this.statsSeconds = check("stats-seconds", statsSeconds, 0, 86400);
+        this.metricsPort = check("metrics-port", metricsPort, 0, 65535);
+        this.recordDir = recordDir == null || recordDir.isBlank() ? null : recordDir.trim();
+        this.lockstep = lockstep;
+    }
+
+    public static ServerConfig defaults(int port) {
+        return new ServerConfig(port, 1000 / GameConfig.SERVER_TICK_MS, GameConfig.SERVER_IO_THREADS,
+                GameConfig.WORLD_W, GameConfig.WORLD_H, GameConfig.MAX_ENEMIES, GameConfig.ENEMY_SPAWN_MS,
+                Runtime.getRuntime().availableProcessors(), GameConfig.MAX_ROOMS, GameConfig.ROOM_IDLE_MS,
+                GameConfig.RESUME_MS, 0, 0, null, false);
+    }
+
+    /**
+     * Parses {@code --key=value} arguments (see {@link #USAGE}).
+     * @throws IllegalArgumentException on an unknown key or a bad value
+     * @throws IOException if the config file cannot be read
+     */
+    public static ServerConfig fromArgs(String... args) throws IOException {
+        var cli = new Properties();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (!a.startsWith("--") || eq < 0) throw new IllegalArgumentException("expected --key=value, got: " + a);
+            cli.setProperty(a.substring(2, eq), a.substring(eq + 1));
+        }
+        var p = new Properties();
+        String file = cli.getProperty("config");
+        if (file != null) {
+            try (Reader r = Files.newBufferedReader(Path.of(file))) { p.load(r); }
+        }
+        p.putAll(cli);
+        p.remove("config");
+
+        var d = defaults(GameConfig.DEFAULT_PORT);
+        var cfg = new ServerConfig(
+                get(p, "port", d.port), get(p, "tick-rate", d.tickRate), get(p, "io-threads", d.ioThreads),
+                get(p, "world-width", d.worldW), get(p, "world-height", d.worldH),
+                get(p, "max-enemies", d.maxEnemies), get(p, "enemy-spawn-ms", d.enemySpawnMs),
+                get(p, "sim-threads", d.simThreads), get(p, "max-rooms", d.maxRooms),
+                get(p, "room-idle-ms", d.roomIdleMs), get(p, "resume-ms", d.resumeMs), get(p, "stats-seconds", d.statsSeconds),
+                get(p, "metrics-port", d.metricsPort), (String) p.remove("record-dir"), bool(p, "lockstep", d.lockstep));
+        if (!p.isEmpty()) throw new IllegalArgumentException("unknown option: " + p.keySet().iterator().next());
+        return cfg;
+    }
+
+    /** Length of one tick; snapshots are numbered in these. */
+    public int tickMs() { return Math.max(1, 1000 / tickRate); }
+
+    @Override public String toString() {
+        return "port=" + port + " tick-rate=" + tickRate + "Hz io-threads=" + ioThreads
+                + " world=" + worldW + "x" + worldH + " max-enemies=" + maxEnemies + " enemy-spawn-ms=" + enemySpawnMs
+                + " sim-threads=" + simThreads + " max-rooms=" + maxRooms + " room-idle-ms=" + roomIdleMs
+                + " resume-ms=" + resumeMs
+                + (metricsPort > 0 ? " metrics-port=" + metricsPort : "")
+                + (recordDir != null ? " record-dir=" + recordDir : "")
+                + (lockstep ? " lockstep" : "");
+    }
+
+    /** Reads and removes {@code key}, so leftovers are unknown options. */
+    private static int get(Properties p, String key, int def) {
+        Object v = p.remove(key);
+        if (v == null) return def;
+        try {
+            return Integer.parseInt(v.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + ": not a number: " + v);
+        }
+    }
+
+    private static boolean bool(Properties p, String key, boolean def) {
+        Object v = p.remove(key);
+        if (v == null) return def;
+        String s = v.toString().trim();
+        if (s.equalsIgnoreCase("true")) return true;
+        if (s.equalsIgnoreCase("false")) return false;
+        throw new IllegalArgumentException(key + ": expected true or false, got " + v);
+    }
+
+    private static int check(String key, int v, int min, int max) {
+        if (v < min || v > max) throw new IllegalArgumentException(key + " must be in [" + min + ", " + max + "], got " + v);
+        return v;
+    }
+}
@@ -1,44 +1,200 @@
 package com.cbl.game.core;
 
 import com.cbl.game.config.GameConfig;
+import com.cbl.game.core.metrics.FrameTimes;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.lang.reflect.InvocationTargetException;
 
+/**
+ * Owns the window and the one game loop. A loop thread keeps the clock: it
+ * runs {@link Scene#update} in fixed steps of {@code 1/tickHz} (as many as
+ * real time demands, at most {@link GameConfig#MAX_UPDATES_PER_FRAME} per
+ * frame) and renders at most {@code maxFps} times a second, passing how far
+ * the clock is into the next step as {@link Scene#alpha()}. Updates and paint
+ * both run on the EDT, so scenes stay single-threaded. If a frame takes longer
+ * than {@link GameConfig#MAX_FRAME_MS} the excess is dropped instead of
+ * replayed, so the game slows down briefly rather than spiralling.
+ * <p>
+ * Scenes that {@link Scene#supportsActiveRendering() paint every pixel
+ * themselves} are drawn actively: a Canvas with a double-buffered
+ * BufferStrategy takes the scene's place in the window and each frame is
+ * rendered straight into the back buffer and flipped, bypassing Swing's
+ * repaint manager. Other scenes, or all of them with
+ * {@link GameConfig#ACTIVE_RENDERING} off, are painted through Swing.
+ */
 public final class Engine {
     private final JFrame frame;
-    private Scene currentScene;
-    private final Timer loop;
+    private volatile Scene currentScene;
+    private final int tickHz, maxFps;
+    private final float dt;
+    private Thread loop;
+    private volatile boolean running;
+    private Canvas canvas;            // active path only; EDT
+    private BufferStrategy strategy;  // created once the canvas is on screen
+
+    // counters, read from anywhere
+    private volatile long updates, renders, droppedMs;
+    private final FrameTimes frameTimes = new FrameTimes(240);   // EDT
+    private long pendingUpdateNanos;                             // EDT: updates since the last paint
 
     public Engine(String title, int width, int height) {
+        this(title, width, height, GameConfig.TICK_HZ, GameConfig.MAX_FPS);
+    }
+
+    /** @param maxFps render cap; 0 renders once per loop pass (still bounded by updates). */
+    public Engine(String title, int width, int height, int tickHz, int maxFps) {
+        this.tickHz = tickHz;
+        this.maxFps = maxFps;
+        this.dt = 1f / tickHz;
         frame = new JFrame(title);
         frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         frame.setSize(width, height);
         frame.setLocationRelativeTo(null);
         frame.setLayout(new BorderLayout());
         frame.setVisible(true);
+    }
+
+    public void run() {
+        if (running) return;
+        running = true;
+        loop = new Thread(this::loop, "game-loop");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (loop != null) loop.interrupt();
+    }
+
+    private void loop() {
+        final long step = 1_000_000_000L / tickHz;
+        final long renderEvery = maxFps > 0 ? 1_000_000_000L / maxFps : 0;
+        final long maxFrame = GameConfig.MAX_FRAME_MS * 1_000_000L;
+        long prev = System.nanoTime(), acc = 0, lastRender = prev - renderEvery;
+        while (running) {
+            long now = System.nanoTime();
+            long elapsed = now - prev;
+            prev = now;
+            if (elapsed > maxFrame) { droppedMs += (elapsed - maxFrame) / 1_000_000; elapsed = maxFrame; }
+            acc += elapsed;
 
-        loop = new Timer(GameConfig.TICK_MS, e -> {
-            if (currentScene != null) {
-                currentScene.update(GameConfig.TICK_MS / 1000f);
-                currentScene.repaint();
+            int steps = 0;
+            while (acc >= step && steps < GameConfig.MAX_UPDATES_PER_FRAME) { acc -= step; steps++; }
+            if (acc >= step) { droppedMs += acc / step * step / 1_000_000; acc %= step; } // không đuổi kịp: bỏ bớt
+            boolean render = now - lastRender >= renderEvery;
+            if (render) lastRender = now;
+            if (steps > 0 || render) runFrame(steps, (float) acc / step, render);
+
+            // ngủ tới việc kế tiếp (update hoặc render), phần lẻ thì nhường CPU
+            long untilUpdate = step - acc - (System.nanoTime() - now);
+            long untilRender = renderEvery - (System.nanoTime() - lastRender);
+            long wait = Math.min(untilUpdate, Math.max(untilRender, 0));
+            try {
+                if (wait > 2_000_000) Thread.sleep((wait - 1_000_000) / 1_000_000);
+                else Thread.yield();
+            } catch (InterruptedException e) {
+                return;
             }
-        });
+        }
+    }
+
+    /** Runs {@code steps} updates and maybe one paint on the EDT, waiting for it. */
+    private void runFrame(int steps, float alpha, boolean render) {
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                Scene s = currentScene;
+                if (s == null) return;
+                long t0 = System.nanoTime();
+                for (int i = 0; i < steps && s == currentScene; i++) {
+                    s.update(dt);
+                    updates++;
+                }
+                long t1 = System.nanoTime();
+                pendingUpdateNanos += t1 - t0;
+                if (render && s == currentScene) {
+                    s.alpha = alpha;
+                    if (canvas == null) s.paintImmediately(0, 0, s.getWidth(), s.getHeight());
+                    else if (!renderActive(s)) return;
+                    renders++;
+                    long t2 = System.nanoTime();
+                    frameTimes.record(pendingUpdateNanos, t2 - t1, t2);
+                    pendingUpdateNanos = 0;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            e.getCause().printStackTrace(); // một frame lỗi không được giết vòng lặp
+        }
     }
 
-    public void run() { loop.start(); }
+    /**
+     * EDT. Draws one frame into the back buffer and flips it, redrawing if the
+     * buffer was lost meanwhile. @return false if the canvas is not on screen yet.
+     */
+    private boolean renderActive(Scene s) {
+        int w = canvas.getWidth(), h = canvas.getHeight();
+        if (w <= 0 || h <= 0 || !canvas.isDisplayable()) return false;
+        if (strategy == null) {
+            canvas.createBufferStrategy(2);
+            strategy = canvas.getBufferStrategy();
+        }
+        if (s.getWidth() != w || s.getHeight() != h) s.setSize(w, h); // scene code reads its own size
+        do {
+            do {
+                var g = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    g.setColor(s.getBackground());
+                    g.fillRect(0, 0, w, h);
+                    s.render(g);
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync(); // X11 gộp lệnh vẽ, không sync thì bị giật
+        return true;
+    }
 
+    /** EDT only (e.g. from {@link Scene#update}). */
     public void changeScene(Scene next) {
         if (currentScene != null) {
-            frame.remove(currentScene);
+            frame.remove(canvas != null ? canvas : currentScene);
+            if (strategy != null) strategy.dispose();
+            canvas = null;
+            strategy = null;
             currentScene.onDestroy();
         }
         currentScene = next;
         currentScene.attach(this);
-        frame.add(currentScene, BorderLayout.CENTER);
+        Component view = currentScene;
+        if (GameConfig.ACTIVE_RENDERING && next.supportsActiveRendering()) {
+            canvas = new Canvas();
+            canvas.setIgnoreRepaint(true);
+            canvas.setBackground(next.getBackground());
+            canvas.setFocusable(true);
+            for (var l : next.getKeyListeners()) canvas.addKeyListener(l); // phím đi vào canvas, không vào panel
+            view = canvas;
+        }
+        frame.add(view, BorderLayout.CENTER);
         frame.revalidate();
         currentScene.onLoad();
-        currentScene.requestFocusInWindow();
+        view.requestFocusInWindow();
     }
 
     public JFrame window() { return frame; }
+    /** Whether the current scene is drawn through a BufferStrategy (EDT). */
+    public boolean activeRendering() { return canvas != null; }
+    /** Length of one update step in seconds. */
+    public float tickSeconds() { return dt; }
+    public long updates() { return updates; }
+    public long renders() { return renders; }
+    /** Update and paint time of the last 240 frames (EDT only, e.g. from {@link Scene#render}). */
+    public FrameTimes frameTimes() { return frameTimes; }
+    /** Wall-clock time thrown away by the spiral-of-death clamp. */
+    public long droppedMs() { return droppedMs; }
 }
@@ -10,6 +10,7 @@ public abstract class Scene extends JPanel {
     private Engine engine;
     private final InputManager input = new InputManager();
     private final List<Sprite> drawables = new ArrayList<>();
+    float alpha; // set by Engine right before each paint
 
     protected Scene() {
         setFocusable(true);
@@ -21,6 +22,8 @@ public abstract class Scene extends JPanel {
     final void attach(Engine e) { this.engine = e; }
     protected final Engine engine() { return engine; }
     protected final InputManager input() { return input; }
+    /** How far (0..1) real time is past the last update when painting; for smoothing motion. */
+    protected final float alpha() { return alpha; }
 
     protected final void addSprite(Sprite s) { drawables.add(s); }
     protected final void removeSprite(Sprite s) { drawables.remove(s); }
@@ -29,11 +32,23 @@ public abstract class Scene extends JPanel {
     public abstract void onDestroy();
     public abstract void update(float dt);
 
+    /**
+     * True if {@link #render} paints every pixel itself, so the Engine may draw
+     * this scene straight into a BufferStrategy instead of going through Swing.
+     * Scenes with Swing child components must keep the default.
+     */
+    public boolean supportsActiveRendering() { return false; }
+
+    /** Draws one frame; {@code g} is already cleared to the background. Used by both render paths. */
+    protected void render(Graphics2D g) {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        drawables.forEach(s -> s.draw(g));
+    }
+
     @Override protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         var g2 = (Graphics2D) g.create();
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        drawables.forEach(s -> s.draw(g2));
+        render(g2);
         g2.dispose();
     }
 }
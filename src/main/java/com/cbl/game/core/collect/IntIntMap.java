@@ -0,0 +1,99 @@
+package com.cbl.game.core.collect;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing int→int map (linear probing, backward-shift delete).
+ * No boxing, no per-entry objects; only grows when the load passes 1/2.
+ */
+public final class IntIntMap {
+    private static final int FREE = 0;   // key 0 lives outside the table
+
+    private int[] keys, values;
+    private int mask, size;
+    private boolean hasZero;
+    private int zeroValue;
+
+    public IntIntMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+        keys = new int[cap];
+        values = new int[cap];
+        mask = cap - 1;
+    }
+
+    public int size() { return size + (hasZero ? 1 : 0); }
+
+    public boolean containsKey(int key) {
+        return key == FREE ? hasZero : keys[find(key)] == key;
+    }
+
+    /** @return the value, or {@code missing} if absent. */
+    public int get(int key, int missing) {
+        if (key == FREE) return hasZero ? zeroValue : missing;
+        int i = find(key);
+        return keys[i] == key ? values[i] : missing;
+    }
+
+    public void put(int key, int value) {
+        if (key == FREE) { hasZero = true; zeroValue = value; return; }
+        int i = find(key);
+        if (keys[i] == key) { values[i] = value; return; }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) grow();
+    }
+
+    /** @return the removed value, or {@code missing} if absent. */
+    public int remove(int key, int missing) {
+        if (key == FREE) {
+            if (!hasZero) return missing;
+            hasZero = false;
+            return zeroValue;
+        }
+        int i = find(key);
+        if (keys[i] != key) return missing;
+        int old = values[i];
+        // backward-shift: pull later entries of the probe run into the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+            int home = hash(keys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = FREE;
+        size--;
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+        hasZero = false;
+    }
+
+    /** Slot of {@code key}, or of the free slot where it would go. */
+    private int find(int key) {
+        int i = hash(key);
+        while (keys[i] != FREE && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    private int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void grow() {
+        int[] oldK = keys, oldV = values;
+        keys = new int[oldK.length * 2];
+        values = new int[oldK.length * 2];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldK.length; i++) {
+            if (oldK[i] != FREE) put(oldK[i], oldV[i]);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.cbl.game.core.entity;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays entity table: each component is a column ({@code float[]}
+ * or {@code int[]}) and live entities are packed into rows [0, size), so
+ * update and render loops walk plain arrays. Removal swaps the last row into
+ * the hole.
+ * <p>
+ * Rows move, so entities are referred to by handle: a slot index plus a
+ * generation that changes every time the slot is reused, which makes stale
+ * handles fail {@link #row(int)} instead of pointing at someone else. Slots
+ * are recycled through a free list and columns only grow, so steady state
+ * does not allocate.
+ * <p>
+ * Not thread-safe. Column arrays are replaced when the table grows, so fetch
+ * them again after {@link #add()}.
+ */
+public final class EntityStore {
+    public static final int NONE = -1;
+    private static final int SLOT_BITS = 20, SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GEN_MASK = (1 << (31 - SLOT_BITS)) - 1; // handles stay >= 0
+
+    private final float[][] floats;
+    private final int[][] ints;
+    private int[] rowSlot;      // row → slot
+    private int[] slotRow;      // slot → row, NONE when free
+    private int[] slotGen;
+    private int[] freeSlots;
+    private int size, slots, freeCount;
+
+    public EntityStore(int floatColumns, int intColumns, int capacity) {
+        capacity = Math.max(capacity, 4);
+        floats = new float[floatColumns][capacity];
+        ints = new int[intColumns][capacity];
+        rowSlot = new int[capacity];
+        slotRow = new int[capacity];
+        slotGen = new int[capacity];
+        freeSlots = new int[capacity];
+    }
+
+    public int size() { return size; }
+
+    /** Column {@code c}, indexed by row. */
+    public float[] f(int c) { return floats[c]; }
+    public int[] i(int c) { return ints[c]; }
+
+    /** Adds a zeroed entity in row {@code size() - 1}. @return its handle. */
+    public int add() {
+        if (size == rowSlot.length) grow();
+        int slot;
+        if (freeCount > 0) slot = freeSlots[--freeCount];
+        else {
+            if (slots > SLOT_MASK) throw new IllegalStateException("too many entities");
+            slot = slots++;
+        }
+        int row = size++;
+        for (float[] col : floats) col[row] = 0;
+        for (int[] col : ints) col[row] = 0;
+        rowSlot[row] = slot;
+        slotRow[slot] = row;
+        return slotGen[slot] << SLOT_BITS | slot;
+    }
+
+    /** Current row of {@code handle}, or {@link #NONE} if it was removed. */
+    public int row(int handle) {
+        if (handle < 0) return NONE;
+        int slot = handle & SLOT_MASK;
+        if (slot >= slots || slotGen[slot] != handle >>> SLOT_BITS) return NONE;
+        return slotRow[slot];
+    }
+
+    public boolean alive(int handle) { return row(handle) != NONE; }
+
+    public int handle(int row) {
+        int slot = rowSlot[row];
+        return slotGen[slot] << SLOT_BITS | slot;
+    }
+
+    /** @return false if {@code handle} was already gone. */
+    public boolean remove(int handle) {
+        int row = row(handle);
+        if (row == NONE) return false;
+        removeRow(row);
+        return true;
+    }
+
+    /**
+     * Removes row {@code row}; the last row moves into it. When removing while
+     * iterating, walk rows from the end or re-check the same row afterwards.
+     */
+    public void removeRow(int row) {
+        int slot = rowSlot[row], last = --size;
+        if (row != last) {
+            for (float[] col : floats) col[row] = col[last];
+            for (int[] col : ints) col[row] = col[last];
+            int moved = rowSlot[last];
+            rowSlot[row] = moved;
+            slotRow[moved] = row;
+        }
+        slotRow[slot] = NONE;
+        slotGen[slot] = (slotGen[slot] + 1) & GEN_MASK;
+        freeSlots[freeCount++] = slot;
+    }
+
+    /** Removes everything; outstanding handles all become stale. */
+    public void clear() {
+        while (size > 0) removeRow(size - 1);
+    }
+
+    private void grow() {
+        int n = rowSlot.length * 2;
+        for (int c = 0; c < floats.length; c++) floats[c] = Arrays.copyOf(floats[c], n);
+        for (int c = 0; c < ints.length; c++) ints[c] = Arrays.copyOf(ints[c], n);
+        rowSlot = Arrays.copyOf(rowSlot, n);
+        slotRow = Arrays.copyOf(slotRow, n);
+        slotGen = Arrays.copyOf(slotGen, n);
+        freeSlots = Arrays.copyOf(freeSlots, n);
+    }
+}
@@ -0,0 +1,57 @@
+package com.cbl.game.core.metrics;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Heap bytes allocated by one thread between {@link #begin()} and
+ * {@link #end()}, read from the JVM's per-thread allocation counter (HotSpot's
+ * {@code com.sun.management.ThreadMXBean}). Cheap enough to wrap every tick.
+ * On JVMs without the counter everything reads 0 and {@link #supported()} is false.
+ * Single-threaded: begin/end/reset from the measured thread; getters from anywhere.
+ */
+public final class AllocationMeter {
+    private static final com.sun.management.ThreadMXBean MX = threadBean();
+
+    private long start;
+    private volatile long last, max, total, samples;
+
+    public static boolean supported() { return MX != null; }
+
+    /** Bytes the calling thread has allocated since it started (0 if unsupported). */
+    public static long currentThreadBytes() {
+        return MX == null ? 0 : MX.getCurrentThreadAllocatedBytes();
+    }
+
+    public void begin() { start = currentThreadBytes(); }
+
+    /** @return bytes allocated since {@link #begin()}. */
+    public long end() {
+        long b = currentThreadBytes() - start;
+        last = b;
+        if (b > max) max = b;
+        total += b;
+        samples++;
+        return b;
+    }
+
+    /** Forgets max/total, e.g. after warm-up. */
+    public void reset() { max = 0; total = 0; samples = 0; }
+
+    public long last() { return last; }
+    public long max() { return max; }
+    public long samples() { return samples; }
+    public double average() { long n = samples; return n == 0 ? 0 : total / (double) n; }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            var bean = ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+            var mx = (com.sun.management.ThreadMXBean) bean;
+            if (!mx.isThreadAllocatedMemorySupported()) return null;
+            if (!mx.isThreadAllocatedMemoryEnabled()) mx.setThreadAllocatedMemoryEnabled(true);
+            return mx;
+        } catch (LinkageError | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.cbl.game.core.metrics;
+
+import java.util.Arrays;
+
+/**
+ * The last {@code capacity} rendered frames: time spent in updates, time spent
+ * painting, and the interval since the previous frame. Percentiles sort a
+ * preallocated scratch copy, so nothing allocates. Single-threaded: the
+ * Engine records and overlays read on the EDT.
+ */
+public final class FrameTimes {
+    private final long[] update, paint, interval, scratch;
+    private int next, size;
+    private long lastFrame;
+
+    public FrameTimes(int capacity) {
+        update = new long[capacity];
+        paint = new long[capacity];
+        interval = new long[capacity];
+        scratch = new long[capacity];
+    }
+
+    /** One rendered frame; {@code updateNanos} covers every update step since the previous one. */
+    public void record(long updateNanos, long paintNanos, long now) {
+        update[next] = updateNanos;
+        paint[next] = paintNanos;
+        interval[next] = lastFrame == 0 ? 0 : now - lastFrame;
+        lastFrame = now;
+        next = (next + 1) % update.length;
+        if (size < update.length) size++;
+    }
+
+    public int size() { return size; }
+    public int capacity() { return update.length; }
+
+    /** {@code i} = 0 is the oldest frame kept, {@code size() - 1} the newest. */
+    public long updateNanos(int i) { return update[index(i)]; }
+    public long paintNanos(int i) { return paint[index(i)]; }
+    public long intervalNanos(int i) { return interval[index(i)]; }
+
+    /** Percentile of update + paint over the frames kept. */
+    public long workPercentile(double p) {
+        for (int i = 0; i < size; i++) scratch[i] = update[i] + paint[i];
+        return pick(p);
+    }
+
+    /** Percentile of the time between frames (what the player feels as a hitch). */
+    public long intervalPercentile(double p) {
+        int n = 0;
+        for (int i = 0; i < size; i++) if (interval[i] > 0) scratch[n++] = interval[i];
+        return pick(n, p);
+    }
+
+    public void clear() {
+        next = 0;
+        size = 0;
+        lastFrame = 0;
+    }
+
+    private long pick(double p) { return pick(size, p); }
+
+    private long pick(int n, double p) {
+        if (n == 0) return 0;
+        Arrays.sort(scratch, 0, n);
+        int rank = (int) Math.ceil(n * p / 100.0) - 1;
+        return scratch[Math.max(0, Math.min(n - 1, rank))];
+    }
+
+    private int index(int i) {
+        return (next - size + i + update.length) % update.length;
+    }
+}
@@ -0,0 +1,33 @@
+package com.cbl.game.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events from any thread and turns them into a per-second rate when
+ * asked. The rate is the average since the previous refresh, refreshed at
+ * most every {@code windowMs}, so polling it every frame is cheap and stable.
+ */
+public final class RateMeter {
+    private final AtomicLong count = new AtomicLong();
+    private final long windowNanos;
+    private long lastCount, lastNanos;   // guarded by this
+    private double rate;
+
+    public RateMeter(int windowMs) { this.windowNanos = windowMs * 1_000_000L; }
+
+    public void mark() { count.incrementAndGet(); }
+    public void mark(long n) { count.addAndGet(n); }
+    public long total() { return count.get(); }
+
+    public synchronized double perSecond() {
+        long now = System.nanoTime(), c = count.get();
+        if (lastNanos == 0) { lastNanos = now; lastCount = c; return 0; }
+        long dt = now - lastNanos;
+        if (dt >= windowNanos) {
+            rate = (c - lastCount) * 1e9 / dt;
+            lastNanos = now;
+            lastCount = c;
+        }
+        return rate;
+    }
+}
@@ -0,0 +1,46 @@
+package com.cbl.game.core.metrics;
+
+/**
+ * Wall time of a periodic job: last, max, a moving average and how often it
+ * ran over its budget. Single-threaded like {@link AllocationMeter}:
+ * begin/end/reset from the thread doing the work, getters from anywhere.
+ * The run and overrun counts are totals and never go back; {@link #reset()}
+ * only starts a new interval for max and {@link #intervalOverruns()}.
+ */
+public final class TickTimer {
+    private static final double SMOOTHING = 0.05;  // ~20 ticks
+
+    private final long budgetNanos;
+    private long start;
+    private volatile long last, max, count, overruns, overrunsBase;
+    private volatile double average;
+
+    /** @param budgetNanos a run longer than this counts as an overrun */
+    public TickTimer(long budgetNanos) { this.budgetNanos = budgetNanos; }
+
+    public void begin() { start = System.nanoTime(); }
+
+    /** @return nanoseconds since {@link #begin()}. */
+    public long end() {
+        long d = System.nanoTime() - start;
+        last = d;
+        if (d > max) max = d;
+        if (d > budgetNanos) overruns++;
+        average = count++ == 0 ? d : average + (d - average) * SMOOTHING;
+        return d;
+    }
+
+    /** Forgets max and starts counting interval overruns from here, e.g. after warm-up. */
+    public void reset() { max = 0; overrunsBase = overruns; }
+
+    public long lastNanos() { return last; }
+    public long maxNanos() { return max; }
+    /** Exponential moving average, so it follows load changes within about a second. */
+    public double averageNanos() { return average; }
+    public long count() { return count; }
+    /** Runs over budget since the timer was created. */
+    public long overruns() { return overruns; }
+    /** Runs over budget since the last {@link #reset()}. */
+    public long intervalOverruns() { return overruns - overrunsBase; }
+    public long budgetNanos() { return budgetNanos; }
+}
@@ -0,0 +1,85 @@
+package com.cbl.game.core.render;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Printable ASCII of one font and colour rendered once into small images.
+ * Drawing text is then a blit per character with no layout, and numbers can
+ * be drawn without turning them into Strings first. Characters outside
+ * ASCII fall back to {@link Graphics2D#drawString}.
+ */
+public final class GlyphCache {
+    private static final int FIRST = 32, LAST = 126;
+
+    private final Font font;
+    private final Color color;
+    private final BufferedImage[] glyphs = new BufferedImage[LAST - FIRST + 1];
+    private final int[] advance = new int[LAST - FIRST + 1];
+    private final int ascent, height;
+    private final char[] digits = new char[11];
+
+    public GlyphCache(Font font, Color color) {
+        this.font = font;
+        this.color = color;
+        var probe = Images.compatible(1, 1, Transparency.TRANSLUCENT).createGraphics();
+        probe.setFont(font);
+        FontMetrics fm = probe.getFontMetrics();
+        probe.dispose();
+        ascent = fm.getAscent();
+        height = fm.getHeight();
+        for (int c = FIRST; c <= LAST; c++) {
+            int w = fm.charWidth(c);
+            advance[c - FIRST] = w;
+            if (c == ' ' || w == 0) continue;
+            var img = Images.compatible(w + 2, height, Transparency.TRANSLUCENT);
+            var g = img.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setFont(font);
+            g.setColor(color);
+            g.drawString(String.valueOf((char) c), 0, ascent);
+            g.dispose();
+            glyphs[c - FIRST] = img;
+        }
+    }
+
+    public int height() { return height; }
+
+    /** Draws {@code s} with its baseline at {@code y}. @return x after the last character. */
+    public int draw(Graphics2D g, CharSequence s, int x, int y) {
+        for (int i = 0, n = s.length(); i < n; i++) x = drawChar(g, s.charAt(i), x, y);
+        return x;
+    }
+
+    /** Draws {@code v} in decimal without allocating. @return x after the last digit. */
+    public int draw(Graphics2D g, int v, int x, int y) {
+        int n = 0;
+        long u = Math.abs((long) v);
+        do { digits[n++] = (char) ('0' + u % 10); u /= 10; } while (u != 0);
+        if (v < 0) x = drawChar(g, '-', x, y);
+        while (n > 0) x = drawChar(g, digits[--n], x, y);
+        return x;
+    }
+
+    public int width(CharSequence s) {
+        int w = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            w += c >= FIRST && c <= LAST ? advance[c - FIRST] : height / 2;
+        }
+        return w;
+    }
+
+    private int drawChar(Graphics2D g, char c, int x, int y) {
+        if (c < FIRST || c > LAST) {
+            g.setFont(font);
+            g.setColor(color);
+            String s = String.valueOf(c);
+            g.drawString(s, x, y);
+            return x + g.getFontMetrics().stringWidth(s);
+        }
+        var img = glyphs[c - FIRST];
+        if (img != null) g.drawImage(img, x, y - ascent, null);
+        return x + advance[c - FIRST];
+    }
+}
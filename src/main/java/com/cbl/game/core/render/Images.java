@@ -0,0 +1,45 @@
+package com.cbl.game.core.render;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/** Images in the screen's native format, so Java2D can keep them in video memory and blit them. */
+public final class Images {
+    private Images() {}
+
+    public static BufferedImage compatible(int w, int h, int transparency) {
+        var ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
+        if (ge.isHeadlessInstance()) {
+            return new BufferedImage(w, h, transparency == Transparency.OPAQUE
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        return ge.getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(w, h, transparency);
+    }
+
+    /** Antialiased filled circle of diameter {@code d}, drawn once and then blitted. */
+    public static BufferedImage circle(int d, Color fill) {
+        var img = compatible(d, d, Transparency.TRANSLUCENT);
+        var g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(fill);
+        g.fillOval(0, 0, d, d);
+        g.dispose();
+        return img;
+    }
+
+    /** Rounded square {@code size}×{@code size}, optionally filled and/or outlined with {@code stroke}. */
+    public static BufferedImage roundRect(int size, int arc, Color fill, Color outline, float stroke) {
+        int pad = (int) Math.ceil(stroke / 2) + 1, full = size + pad * 2;
+        var img = compatible(full, full, Transparency.TRANSLUCENT);
+        var g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        if (fill != null) { g.setColor(fill); g.fillRoundRect(pad, pad, size, size, arc, arc); }
+        if (outline != null) {
+            g.setColor(outline);
+            g.setStroke(new BasicStroke(stroke));
+            g.drawRoundRect(pad, pad, size, size, arc, arc);
+        }
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,38 @@
+package com.cbl.game.core.render;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.function.BiConsumer;
+
+/**
+ * Something that rarely changes (a background grid, a frame) painted once
+ * into an opaque compatible image and then blitted every frame. Repainted only
+ * when the target size changes or {@link #invalidate()} is called.
+ */
+public final class StaticLayer {
+    /** Paints the layer; receives the graphics and the size as a Dimension (w, h). */
+    private final BiConsumer<Graphics2D, Dimension> painter;
+    private BufferedImage image;
+    private final Dimension size = new Dimension();
+    private boolean dirty = true;
+
+    public StaticLayer(BiConsumer<Graphics2D, Dimension> painter) { this.painter = painter; }
+
+    public void invalidate() { dirty = true; }
+
+    public void draw(Graphics2D g, int w, int h) {
+        if (w <= 0 || h <= 0) return;
+        if (dirty || image == null || size.width != w || size.height != h) {
+            if (image == null || image.getWidth() != w || image.getHeight() != h) {
+                if (image != null) image.flush();
+                image = Images.compatible(w, h, Transparency.OPAQUE);
+            }
+            size.setSize(w, h);
+            var ig = image.createGraphics();
+            painter.accept(ig, size);
+            ig.dispose();
+            dirty = false;
+        }
+        g.drawImage(image, 0, 0, null);
+    }
+}
@@ -0,0 +1,241 @@
+package com.cbl.game.core.spatial;
+
+import com.cbl.game.core.collect.IntIntMap;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Uniform grid over int ids with float positions, for "what is near (x, y)"
+ * queries. Cells hash into a power-of-two bucket table; each bucket is an
+ * intrusive doubly-linked list threaded through per-slot arrays, so insert,
+ * move and remove are O(1) and queries allocate nothing. Ids must be >= 0.
+ * Not thread-safe.
+ */
+public final class SpatialHash {
+    /** Returned by lookups that found nothing; also marks empty links internally. */
+    public static final int NONE = -1;
+
+    private final float cellSize, invCell;
+    private final int[] heads;
+    private final int bucketMask;
+    private final IntIntMap slotOf;
+
+    // per-slot data (slot = storage index, not the caller's id)
+    private int[] ids, cellX, cellY, next, prev;
+    private float[] xs, ys;
+    private int used, live, freeHead = NONE;
+
+    /**
+     * @param cellSize roughly the typical query radius
+     * @param expected entity count to size the tables for (they grow if exceeded)
+     */
+    public SpatialHash(float cellSize, int expected) {
+        this.cellSize = cellSize;
+        this.invCell = 1f / cellSize;
+        int buckets = Integer.highestOneBit(Math.max(16, expected) * 2 - 1) << 1;
+        this.heads = new int[buckets];
+        this.bucketMask = buckets - 1;
+        Arrays.fill(heads, NONE);
+        this.slotOf = new IntIntMap(expected);
+        ids = new int[expected]; cellX = new int[expected]; cellY = new int[expected];
+        next = new int[expected]; prev = new int[expected];
+        xs = new float[expected]; ys = new float[expected];
+    }
+
+    public int size() { return live; }
+    public boolean contains(int id) { return slotOf.containsKey(id); }
+    /** Position of a present id (undefined for absent ids). */
+    public float x(int id) { return xs[slotOf.get(id, 0)]; }
+    public float y(int id) { return ys[slotOf.get(id, 0)]; }
+
+    /** Inserts {@code id} at (x, y), or moves it there if already present. */
+    public void put(int id, float x, float y) {
+        int s = slotOf.get(id, NONE);
+        if (s == NONE) {
+            s = alloc();
+            ids[s] = id;
+            slotOf.put(id, s);
+            live++;
+            xs[s] = x; ys[s] = y;
+            link(s, cell(x), cell(y));
+            return;
+        }
+        xs[s] = x; ys[s] = y;
+        int cx = cell(x), cy = cell(y);
+        if (cx != cellX[s] || cy != cellY[s]) {
+            unlink(s);
+            link(s, cx, cy);
+        }
+    }
+
+    public boolean remove(int id) {
+        int s = slotOf.remove(id, NONE);
+        if (s == NONE) return false;
+        unlink(s);
+        next[s] = freeHead;
+        freeHead = s;
+        ids[s] = 0;
+        live--;
+        return true;
+    }
+
+    /** Removes every id for which {@code gone} returns true. */
+    public void removeIf(IntPredicate gone) {
+        for (int s = 0; s < used; s++) {
+            if (prev[s] == FREE_MARK) continue;
+            if (gone.test(ids[s])) remove(ids[s]);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(heads, NONE);
+        slotOf.clear();
+        used = live = 0;
+        freeHead = NONE;
+    }
+
+    /**
+     * Writes the ids within {@code r} of (x, y) into {@code out} (unordered).
+     * @return how many matched; values past {@code out.length} are dropped,
+     *         so a result equal to {@code out.length} may be truncated.
+     */
+    public int queryRadius(float x, float y, float r, int[] out) {
+        int n = 0;
+        float r2 = r * r;
+        int cx0 = cell(x - r), cx1 = cell(x + r), cy0 = cell(y - r), cy1 = cell(y + r);
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int s = heads[bucket(cx, cy)]; s != NONE; s = next[s]) {
+                    if (cellX[s] != cx || cellY[s] != cy) continue; // other cell, same bucket
+                    float dx = xs[s] - x, dy = ys[s] - y;
+                    if (dx * dx + dy * dy <= r2) {
+                        if (n < out.length) out[n] = ids[s];
+                        n++;
+                    }
+                }
+            }
+        }
+        return Math.min(n, out.length);
+    }
+
+    /** @return any id within {@code r} of (x, y), or {@link #NONE}. Good for hit tests. */
+    public int firstWithin(float x, float y, float r) {
+        float r2 = r * r;
+        int cx0 = cell(x - r), cx1 = cell(x + r), cy0 = cell(y - r), cy1 = cell(y + r);
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int s = heads[bucket(cx, cy)]; s != NONE; s = next[s]) {
+                    if (cellX[s] != cx || cellY[s] != cy) continue;
+                    float dx = xs[s] - x, dy = ys[s] - y;
+                    if (dx * dx + dy * dy <= r2) return ids[s];
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return the lowest id within {@code r} of (x, y), or {@link #NONE}. Unlike
+     * {@link #firstWithin} the answer does not depend on insertion history, so
+     * two grids holding the same points agree (lockstep simulations).
+     */
+    public int lowestWithin(float x, float y, float r) {
+        float r2 = r * r;
+        int best = NONE;
+        int cx0 = cell(x - r), cx1 = cell(x + r), cy0 = cell(y - r), cy1 = cell(y + r);
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int s = heads[bucket(cx, cy)]; s != NONE; s = next[s]) {
+                    if (cellX[s] != cx || cellY[s] != cy) continue;
+                    float dx = xs[s] - x, dy = ys[s] - y;
+                    if (dx * dx + dy * dy <= r2 && (best == NONE || ids[s] < best)) best = ids[s];
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the id closest to (x, y) within {@code maxR}, or {@link #NONE}. Searches
+     * rings of cells outward and falls back to a linear scan once that would
+     * visit more cells than there are entities (sparse grids).
+     */
+    public int nearest(float x, float y, float maxR) {
+        if (live == 0) return NONE;
+        int cx = cell(x), cy = cell(y);
+        int maxRing = (int) Math.min(1 << 16, Math.ceil(maxR * invCell) + 1);
+        float bestD2 = maxR >= Float.MAX_VALUE ? Float.MAX_VALUE : maxR * maxR;
+        int best = NONE, visited = 0;
+        for (int k = 0; k <= maxRing; k++) {
+            if (best != NONE) {
+                float ringDist = (k - 1) * cellSize;
+                if (ringDist > 0 && ringDist * ringDist > bestD2) break;
+            }
+            visited += k == 0 ? 1 : 8 * k;
+            if (visited > 2 * live + 8) return nearestLinear(x, y, bestD2, best);
+            for (int gy = cy - k; gy <= cy + k; gy++) {
+                boolean edgeRow = gy == cy - k || gy == cy + k;
+                for (int gx = cx - k; gx <= cx + k; gx += edgeRow ? 1 : 2 * k) {
+                    for (int s = heads[bucket(gx, gy)]; s != NONE; s = next[s]) {
+                        if (cellX[s] != gx || cellY[s] != gy) continue;
+                        float dx = xs[s] - x, dy = ys[s] - y, d2 = dx * dx + dy * dy;
+                        if (d2 <= bestD2) { bestD2 = d2; best = ids[s]; }
+                    }
+                    if (k == 0) break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private int nearestLinear(float x, float y, float bestD2, int best) {
+        for (int s = 0; s < used; s++) {
+            if (prev[s] == FREE_MARK) continue;
+            float dx = xs[s] - x, dy = ys[s] - y, d2 = dx * dx + dy * dy;
+            if (d2 <= bestD2) { bestD2 = d2; best = ids[s]; }
+        }
+        return best;
+    }
+
+    // ---------- internals ----------
+    private static final int FREE_MARK = -2; // prev[] of a slot on the free list
+
+    private int cell(float v) { return (int) Math.floor(v * invCell); }
+
+    private int bucket(int cx, int cy) {
+        int h = cx * 0x9E3779B1 + cy * 0x85EBCA77;
+        return (h ^ (h >>> 15)) & bucketMask;
+    }
+
+    private void link(int s, int cx, int cy) {
+        cellX[s] = cx; cellY[s] = cy;
+        int b = bucket(cx, cy);
+        prev[s] = NONE;
+        next[s] = heads[b];
+        if (heads[b] != NONE) prev[heads[b]] = s;
+        heads[b] = s;
+    }
+
+    private void unlink(int s) {
+        if (prev[s] != NONE) next[prev[s]] = next[s];
+        else heads[bucket(cellX[s], cellY[s])] = next[s];
+        if (next[s] != NONE) prev[next[s]] = prev[s];
+        prev[s] = FREE_MARK;
+    }
+
+    private int alloc() {
+        if (freeHead != NONE) {
+            int s = freeHead;
+            freeHead = next[s];
+            return s;
+        }
+        if (used == ids.length) {
+            int cap = Math.max(16, used * 2);
+            ids = Arrays.copyOf(ids, cap); cellX = Arrays.copyOf(cellX, cap); cellY = Arrays.copyOf(cellY, cap);
+            next = Arrays.copyOf(next, cap); prev = Arrays.copyOf(prev, cap);
+            xs = Arrays.copyOf(xs, cap); ys = Arrays.copyOf(ys, cap);
+        }
+        return used++;
+    }
+}
@@ -1,8 +1,23 @@
 package com.cbl.game.game.scenes;
 
+import com.cbl.game.config.GameConfig;
 import com.cbl.game.core.Engine;
 import com.cbl.game.core.Scene;
+import com.cbl.game.core.collect.IntIntMap;
+import com.cbl.game.core.entity.EntityStore;
+import com.cbl.game.core.render.GlyphCache;
+import com.cbl.game.core.render.Images;
+import com.cbl.game.core.render.StaticLayer;
+import com.cbl.game.core.spatial.SpatialHash;
+import com.cbl.game.net.MessageType;
 import com.cbl.game.net.NetClient;
+import com.cbl.game.net.NetMessage;
+import com.cbl.game.net.Snapshot;
+import com.cbl.game.net.SnapshotBuffer;
+import com.cbl.game.sim.DetRandom;
+import com.cbl.game.sim.LockstepWorld;
+import com.cbl.game.sim.PlayerMotion;
+import com.cbl.game.sim.PlayerState;
 
 import javax.swing.*;
 import java.awt.*;
@@ -11,63 +26,95 @@ import java.awt.KeyEventDispatcher;
 import java.awt.KeyboardFocusManager;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 public final class GameplayScene extends Scene {
 
     // ====== CONFIG ======
-    private static final int   FPS               = 60;
-    private static final float DT                = 1f / FPS;
-    private static final float PLAYER_SPEED      = 180f;  // px/s
     private static final float PLAYER_RADIUS     = 12f;   // ~ half-size
-    private static final int   PLAYER_MAX_HP     = 100;
-    private static final float IFRAME_SEC        = 0.8f;  // miễn thương sau khi trúng
-    private static final float KNOCKBACK         = 220f;  // lực hất lùi
     private static final float BULLET_SPEEDY     = -300f; // bay lên
-    private static final int   BULLET_LIFETIMEMS = 900;
-    private static final float SEND_POS_HZ       = 15f;
+    private static final int   BULLET_LIFETIMEMS = GameConfig.BULLET_LIFETIME_MS;
     private static final float ENEMY_RADIUS      = 14f;
-    private static final float ENEMY_HIT_R2      = (PLAYER_RADIUS + ENEMY_RADIUS) * (PLAYER_RADIUS + ENEMY_RADIUS);
+    private static final float ENEMY_HIT_R       = PLAYER_RADIUS + ENEMY_RADIUS;
 
     // ====== ENGINE / NET ======
     private final Engine engine;
     private final String host;
     private final int    port;
+    private final String room;
 
-    public GameplayScene(Engine engine, String host, int port) {
-        this.engine = engine; this.host = host; this.port = port;
+    /** {@code room}: session to join or create on the server ("" = default room). */
+    public GameplayScene(Engine engine, String host, int port, String room) {
+        this.engine = engine; this.host = host; this.port = port; this.room = room;
     }
 
     // ====== PLAYER STATE ======
-    private float px = 120, py = 120;
-    private float vx = 0,  vy = 0;               // vận tốc (để knockback trông mượt)
+    private final PlayerState me = new PlayerState(); // vị trí/vận tốc/HP/i-frame, luật trong PlayerMotion
     private boolean up, down, left, right, shootPressed, respawnPressed, backLobbyPressed;
-    private int hp = PLAYER_MAX_HP;
-    private boolean dead = false;
-    private float iFrame = 0f;                   // đếm miễn thương
+    private volatile boolean perfVisible;        // F3
     private float hurtFlash = 0f;                // overlay đỏ ngắn khi trúng
 
-    // ====== LOOP & INPUT ======
-    private javax.swing.Timer timer;
+    // ====== INPUT ======
     private KeyEventDispatcher keyDispatcher;
+    private float prevX, prevY;                  // vị trí trước update cuối, để vẽ nội suy theo alpha
 
     // ====== NETWORK ======
     private NetClient net;
-    private final Map<Integer, Point> ghosts  = new ConcurrentHashMap<>();
-    private final Map<Integer, Enemy> enemies = new ConcurrentHashMap<>();
-    private float posSendAccum = 0f;
-
-    // ====== ENEMY (server-managed) ======
-    private static final class Enemy { int id; int hp; float x,y; }
+    private float inputSendAccum = 0f, pingAccum = 0f;
+
+    // ====== PREDICTION (EDT, except serverMe) ======
+    private static final int INPUT_RING = 64;                 // ~1 s of inputs at 60 Hz
+    private final int[] inputButtons = new int[INPUT_RING];   // by seq % INPUT_RING
+    private final PlayerState[] predicted = new PlayerState[INPUT_RING]; // state right after that input
+    { for (int i = 0; i < INPUT_RING; i++) predicted[i] = new PlayerState(); }
+    private final int[] sendScratch = new int[NetMessage.MAX_INPUTS];
+    private int inputSeq, ackedInput, corrections;
+    private int lastServerHp = PlayerMotion.MAX_HP;
+    private final PlayerState authoritative = new PlayerState();
+    private final PlayerState serverMe = new PlayerState();   // guarded by itself (net thread writes)
+    private int serverInput;
+    private boolean serverFresh;
+
+    // Snapshots are buffered and drawn INTERP_DELAY_MS in the past (net thread pushes, EDT samples)
+    private final SnapshotBuffer remote = new SnapshotBuffer(GameConfig.SERVER_TICK_MS,
+            GameConfig.INTERP_DELAY_MS, GameConfig.MAX_EXTRAPOLATE_MS, 16);
+    private final SnapshotBuffer.Frame remoteFrame = new SnapshotBuffer.Frame();
+    private final int[] killed = new int[32];  // ENDEAD đã tới, frame chưa theo kịp; guarded by itself (đầy thì chờ frame)
+    private int killedCount;
+    private int frameStamp;                    // bumps per applied frame; rows not stamped are gone
+
+    // ====== LOCKSTEP (net thread; rooms hosted with --lockstep) ======
+    // Server gửi input từng tick thay vì vị trí enemy: tự chạy world, rồi đẩy vào `remote` như một snapshot
+    private LockstepWorld world;               // null until the first LSTATE
+    private final Snapshot worldView = new Snapshot();
+    private boolean resyncPending;
+    private volatile int desyncs, worldTick;
+    private int fireCooldown;                  // EDT: mirrors the world's, so we don't draw shots it would refuse
+
+    // ====== ENTITIES (EDT only; struct-of-arrays, see EntityStore) ======
+    // columns shared by every store below
+    private static final int X = 0, Y = 1, VX = 2, VY = 3;  // float
+    private static final int ID = 0, HP = 1, SEEN = 2;       // int (enemies, ghosts)
+    private static final int LIFE = 0;                       // int (bullets)
+
+    // server-managed enemies and other players, mirrored from the snapshot buffer
+    private final EntityStore enemies = new EntityStore(2, 3, 64);
+    private final IntIntMap enemyHandles = new IntIntMap(64);   // server id → handle
+    private final EntityStore ghosts = new EntityStore(2, 3, 16);
+    private final IntIntMap ghostHandles = new IntIntMap(16);
 
     // ====== OFFLINE FALLBACK ======
-    private static final class LocalEnemy { float x,y; int hp = 50; }
-    private final List<LocalEnemy> offlineEnemies = new ArrayList<>();
+    private final EntityStore offlineEnemies = new EntityStore(2, 2, 32);
+    private final IntIntMap offlineHandles = new IntIntMap(32);
+    private final long offlineSeed = System.nanoTime();
+    private final DetRandom offlineRng = new DetRandom(offlineSeed);   // same seed, same spawns
+    private int nextOfflineId = 1;
     private float offlineSpawnTimer = 0f;
 
-    // ====== BULLETS ======
-    private static final class Bullet { float x,y,vx,vy; int life = BULLET_LIFETIMEMS; }
-    private final List<Bullet> bullets = Collections.synchronizedList(new ArrayList<>());
+    // ====== SPATIAL INDEX (EDT only; rebuilt each step from whichever enemy set is active) ======
+    private final SpatialHash enemyGrid = new SpatialHash(64f, 512);
+
+    // ====== BULLETS (guarded by itself: the net thread adds other players' shots) ======
+    private final EntityStore bullets = new EntityStore(4, 1, 128);
 
     @Override public void onLoad() {
         setFocusable(true);
@@ -75,12 +122,10 @@ public final class GameplayScene extends Scene {
         requestFocusInWindow();
 
         attachGlobalInput();
-        startGameLoop();
         connectNet();
     }
 
     @Override public void onDestroy() {
-        if (timer != null) timer.stop();
         if (keyDispatcher != null) {
             KeyboardFocusManager.getCurrentKeyboardFocusManager()
                     .removeKeyEventDispatcher(keyDispatcher);
@@ -88,7 +133,8 @@ public final class GameplayScene extends Scene {
         if (net != null) net.close();
     }
 
-    @Override public void update(float dt) { /* dùng Timer */ }
+    /** Called by the Engine loop at GameConfig.TICK_HZ (one predicted input per call). */
+    @Override public void update(float dt) { step(dt); }
 
     // ---------- INPUT ----------
     private void attachGlobalInput() {
@@ -102,6 +148,7 @@ public final class GameplayScene extends Scene {
                     case KeyEvent.VK_SPACE:  shootPressed   = true; break;
                     case KeyEvent.VK_R:      respawnPressed = true; break;
                     case KeyEvent.VK_ESCAPE: backLobbyPressed = true; break;
+                    case KeyEvent.VK_F3:     perfVisible = !perfVisible; break;
                 }
             } else if (e.getID() == KeyEvent.KEY_RELEASED) {
                 switch (e.getKeyCode()) {
@@ -120,15 +167,9 @@ public final class GameplayScene extends Scene {
     }
 
     // ---------- LOOP ----------
-    private void startGameLoop() {
-        timer = new javax.swing.Timer(Math.round(1000f / FPS), ev -> {
-            step(DT);
-            repaint();
-        });
-        timer.start();
-    }
-
     private void step(float dt) {
+        prevX = me.x; prevY = me.y;
+
         // back to lobby?
         if (backLobbyPressed) {
             backLobbyPressed = false;
@@ -137,246 +178,356 @@ public final class GameplayScene extends Scene {
             return;
         }
 
-        // i-frame & flash giảm dần
-        if (iFrame > 0f)     iFrame -= dt;
-        if (hurtFlash > 0f)  hurtFlash -= dt;
+        if (hurtFlash > 0f) hurtFlash -= dt;
 
-        // chết thì chỉ chờ R để respawn
-        if (dead) {
-            if (respawnPressed) {
-                respawnPressed = false;
-                respawn();
-            }
-            // vẫn cho đạn bay để dọn màn hình
-            updateBullets(dt, false);
-            return;
-        }
+        applyRemote();
+        indexEnemies();
 
-        // di chuyển input
-        float ix = 0, iy = 0;
-        if (left)  ix -= 1;
-        if (right) ix += 1;
-        if (up)    iy -= 1;
-        if (down)  iy += 1;
-        if (ix != 0 || iy != 0) {
-            float len = (float)Math.hypot(ix, iy);
-            ix /= len; iy /= len;
-            vx = ix * PLAYER_SPEED;
-            vy = iy * PLAYER_SPEED;
+        // di chuyển: cùng luật với server (PlayerMotion); online thì đoán trước rồi đối chiếu
+        int buttons = currentButtons();
+        boolean lockstep = isOnline() && net.lockstep();
+        if (fireCooldown > 0) fireCooldown--;
+        if (lockstep && shootPressed && (me.dead() || fireCooldown > 0)) shootPressed = false;
+        if (lockstep && shootPressed) {
+            buttons |= PlayerMotion.FIRE;   // lockstep: phát bắn đi cùng input, world tự sinh đạn
+            fireCooldown = LockstepWorld.FIRE_COOLDOWN;
+        }
+        if (isOnline()) {
+            predict(buttons);
+            reconcile();
         } else {
-            // giảm dần vận tốc khi không giữ phím (để knockback có tác dụng)
-            vx *= 0.85f;
-            vy *= 0.85f;
-            if (Math.abs(vx) < 1) vx = 0;
-            if (Math.abs(vy) < 1) vy = 0;
+            PlayerMotion.step(me, buttons);
         }
-        px += vx * dt;
-        py += vy * dt;
 
         // bắn
         if (shootPressed) {
             shootPressed = false;
-            spawnLocalBullet(px + PLAYER_RADIUS, py + PLAYER_RADIUS, 0, BULLET_SPEEDY);
-            if (isOnline()) net.sendShot(px + PLAYER_RADIUS, py + PLAYER_RADIUS, 0, BULLET_SPEEDY);
+            if (!me.dead()) {
+                spawnLocalBullet(me.x + PLAYER_RADIUS, me.y + PLAYER_RADIUS, 0, BULLET_SPEEDY);
+                if (isOnline() && !lockstep) net.sendShot(me.x + PLAYER_RADIUS, me.y + PLAYER_RADIUS, 0, BULLET_SPEEDY,
+                        (int) Math.round(remoteFrame.seq)); // server tua lại đúng cảnh đang vẽ
+            }
         }
 
-        // cập nhật đạn + va chạm với enemy
-        updateBullets(dt, true);
-
-        // player bị enemy tấn công (online & offline)
-        handlePlayerEnemyDamage(dt);
+        // cập nhật đạn + va chạm với enemy (chết rồi vẫn cho đạn bay để dọn màn hình)
+        updateBullets(dt, !me.dead());
 
-        // gửi vị trí ~15Hz
         if (isOnline()) {
-            posSendAccum += dt;
-            if (posSendAccum >= (1f / SEND_POS_HZ)) {
-                net.sendPos(px, py);
-                posSendAccum = 0f;
+            inputSendAccum += dt;
+            if (inputSendAccum >= (1f / GameConfig.SEND_INPUT_HZ)) {
+                sendInputs();
+                inputSendAccum = 0f;
             }
+            pingAccum += dt;
+            if (pingAccum >= 1f) { net.ping(); pingAccum = 0f; }   // RTT cho overlay F3
+            if (offlineEnemies.size() > 0) clearOffline(); // đã có server: bỏ enemy offline
         } else {
+            // player bị enemy tấn công (online thì server tính)
+            handlePlayerEnemyDamage();
             offlineFallback(dt);
         }
+    }
+
+    private int currentButtons() {
+        int b = 0;
+        if (up)             b |= PlayerMotion.UP;
+        if (down)           b |= PlayerMotion.DOWN;
+        if (left)           b |= PlayerMotion.LEFT;
+        if (right)          b |= PlayerMotion.RIGHT;
+        if (respawnPressed) b |= PlayerMotion.RESPAWN;
+        return b;
+    }
+
+    // ---------- PREDICTION ----------
+    /** Numbers the input, applies it right away and remembers both for replay. */
+    private void predict(int buttons) {
+        int i = ++inputSeq % INPUT_RING;
+        inputButtons[i] = buttons;
+        PlayerMotion.step(me, buttons, net.worldWidth(), net.worldHeight());
+        predicted[i].set(me);
+    }
+
+    /** Newest inputs the server has not confirmed yet (at most MAX_INPUTS; repeats are harmless). */
+    private void sendInputs() {
+        int n = Math.max(1, Math.min(NetMessage.MAX_INPUTS, inputSeq - ackedInput));
+        for (int k = 0; k < n; k++) sendScratch[k] = inputButtons[(inputSeq - n + 1 + k) % INPUT_RING];
+        net.sendInputs(inputSeq, sendScratch, n);
+    }
+
+    /** Net thread: keeps our own row of the newest snapshot for {@link #reconcile()}. */
+    private void noteServerSelf(Snapshot s) {
+        int r = s.players.find(net.getMyId());
+        if (r < 0) return;
+        synchronized (serverMe) {
+            serverMe.x  = NetMessage.dequantize(s.players.get(r, Snapshot.PLAYER_X));
+            serverMe.y  = NetMessage.dequantize(s.players.get(r, Snapshot.PLAYER_Y));
+            serverMe.vx = NetMessage.dequantize(s.players.get(r, Snapshot.PLAYER_VX));
+            serverMe.vy = NetMessage.dequantize(s.players.get(r, Snapshot.PLAYER_VY));
+            serverMe.hp = s.players.get(r, Snapshot.PLAYER_HP);
+            serverInput = s.players.get(r, Snapshot.PLAYER_INPUT);
+            serverFresh = true;
+        }
+    }
+
+    /**
+     * Compares the server's state after input {@code ack} with what we predicted
+     * for it. If they differ (knockback, damage, a dropped input, cheating) we
+     * take the server's state and replay every input after {@code ack} on top.
+     */
+    private void reconcile() {
+        int ack;
+        synchronized (serverMe) {
+            if (!serverFresh) return;
+            serverFresh = false;
+            authoritative.set(serverMe);
+            ack = serverInput;
+        }
+        if (authoritative.hp < lastServerHp) hurtFlash = 0.25f;
+        lastServerHp = authoritative.hp;
+        if (ack > inputSeq || ack < ackedInput) return; // phiên cũ / gói đến trễ
+        ackedInput = ack;
+        int oldest = Math.max(ack + 1, inputSeq - INPUT_RING + 1);
+        if (ack > 0 && oldest == ack + 1 && matches(predicted[ack % INPUT_RING], authoritative)) return;
+        authoritative.iframe = me.iframe; // server không gửi i-frame; giữ của mình
+        me.set(authoritative);
+        for (int seq = oldest; seq <= inputSeq; seq++) {
+            PlayerMotion.step(me, inputButtons[seq % INPUT_RING], net.worldWidth(), net.worldHeight());
+            predicted[seq % INPUT_RING].set(me);
+        }
+        corrections++;
+    }
 
-        // giữ trong màn hình
-        int w = Math.max(getWidth(), 1), h = Math.max(getHeight(), 1);
-        px = clamp(px, 16, w - 32);
-        py = clamp(py, 16, h - 32);
+    private static boolean matches(PlayerState a, PlayerState b) {
+        return a.hp == b.hp && Math.abs(a.x - b.x) <= 0.5f && Math.abs(a.y - b.y) <= 0.5f
+                && Math.abs(a.vx - b.vx) <= 1f && Math.abs(a.vy - b.vy) <= 1f;
     }
 
     // ---------- NETWORK ----------
     private void connectNet() {
-        net = new NetClient(host, port);
-        net.connect(line -> {
-            try {
-                String[] p = line.split("\\|");
-                switch (p[0]) {
-                    case "JOINED": {
-                        int id = parseInt(p[1], -1);
-                        if (id != net.getMyId() && id > 0) ghosts.putIfAbsent(id, new Point(120,120));
-                        break;
-                    }
-                    case "LEAVE": {
-                        int id = parseInt(p[1], -1);
-                        ghosts.remove(id);
-                        break;
-                    }
-                    case "POS": { // POS|id|x|y
-                        int id = parseInt(p[1], -1);
-                        int x  = parseInt(p[2], 120);
-                        int y  = parseInt(p[3], 120);
-                        if (id != net.getMyId() && id > 0) ghosts.put(id, new Point(x, y));
-                        break;
-                    }
-                    case "SHOT": { // SHOT|id|x|y|vx|vy
-                        Bullet b = new Bullet();
-                        b.x = parseInt(p[2], 0);
-                        b.y = parseInt(p[3], 0);
-                        b.vx = parseInt(p[4], 0);
-                        b.vy = parseInt(p[5], (int)BULLET_SPEEDY);
-                        bullets.add(b);
-                        break;
-                    }
-                    case "ENSPAWN": { // ENSPAWN|id|x|y|hp
-                        Enemy e = new Enemy();
-                        e.id = parseInt(p[1], -1);
-                        e.x  = parseInt(p[2], 0);
-                        e.y  = parseInt(p[3], 0);
-                        e.hp = parseInt(p[4], 50);
-                        if (e.id > 0) enemies.put(e.id, e);
-                        break;
-                    }
-                    case "ENPOS": { // ENPOS|id|x|y|hp
-                        int id = parseInt(p[1], -1);
-                        Enemy e = enemies.get(id);
-                        if (e != null) {
-                            e.x  = parseInt(p[2], (int)e.x);
-                            e.y  = parseInt(p[3], (int)e.y);
-                            e.hp = parseInt(p[4], e.hp);
-                            if (e.hp <= 0) enemies.remove(id);
-                        }
-                        break;
-                    }
-                    case "ENHP": { // ENHP|id|hp
-                        int id = parseInt(p[1], -1);
-                        Enemy e = enemies.get(id);
-                        if (e != null) {
-                            e.hp = parseInt(p[2], e.hp);
-                            if (e.hp <= 0) enemies.remove(id);
-                        }
-                        break;
-                    }
-                    case "ENDEAD": { // ENDEAD|id
-                        int id = parseInt(p[1], -1);
-                        enemies.remove(id);
-                        break;
-                    }
-                }
-            } catch (Exception ignore) {}
-        });
+        net = new NetClient(host, port, room);
+        // players/enemies appear, move and vanish through snapshots (see applyRemote)
+        net.on(MessageType.WELCOME, m -> remote.setTickMs(m.tickMs))
+           .on(MessageType.SHOT, this::onShot)
+           .on(MessageType.SNAP, this::onSnapshot)
+           .on(MessageType.ENDEAD, this::onEnemyDead)
+           .on(MessageType.LSTATE, this::onWorld)
+           .on(MessageType.LSTEP, this::onStep)
+           .connect();
     }
 
-    private boolean isOnline() { return net != null && net.isConnected(); }
-
-    // ---------- BULLETS ----------
-    private void spawnLocalBullet(float x, float y, float vx, float vy) {
-        Bullet b = new Bullet(); b.x = x; b.y = y; b.vx = vx; b.vy = vy; bullets.add(b);
+    /** Net thread: the whole lockstep world, on join or after a resync. */
+    private void onWorld(NetMessage m) {
+        var w = m.readWorld();
+        if (w == null) return;
+        world = w;
+        resyncPending = false;
+        publishWorld();
     }
 
-    private void updateBullets(float dt, boolean checkHitEnemies) {
-        synchronized (bullets) {
-            Iterator<Bullet> it = bullets.iterator();
-            while (it.hasNext()) {
-                Bullet b = it.next();
-                b.x += b.vx * dt; b.y += b.vy * dt;
-                b.life -= Math.round(dt * 1000);
-                if (b.life <= 0) { it.remove(); continue; }
+    /**
+     * Net thread: one lockstep tick. Applies it if it is the next one, checks
+     * the checksum when the server sent one, and asks for the world again on
+     * a mismatch or a gap; steps before the current world tick are already in it.
+     */
+    private void onStep(NetMessage m) {
+        var w = world;
+        var in = m.step;
+        if (w == null || resyncPending || in.tick < w.tick()) return;
+        if (in.tick > w.tick()) { resync(); return; }
+        w.step(in);
+        int myId = net.getMyId();
+        for (int i = 0; i < w.shotCount(); i++) {   // đạn người khác: chỉ để vẽ, trúng hay không do world
+            if (w.shotOwner(i) != myId) spawnLocalBullet(w.shotX(i), w.shotY(i), 0, -GameConfig.BULLET_SPEED);
+        }
+        if (m.hasChecksum && w.checksum() != m.checksum) {
+            desyncs++;
+            System.err.println("[Client] lockstep desync at tick " + w.tick() + ", asking for the world again");
+            resync();
+            return;
+        }
+        publishWorld();
+    }
 
-                if (!checkHitEnemies) continue;
+    private void resync() {
+        resyncPending = true;
+        net.requestResync();
+    }
 
-                if (isOnline()) {
-                    int hitId = findHitEnemyId(b.x, b.y);
-                    if (hitId != -1) {
-                        it.remove();
-                        net.sendHit(hitId, 10); // -10 HP server-side
-                    }
-                } else {
-                    if (hitLocalEnemy(b.x, b.y)) it.remove();
-                }
-            }
+    /** Net thread: the world as a snapshot, so drawing, interpolation and reconciliation work as online. */
+    private void publishWorld() {
+        var w = world;
+        var s = worldView;
+        s.clear();
+        s.seq = w.tick();
+        for (int r = 0, n = w.enemyCount(); r < n; r++) {
+            int row = s.enemies.add(w.enemyId(r));
+            s.enemies.set(row, Snapshot.ENEMY_X, NetMessage.quantize(w.enemyX(r)));
+            s.enemies.set(row, Snapshot.ENEMY_Y, NetMessage.quantize(w.enemyY(r)));
+            s.enemies.set(row, Snapshot.ENEMY_HP, w.enemyHp(r));
+        }
+        for (int i = 0, n = w.playerCount(); i < n; i++) {
+            var p = w.player(i);
+            int row = s.players.add(w.playerId(i));
+            s.players.set(row, Snapshot.PLAYER_X, NetMessage.quantize(p.x));
+            s.players.set(row, Snapshot.PLAYER_Y, NetMessage.quantize(p.y));
+            s.players.set(row, Snapshot.PLAYER_VX, NetMessage.quantize(p.vx));
+            s.players.set(row, Snapshot.PLAYER_VY, NetMessage.quantize(p.vy));
+            s.players.set(row, Snapshot.PLAYER_HP, p.hp);
+            s.players.set(row, Snapshot.PLAYER_INPUT, w.playerInputSeq(i));
         }
+        s.enemies.sort();
+        s.players.sort();
+        worldTick = w.tick();
+        remote.push(s, System.nanoTime());
+        noteServerSelf(s);
     }
 
-    private int findHitEnemyId(float bx, float by) {
-        for (Enemy e : enemies.values()) {
-            float dx = e.x - bx, dy = e.y - by;
-            if (dx*dx + dy*dy <= ENEMY_HIT_R2) return e.id;
+    /** Net thread. */
+    private void onShot(NetMessage m) {
+        if (m.id == net.getMyId()) return; // đạn của mình đã vẽ lúc bắn
+        spawnLocalBullet(m.x, m.y, m.vx, m.vy);
+    }
+
+    /** Net thread. */
+    private void onSnapshot(NetMessage m) {
+        remote.push(m.snapshot, System.nanoTime());
+        noteServerSelf(m.snapshot);
+    }
+
+    /** Net thread. */
+    private void onEnemyDead(NetMessage m) {
+        synchronized (killed) { // ẩn ngay, không đợi frame trễ
+            if (killedCount < killed.length) killed[killedCount++] = m.id;
         }
-        return -1;
     }
 
-    private boolean hitLocalEnemy(float bx, float by) {
-        for (Iterator<LocalEnemy> it = offlineEnemies.iterator(); it.hasNext();) {
-            LocalEnemy e = it.next();
-            float dx = e.x - bx, dy = e.y - by;
-            if (dx*dx + dy*dy <= ENEMY_HIT_R2) {
-                e.hp -= 10;
-                if (e.hp <= 0) it.remove();
-                return true;
+    /**
+     * EDT. Samples the snapshot buffer and mirrors it into enemies/ghosts: the
+     * buffered frame is authoritative, so rows it lists are updated and the rest dropped.
+     */
+    private void applyRemote() {
+        if (!isOnline() || !remote.sample(System.nanoTime(), remoteFrame)) return;
+        var f = remoteFrame;
+        int stamp = ++frameStamp;
+        synchronized (killed) {
+            for (int r = 0; r < f.enemyCount; r++) {
+                int id = f.enemyIds[r];
+                if (isKilled(id)) continue;
+                int row = upsert(enemies, enemyHandles, id, stamp);
+                enemies.f(X)[row] = f.enemyX[r]; enemies.f(Y)[row] = f.enemyY[r];
+                enemies.i(HP)[row] = f.enemyHp[r];
+            }
+            // frame đã bỏ con này thì thôi nhớ nó
+            for (int k = killedCount - 1; k >= 0; k--) {
+                if (Arrays.binarySearch(f.enemyIds, 0, f.enemyCount, killed[k]) < 0) killed[k] = killed[--killedCount];
             }
         }
+        sweep(enemies, enemyHandles, stamp);
+
+        int me = net.getMyId();
+        for (int r = 0; r < f.playerCount; r++) {
+            int id = f.playerIds[r];
+            if (id == me) continue;
+            int row = upsert(ghosts, ghostHandles, id, stamp);
+            ghosts.f(X)[row] = f.playerX[r]; ghosts.f(Y)[row] = f.playerY[r];
+        }
+        sweep(ghosts, ghostHandles, stamp);
+    }
+
+    /** Caller holds killed. */
+    private boolean isKilled(int id) {
+        for (int k = 0; k < killedCount; k++) if (killed[k] == id) return true;
         return false;
     }
 
-    // ---------- PLAYER TAKES DAMAGE ----------
-    private void handlePlayerEnemyDamage(float dt) {
-        if (iFrame > 0f) return; // đang miễn thương
+    /** Row of entity {@code id} in {@code store}, added if new, stamped as seen this frame. */
+    private static int upsert(EntityStore store, IntIntMap handles, int id, int stamp) {
+        int row = store.row(handles.get(id, EntityStore.NONE));
+        if (row == EntityStore.NONE) {
+            handles.put(id, store.add());
+            row = store.size() - 1;
+            store.i(ID)[row] = id;
+        }
+        store.i(SEEN)[row] = stamp;
+        return row;
+    }
+
+    /** Drops rows not stamped with {@code stamp}. */
+    private static void sweep(EntityStore store, IntIntMap handles, int stamp) {
+        for (int row = store.size() - 1; row >= 0; row--) {
+            if (store.i(SEEN)[row] == stamp) continue;
+            handles.remove(store.i(ID)[row], EntityStore.NONE);
+            store.removeRow(row);
+        }
+    }
 
-        boolean collided = false;
-        float cx = px, cy = py;
+    private boolean isOnline() { return net != null && (net.isConnected() || net.isReconnecting()); }   // đang nối lại: server vẫn giữ player
 
-        // online enemies
-        for (Enemy e : enemies.values()) {
-            float dx = e.x - cx, dy = e.y - cy;
-            if (dx*dx + dy*dy <= ENEMY_HIT_R2) { collided = true; cx = e.x; cy = e.y; break; }
+    // ---------- BULLETS ----------
+    /** Any thread. */
+    private void spawnLocalBullet(float x, float y, float vx, float vy) {
+        synchronized (bullets) {
+            bullets.add();
+            int row = bullets.size() - 1;
+            bullets.f(X)[row] = x; bullets.f(Y)[row] = y;
+            bullets.f(VX)[row] = vx; bullets.f(VY)[row] = vy;
+            bullets.i(LIFE)[row] = BULLET_LIFETIMEMS;
         }
-        // offline enemies (fallback)
-        if (!collided) {
-            for (LocalEnemy e : offlineEnemies) {
-                float dx = e.x - cx, dy = e.y - cy;
-                if (dx*dx + dy*dy <= ENEMY_HIT_R2) { collided = true; cx = e.x; cy = e.y; break; }
+    }
+
+    private void updateBullets(float dt, boolean checkHitEnemies) {
+        int lifeStep = Math.round(dt * 1000);
+        boolean online = isOnline();
+        synchronized (bullets) {
+            float[] x = bullets.f(X), y = bullets.f(Y), vx = bullets.f(VX), vy = bullets.f(VY);
+            int[] life = bullets.i(LIFE);
+            // đi ngược để swap-remove không làm sót hàng
+            for (int r = bullets.size() - 1; r >= 0; r--) {
+                x[r] += vx[r] * dt; y[r] += vy[r] * dt;
+                life[r] -= lifeStep;
+                if (life[r] <= 0) { bullets.removeRow(r); continue; }
+
+                if (!checkHitEnemies) continue;
+
+                // online chỉ để hiển thị: server tự tính trúng và gửi ENHP/ENDEAD
+                if (online ? findHitEnemyId(x[r], y[r]) != SpatialHash.NONE : hitLocalEnemy(x[r], y[r])) {
+                    bullets.removeRow(r);
+                }
             }
         }
+    }
 
-        if (collided) {
-            applyDamageAndKnockback(cx, cy, 15); // -15 HP mỗi lần chạm
-        }
+    private void indexEnemies() {
+        enemyGrid.clear();
+        EntityStore src = isOnline() ? enemies : offlineEnemies;
+        float[] x = src.f(X), y = src.f(Y);
+        int[] id = src.i(ID);
+        for (int r = 0, n = src.size(); r < n; r++) enemyGrid.put(id[r], x[r], y[r]);
     }
 
-    private void applyDamageAndKnockback(float srcX, float srcY, int dmg) {
-        hp -= dmg;
-        if (hp <= 0) {
-            hp = 0; dead = true;
-        }
-        // hướng hất: từ enemy -> ra xa
-        float dx = px - srcX, dy = py - srcY;
-        float len = (float)Math.hypot(dx, dy);
-        if (len < 1e-3f) { dx = 1; dy = 0; len = 1; }
-        dx /= len; dy /= len;
-        vx = dx * KNOCKBACK;
-        vy = dy * KNOCKBACK;
+    private int findHitEnemyId(float bx, float by) {
+        return enemyGrid.firstWithin(bx, by, ENEMY_HIT_R);
+    }
 
-        iFrame = IFRAME_SEC;
-        hurtFlash = 0.25f;
+    private boolean hitLocalEnemy(float bx, float by) {
+        int id = enemyGrid.firstWithin(bx, by, ENEMY_HIT_R);
+        int row = id == SpatialHash.NONE ? EntityStore.NONE
+                : offlineEnemies.row(offlineHandles.get(id, EntityStore.NONE));
+        if (row == EntityStore.NONE) return false;
+        if ((offlineEnemies.i(HP)[row] -= 10) <= 0) {
+            offlineEnemies.removeRow(row);
+            offlineHandles.remove(id, EntityStore.NONE);
+            enemyGrid.remove(id);
+        }
+        return true;
     }
 
-    private void respawn() {
-        dead = false;
-        hp = PLAYER_MAX_HP;
-        px = 120; py = 120;
-        vx = vy = 0;
-        iFrame = 1.0f; // spawn protection
-        hurtFlash = 0f;
-        // không động tới enemies; chỉ reset player
+    // ---------- PLAYER TAKES DAMAGE (offline; online the server decides) ----------
+    private void handlePlayerEnemyDamage() {
+        int id = enemyGrid.firstWithin(me.x, me.y, ENEMY_HIT_R);
+        if (id != SpatialHash.NONE && PlayerMotion.hurt(me, enemyGrid.x(id), enemyGrid.y(id), GameConfig.CONTACT_DAMAGE)) {
+            hurtFlash = 0.25f;
+        }
     }
 
     // ---------- OFFLINE FALLBACK ----------
@@ -384,115 +535,177 @@ public final class GameplayScene extends Scene {
         offlineSpawnTimer += dt;
         if (offlineSpawnTimer >= 3f) {
             offlineSpawnTimer = 0f;
-            LocalEnemy e = new LocalEnemy();
+            int id = nextOfflineId++;
+            offlineHandles.put(id, offlineEnemies.add());
+            int row = offlineEnemies.size() - 1;
+            offlineEnemies.i(ID)[row] = id;
+            offlineEnemies.i(HP)[row] = 50;
+            float ex, ey;
             int w = Math.max(getWidth(), 1), h = Math.max(getHeight(), 1);
-            int side = (int)(Math.random()*4);
-            if (side == 0) { e.x = 0;        e.y = (float)(Math.random()*h); }
-            else if (side == 1) { e.x = w-32;   e.y = (float)(Math.random()*h); }
-            else if (side == 2) { e.x = (float)(Math.random()*w); e.y = 0; }
-            else { e.x = (float)(Math.random()*w); e.y = h-32; }
-            offlineEnemies.add(e);
+            int side = offlineRng.nextInt(4);
+            if (side == 0) { ex = 0;        ey = offlineRng.nextInt(h); }
+            else if (side == 1) { ex = w-32;   ey = offlineRng.nextInt(h); }
+            else if (side == 2) { ex = offlineRng.nextInt(w); ey = 0; }
+            else { ex = offlineRng.nextInt(w); ey = h-32; }
+            offlineEnemies.f(X)[row] = ex; offlineEnemies.f(Y)[row] = ey;
         }
         // move towards player
-        for (LocalEnemy e : offlineEnemies) {
-            float dx = px - e.x, dy = py - e.y;
+        float[] x = offlineEnemies.f(X), y = offlineEnemies.f(Y);
+        for (int r = 0, n = offlineEnemies.size(); r < n; r++) {
+            float dx = me.x - x[r], dy = me.y - y[r];
             float len = (float)Math.hypot(dx, dy);
             if (len > 1e-3) {
                 float sp = 100f;
-                e.x += (dx/len) * sp * DT;
-                e.y += (dy/len) * sp * DT;
+                x[r] += (dx/len) * sp * dt;
+                y[r] += (dy/len) * sp * dt;
             }
         }
     }
 
-    // ---------- RENDER ----------
-    @Override protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D gg = (Graphics2D) g.create();
+    private void clearOffline() {
+        offlineEnemies.clear();
+        offlineHandles.clear();
+    }
 
-        // background grid
-        gg.setColor(new Color(24,24,24)); gg.fillRect(0,0,getWidth(),getHeight());
-        gg.setColor(new Color(50,50,50));
-        for (int i = 0; i < getWidth(); i += 32) gg.drawLine(i, 0, i, getHeight());
-        for (int j = 0; j < getHeight(); j += 32) gg.drawLine(0, j, getWidth(), j);
+    // ---------- RENDER ----------
+    // ====== RENDER CACHES (EDT) ======
+    // Mọi thứ vẽ mỗi frame được tạo sẵn một lần: màu, font, sprite, glyph
+    private static final Color BG = new Color(24,24,24), GRID = new Color(50,50,50);
+    private static final Color HP_BACK = new Color(60,60,60), HP_FILL = new Color(80,200,120);
+    private static final Color DEAD_SHADE = new Color(0,0,0,160);
+    private static final Color[] HURT = new Color[101];     // by overlay alpha 0..100
+    static { for (int i = 0; i < HURT.length; i++) HURT[i] = new Color(255, 50, 50, i); }
+    private static final Font DEAD_TITLE = new Font(Font.DIALOG, Font.BOLD, 28);
+    private static final Font DEAD_HINT  = new Font(Font.DIALOG, Font.PLAIN, 14);
+    private static final String DEAD_S1 = "YOU DIED", DEAD_S2 = "Press R to respawn  •  Esc to return to Lobby";
+    private static final int PLAYER_SIZE = 24, SPRITE_PAD = 3;  // pad = outline stroke overhang
+
+    private final StaticLayer grid = new StaticLayer((g, size) -> {
+        g.setColor(BG); g.fillRect(0, 0, size.width, size.height);
+        g.setColor(GRID);
+        for (int i = 0; i < size.width; i += 32) g.drawLine(i, 0, i, size.height);
+        for (int j = 0; j < size.height; j += 32) g.drawLine(0, j, size.width, j);
+    });
+    private final Image playerSprite = Images.roundRect(PLAYER_SIZE, 8, new Color(90,200,255), new Color(255,140,70), 3f);
+    private final Image ghostSprite = Images.roundRect(PLAYER_SIZE, 8, null, new Color(255,210,120), 3f);
+    private final Image enemySprite = Images.circle(28, new Color(230,80,80));
+    private final Image offlineEnemySprite = Images.circle(24, new Color(255,140,180));
+    private final Image bulletSprite = Images.circle(6, new Color(255,255,160));
+    private final GlyphCache smallText = new GlyphCache(new Font(Font.DIALOG, Font.PLAIN, 11), Color.WHITE);
+    private final GlyphCache hudText = new GlyphCache(new Font(Font.DIALOG, Font.PLAIN, 12), Color.WHITE);
+    private final StringBuilder line = new StringBuilder(160);
+    private PerfOverlay perf;   // created on first F3
+    private int deadS1W = -1, deadS2W;
+
+    @Override public boolean supportsActiveRendering() { return true; }
+
+    @Override protected void render(Graphics2D gg) {
+        int w = getWidth(), h = getHeight();
+
+        // background grid (ảnh tĩnh, chỉ vẽ lại khi đổi kích thước)
+        grid.draw(gg, w, h);
 
         // local player
-        int sz = 24, ix = Math.round(px), iy = Math.round(py);
-        gg.setColor(new Color(90,200,255)); gg.fillRoundRect(ix, iy, sz, sz, 8, 8);
-        gg.setStroke(new BasicStroke(3f)); gg.setColor(new Color(255,140,70));
-        gg.drawRoundRect(ix, iy, sz, sz, 8, 8);
+        float a = alpha(), back = (1 - a) * engine.tickSeconds(); // vẽ giữa update trước và update cuối
+        int ix = Math.round(prevX + (me.x - prevX) * a), iy = Math.round(prevY + (me.y - prevY) * a);
+        gg.drawImage(playerSprite, ix - SPRITE_PAD, iy - SPRITE_PAD, null);
 
         // ghosts
-        gg.setColor(new Color(255,210,120));
-        for (Point p : ghosts.values()) gg.drawRoundRect(p.x, p.y, sz, sz, 8, 8);
+        float[] x = ghosts.f(X), y = ghosts.f(Y);
+        for (int r = 0, n = ghosts.size(); r < n; r++) {
+            gg.drawImage(ghostSprite, Math.round(x[r]) - SPRITE_PAD, Math.round(y[r]) - SPRITE_PAD, null);
+        }
 
         // enemies (online) – đỏ
-        for (Enemy e : enemies.values()) {
-            int ex = (int)e.x, ey = (int)e.y;
-            gg.setColor(new Color(230,80,80));
-            gg.fillOval(ex-14, ey-14, 28, 28);
-            gg.setColor(Color.WHITE);
-            gg.setFont(gg.getFont().deriveFont(11f));
-            gg.drawString(String.valueOf(e.hp), ex-6, ey-18);
+        x = enemies.f(X); y = enemies.f(Y);
+        int[] hp = enemies.i(HP);
+        for (int r = 0, n = enemies.size(); r < n; r++) {
+            int ex = (int)x[r], ey = (int)y[r];
+            gg.drawImage(enemySprite, ex-14, ey-14, null);
+            smallText.draw(gg, hp[r], ex-6, ey-18);
         }
 
         // enemies (offline) – hồng
-        gg.setColor(new Color(255,140,180));
-        for (LocalEnemy e : offlineEnemies) gg.fillOval((int)e.x-12, (int)e.y-12, 24, 24);
+        x = offlineEnemies.f(X); y = offlineEnemies.f(Y);
+        for (int r = 0, n = offlineEnemies.size(); r < n; r++) {
+            gg.drawImage(offlineEnemySprite, (int)x[r]-12, (int)y[r]-12, null);
+        }
 
         // bullets
-        gg.setColor(new Color(255,255,160));
-        synchronized (bullets) { for (Bullet b : bullets) gg.fillOval((int)b.x-3, (int)b.y-3, 6, 6); }
+        synchronized (bullets) {
+            x = bullets.f(X); y = bullets.f(Y);
+            float[] vx = bullets.f(VX), vy = bullets.f(VY);
+            for (int r = 0, n = bullets.size(); r < n; r++) {
+                gg.drawImage(bulletSprite, (int)(x[r] - vx[r] * back)-3, (int)(y[r] - vy[r] * back)-3, null);
+            }
+        }
 
         // HP bar (trên trái)
         drawHpBar(gg);
 
         // damage flash overlay
         if (hurtFlash > 0f) {
-            int alpha = (int)(Math.min(hurtFlash / 0.25f, 1f) * 100);
-            gg.setColor(new Color(255, 50, 50, alpha));
-            gg.fillRect(0,0,getWidth(),getHeight());
+            gg.setColor(HURT[(int)(Math.min(hurtFlash / 0.25f, 1f) * 100)]);
+            gg.fillRect(0,0,w,h);
         }
 
         // dead overlay
-        if (dead) {
-            gg.setColor(new Color(0,0,0,160));
-            gg.fillRect(0,0,getWidth(),getHeight());
+        if (me.dead()) {
+            gg.setColor(DEAD_SHADE);
+            gg.fillRect(0,0,w,h);
             gg.setColor(Color.WHITE);
-            gg.setFont(gg.getFont().deriveFont(Font.BOLD, 28f));
-            String s1 = "YOU DIED";
-            String s2 = "Press R to respawn  •  Esc to return to Lobby";
-            FontMetrics fm = gg.getFontMetrics();
-            gg.drawString(s1, (getWidth()-fm.stringWidth(s1))/2, getHeight()/2 - 10);
-            gg.setFont(gg.getFont().deriveFont(Font.PLAIN, 14f));
-            fm = gg.getFontMetrics();
-            gg.drawString(s2, (getWidth()-fm.stringWidth(s2))/2, getHeight()/2 + 18);
+            if (deadS1W < 0) {
+                deadS1W = gg.getFontMetrics(DEAD_TITLE).stringWidth(DEAD_S1);
+                deadS2W = gg.getFontMetrics(DEAD_HINT).stringWidth(DEAD_S2);
+            }
+            gg.setFont(DEAD_TITLE);
+            gg.drawString(DEAD_S1, (w-deadS1W)/2, h/2 - 10);
+            gg.setFont(DEAD_HINT);
+            gg.drawString(DEAD_S2, (w-deadS2W)/2, h/2 + 18);
         }
 
         // HUD
-        gg.setColor(Color.WHITE);
-        gg.setFont(gg.getFont().deriveFont(12f));
-        String netStr = isOnline()
-                ? "NET connected  id=" + net.getMyId() + "  peers=" + ghosts.size() + "  enemies=" + enemies.size()
-                : "OFFLINE (fallback enemies active)";
-        gg.drawString("Move: WASD/Arrows   Shoot: SPACE   |   " + netStr, 10, 18);
+        line.setLength(0);
+        line.append("Move: WASD/Arrows   Shoot: SPACE   Perf: F3   |   ");
+        if (isOnline()) {
+            line.append(net.isReconnecting() ? "NET reconnecting  id=" : "NET connected  id=").append(net.getMyId());
+            if (!room.isEmpty()) line.append("  room=").append(room);
+            line.append("  peers=").append(ghosts.size())
+                .append("  enemies=").append(enemies.size());
+            if (net.lockstep()) line.append("  lockstep tick=").append(worldTick).append(" desyncs=").append(desyncs);
+        } else {
+            line.append("OFFLINE (fallback enemies active)");
+        }
+        hudText.draw(gg, line, 10, 18);
+        if (isOnline()) {
+            line.setLength(0);
+            line.append("interp ").append(remote.delayMs()).append("ms  underruns=").append(remote.underruns())
+                .append(" (").append(Math.round(remote.underrunRatio() * 100)).append("%)  extrap=")
+                .append(Math.round(remote.lastExtrapolateMs())).append("ms max=")
+                .append(Math.round(remote.maxExtrapolatedMs())).append("ms  holds=").append(remote.holds())
+                .append("  |  input #").append(inputSeq).append(" unacked=").append(inputSeq - ackedInput)
+                .append(" corrections=").append(corrections)
+                .append("  |  ").append(Math.round(net.messagesPerSecond())).append(" msg/s ")
+                .append(Math.round(net.bytesPerSecond() / 1024)).append(" KB/s");
+            hudText.draw(gg, line, 10, h - 10);
+        }
 
-        gg.dispose();
+        if (perfVisible) {
+            if (perf == null) perf = new PerfOverlay(engine.frameTimes());
+            perf.draw(gg, w - 10, 28, isOnline() ? net : null);
+        }
     }
 
     private void drawHpBar(Graphics2D gg) {
         int x = 10, y = 28, w = 160, h = 12;
-        gg.setColor(new Color(60,60,60));
+        gg.setColor(HP_BACK);
         gg.fillRoundRect(x, y, w, h, 8, 8);
-        int curr = Math.max(0, Math.min(w, (int)(w * (hp / (float)PLAYER_MAX_HP))));
-        gg.setColor(new Color(80,200,120));
+        int curr = Math.max(0, Math.min(w, (int)(w * (me.hp / (float)PlayerMotion.MAX_HP))));
+        gg.setColor(HP_FILL);
         gg.fillRoundRect(x, y, curr, h, 8, 8);
-        gg.setColor(Color.WHITE);
-        gg.setFont(gg.getFont().deriveFont(11f));
-        gg.drawString("HP: " + hp + "/" + PLAYER_MAX_HP, x + 6, y + h - 2);
+        int tx = smallText.draw(gg, "HP: ", x + 6, y + h - 2);
+        tx = smallText.draw(gg, me.hp, tx, y + h - 2);
+        tx = smallText.draw(gg, "/", tx, y + h - 2);
+        smallText.draw(gg, PlayerMotion.MAX_HP, tx, y + h - 2);
     }
-
-    // ---------- UTILS ----------
-    private static float clamp(float v, float lo, float hi) { return Math.max(lo, Math.min(hi, v)); }
-    private static int parseInt(String s, int defVal) { try { return Integer.parseInt(s); } catch (Exception e) { return defVal; } }
 }
@@ -37,6 +37,9 @@ public final class LobbyScene extends Scene {
         var lblJoinPort = label("Join Port:");
         var joinPort = new JTextField(Integer.toString(GameConfig.DEFAULT_PORT), 6);
 
+        var lblRoom = label("Room:");
+        var room = new JTextField("", 12);   // trống = phòng mặc định
+
         var btnHost = new JButton("Create Lobby (Host)");
         var btnJoin = new JButton("Join Lobby");
 
@@ -52,16 +55,24 @@ public final class LobbyScene extends Scene {
         c.gridy = 3; c.gridx = 0; add(lblJoinPort, c);
         c.gridx = 1; add(joinPort, c);
 
-        c.gridy = 4; c.gridx = 0; add(btnHost, c);
+        c.gridy = 4; c.gridx = 0; add(lblRoom, c);
+        c.gridx = 1; add(room, c);
+
+        c.gridy = 5; c.gridx = 0; add(btnHost, c);
         c.gridx = 1; add(btnJoin, c);
 
         // Hành động
         btnHost.addActionListener(e -> {
             try {
                 int port = Integer.parseInt(hostPort.getText().trim());
-                server = new NetServer(port);
-                server.startAsync();
-                engine.changeScene(new GameplayScene(engine, "127.0.0.1", port));
+                var s = new NetServer(port);
+                if (!s.startAsync()) {
+                    // cổng đang bận (hoặc không mở được): ở lại lobby
+                    JOptionPane.showMessageDialog(engine.window(), "Cannot host on port " + port + " (already in use?).");
+                    return;
+                }
+                server = s;
+                engine.changeScene(new GameplayScene(engine, "127.0.0.1", port, room.getText().trim()));
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(engine.window(), "Invalid port.");
             }
@@ -71,7 +82,7 @@ public final class LobbyScene extends Scene {
             try {
                 String host = joinHost.getText().trim();
                 int port = Integer.parseInt(joinPort.getText().trim());
-                engine.changeScene(new GameplayScene(engine, host, port));
+                engine.changeScene(new GameplayScene(engine, host, port, room.getText().trim()));
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(engine.window(), "Invalid host/port.");
             }
@@ -0,0 +1,147 @@
+package com.cbl.game.game.scenes;
+
+import com.cbl.game.config.GameConfig;
+import com.cbl.game.core.metrics.AllocationMeter;
+import com.cbl.game.core.metrics.FrameTimes;
+import com.cbl.game.core.render.GlyphCache;
+import com.cbl.game.core.render.Images;
+import com.cbl.game.net.NetClient;
+
+import java.awt.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Toggleable diagnostics panel (F3): a graph of the last frames split into
+ * update and paint time, frame percentiles, GC collections, the EDT's
+ * allocation rate and network round trip. Text is rebuilt twice a second
+ * into reused builders and drawn through a {@link GlyphCache}; drawing a
+ * frame allocates nothing, so the panel does not show up in what it measures.
+ * EDT only.
+ */
+final class PerfOverlay {
+    private static final long POLL_NANOS = 500_000_000L;
+    private static final int GRAPH_H = 80, PAD = 6, TEXT_COLUMNS = 48;
+    private static final double GRAPH_MS = 2000.0 / GameConfig.TICK_HZ;   // đỉnh đồ thị = 2 bước update, vạch giữa = 1
+    private static final Color BACK = new Color(0, 0, 0, 170), UPDATE = new Color(90, 170, 255);
+    private static final Color PAINT = new Color(120, 220, 120), BUDGET = new Color(200, 160, 70);
+
+    private final FrameTimes frames;
+    private final GarbageCollectorMXBean[] gcs;
+    private final GlyphCache text = new GlyphCache(new Font(Font.MONOSPACED, Font.PLAIN, 11), Color.WHITE);
+    private final Image back;   // nền trong suốt vẽ sẵn: fillRect màu alpha cấp phát mỗi lần gọi (Java2D phần mềm)
+    private final StringBuilder[] lines = new StringBuilder[4];
+    { for (int i = 0; i < lines.length; i++) lines[i] = new StringBuilder(96); }
+
+    private long nextPoll, lastPoll, lastGcCount = -1, lastGcMs, lastAlloc, drawn, lastDrawn;
+
+    PerfOverlay(FrameTimes frames) {
+        this.frames = frames;
+        this.gcs = ManagementFactory.getGarbageCollectorMXBeans().toArray(new GarbageCollectorMXBean[0]);
+        var img = Images.compatible(width(), height(), Transparency.TRANSLUCENT);
+        var g = img.createGraphics();
+        g.setColor(BACK);
+        g.fillRect(0, 0, img.getWidth(), img.getHeight());
+        g.dispose();
+        this.back = img;
+    }
+
+    int width() { return Math.max(frames.capacity(), TEXT_COLUMNS * text.width("0")) + 2 * PAD; }
+    int height() { return GRAPH_H + lines.length * text.height() + 3 * PAD; }
+
+    /** Draws the panel with its top-right corner at ({@code right}, {@code top}). {@code net} may be null. */
+    void draw(Graphics2D g, int right, int top, NetClient net) {
+        long now = System.nanoTime();
+        drawn++;
+        if (now - nextPoll >= 0) poll(now, net);
+
+        int lineH = text.height();
+        int x = right - width(), y = top;
+        g.drawImage(back, x, y, null);
+
+        // đồ thị: cột dưới là update, chồng lên là paint; vạch vàng = ngân sách một frame
+        int gx = x + PAD, base = y + PAD + GRAPH_H;
+        double pxPerNano = GRAPH_H / (GRAPH_MS * 1e6);
+        int offset = frames.capacity() - frames.size();
+        for (int i = 0, n = frames.size(); i < n; i++) {
+            int u = (int) Math.min(GRAPH_H, frames.updateNanos(i) * pxPerNano);
+            int p = (int) Math.min(GRAPH_H - u, frames.paintNanos(i) * pxPerNano);
+            if (u > 0) { g.setColor(UPDATE); g.fillRect(gx + offset + i, base - u, 1, u); }
+            if (p > 0) { g.setColor(PAINT); g.fillRect(gx + offset + i, base - u - p, 1, p); }
+        }
+        g.setColor(BUDGET);
+        g.fillRect(gx, base - GRAPH_H / 2, frames.capacity(), 1);
+
+        int ty = base + PAD + lineH - 3;
+        for (var line : lines) {
+            text.draw(g, line, gx, ty);
+            ty += lineH;
+        }
+    }
+
+    /** Recomputes the text; only here do percentiles get sorted and MXBeans read. */
+    private void poll(long now, NetClient net) {
+        nextPoll = now + POLL_NANOS;
+        double secs = lastPoll == 0 ? 0 : (now - lastPoll) / 1e9;
+        lastPoll = now;
+
+        long gcCount = 0, gcMs = 0;
+        for (var gc : gcs) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMs += Math.max(0, gc.getCollectionTime());
+        }
+        long alloc = AllocationMeter.currentThreadBytes();
+        long framesSince = drawn - lastDrawn;
+
+        var l = lines[0];
+        l.setLength(0);
+        l.append("frame ms p50 ");
+        tenths(l, frames.workPercentile(50) / 1e6).append(" p95 ");
+        tenths(l, frames.workPercentile(95) / 1e6).append(" p99 ");
+        tenths(l, frames.workPercentile(99) / 1e6).append(" max ");
+        tenths(l, frames.workPercentile(100) / 1e6);
+
+        l = lines[1];
+        l.setLength(0);
+        long p50 = frames.intervalPercentile(50);
+        l.append("interval ms p50 ");
+        tenths(l, p50 / 1e6).append(" p99 ");
+        tenths(l, frames.intervalPercentile(99) / 1e6).append("  fps ").append(p50 > 0 ? Math.round(1e9 / p50) : 0);
+
+        l = lines[2];
+        l.setLength(0);
+        l.append("GC ").append(gcCount);
+        if (lastGcCount >= 0) l.append(" (+").append(gcCount - lastGcCount).append(", ").append(gcMs - lastGcMs).append(" ms)");
+        l.append("  EDT alloc ");
+        if (!AllocationMeter.supported()) l.append("n/a");
+        else if (secs > 0) {
+            l.append(Math.round((alloc - lastAlloc) / 1024.0 / secs)).append(" KB/s ")
+             .append(framesSince > 0 ? (alloc - lastAlloc) / framesSince : 0).append(" B/frame");
+        }
+        lastGcCount = gcCount;
+        lastGcMs = gcMs;
+        lastAlloc = alloc;
+        lastDrawn = drawn;
+
+        l = lines[3];
+        l.setLength(0);
+        if (net == null || !net.isConnected()) {
+            l.append("net offline");
+        } else {
+            l.append("RTT ms ");
+            if (net.rttMs() < 0) l.append('-');
+            else {
+                tenths(l, net.rttMs()).append(" avg ");
+                tenths(l, net.rttAvgMs()).append(" min ");
+                tenths(l, net.rttMinMs());
+            }
+            l.append("  in ").append(Math.round(net.messagesPerSecond())).append(" msg/s");
+        }
+    }
+
+    /** Appends {@code v} with one decimal, without going through Double.toString. */
+    private static StringBuilder tenths(StringBuilder sb, double v) {
+        long t = Math.round(v * 10);
+        return sb.append(t / 10).append('.').append(t % 10);
+    }
+}
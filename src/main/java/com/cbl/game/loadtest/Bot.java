@@ -0,0 +1,154 @@
+package com.cbl.game.loadtest;
+
+import com.cbl.game.config.GameConfig;
+import com.cbl.game.core.metrics.Histogram;
+import com.cbl.game.net.MessageType;
+import com.cbl.game.net.NetClient;
+import com.cbl.game.net.NetMessage;
+import com.cbl.game.net.Snapshot;
+import com.cbl.game.sim.LockstepWorld;
+import com.cbl.game.sim.PlayerMotion;
+
+import java.util.SplittableRandom;
+
+/**
+ * One scripted client. The swarm's driver thread calls {@link #step} at the
+ * game's input rate; the bot sends its inputs at the real {@code SEND_INPUT_HZ}
+ * the same way {@code GameplayScene} does, and fires now and then. Latency is
+ * input → echo: from the first send of input {@code n} to the first snapshot
+ * whose row for this player says the server applied {@code n}. In a lockstep
+ * room the bot keeps its own world as a real client does, and the echo is the
+ * first LSTEP carrying {@code n}.
+ */
+final class Bot {
+    enum Pattern { CIRCLE, ZIGZAG, RANDOM }
+
+    private static final int RING = 256;   // inputs in flight tracked; ~4 s at 60 Hz
+    private static final int[] DIRS = {
+            PlayerMotion.RIGHT, PlayerMotion.DOWN, PlayerMotion.LEFT, PlayerMotion.UP,
+            PlayerMotion.RIGHT | PlayerMotion.DOWN, PlayerMotion.LEFT | PlayerMotion.UP,
+            PlayerMotion.LEFT | PlayerMotion.DOWN, PlayerMotion.RIGHT | PlayerMotion.UP, 0 };
+
+    final NetClient net;
+    private final Histogram latency;
+    private final Pattern pattern;
+    private final SplittableRandom rnd;
+
+    // driver thread
+    private final int[] buttons = new int[RING];
+    private final long[] sentAt = new long[RING];     // nanoTime of the first send, by seq % RING
+    private final int[] scratch = new int[NetMessage.MAX_INPUTS];
+    private int seq, randomDir, randomUntil;
+    private volatile int sentSeq;   // newest input sent; published after sentAt
+    long startedAt, lastBytesIn, lastBytesOut, lastMsgsIn;   // owned by the swarm
+
+    // net thread → driver
+    private volatile int echoed;
+    private volatile float x = PlayerMotion.SPAWN_X, y = PlayerMotion.SPAWN_Y;
+    private volatile int hp = PlayerMotion.MAX_HP;
+    private LockstepWorld world;   // net thread; lockstep rooms only
+
+    Bot(String host, int port, String room, Histogram latency, Pattern pattern, long seed) {
+        this.net = new NetClient(host, port, room).quiet();
+        this.latency = latency;
+        this.pattern = pattern;
+        this.rnd = new SplittableRandom(seed);
+    }
+
+    void start(long now) {
+        startedAt = now;
+        net.on(MessageType.SNAP, this::onSnapshot)
+           .on(MessageType.LSTATE, m -> world = m.readWorld())
+           .on(MessageType.LSTEP, this::onStep)
+           .connect();
+    }
+
+    boolean joined() { return net.getMyId() != -1; }
+
+    /**
+     * Driver thread, once per input step ({@link GameConfig#TICK_HZ}).
+     * @param send  this step also sends the unacknowledged inputs
+     * @param shoot fire once from where the server last had us
+     */
+    void step(long now, boolean send, boolean shoot) {
+        if (!joined()) return;
+        int s = ++seq;
+        boolean lockstep = net.lockstep();
+        int b = hp <= 0 ? PlayerMotion.RESPAWN : move(s);
+        if (shoot && hp > 0 && lockstep) b |= PlayerMotion.FIRE;   // lockstep: the shot rides on the input
+        buttons[s % RING] = b;
+        if (send) {
+            int from = Math.max(echoed + 1, s - NetMessage.MAX_INPUTS + 1), n = s - from + 1;
+            for (int i = 0; i < n; i++) scratch[i] = buttons[(from + i) % RING];
+            for (int q = Math.max(from, sentSeq + 1); q <= s; q++) sentAt[q % RING] = now;
+            sentSeq = s;
+            net.sendInputs(s, scratch, n);
+        }
+        if (shoot && hp > 0 && !lockstep) {
+            double a = rnd.nextDouble() * Math.PI * 2;
+            net.sendShot(x, y, (float) Math.cos(a) * GameConfig.BULLET_SPEED,
+                    (float) Math.sin(a) * GameConfig.BULLET_SPEED, net.lastSnapshotSeq());
+        }
+    }
+
+    private int move(int s) {
+        switch (pattern) {
+            case CIRCLE: return DIRS[(s / 30) % 4];                               // vòng vuông, đổi hướng mỗi 0.5 s
+            case ZIGZAG: return ((s / 240) % 2 == 0 ? PlayerMotion.RIGHT : PlayerMotion.LEFT)
+                    | ((s / 20) % 2 == 0 ? PlayerMotion.UP : PlayerMotion.DOWN);
+            default:
+                if (s >= randomUntil) {
+                    randomDir = DIRS[rnd.nextInt(DIRS.length)];
+                    randomUntil = s + 15 + rnd.nextInt(45);
+                }
+                return randomDir;
+        }
+    }
+
+    /** Net thread. */
+    private void onSnapshot(NetMessage m) {
+        Snapshot snap = m.snapshot;
+        int row = snap.players.find(net.getMyId());
+        if (row < 0) return;
+        x = NetMessage.dequantize(snap.players.get(row, Snapshot.PLAYER_X));
+        y = NetMessage.dequantize(snap.players.get(row, Snapshot.PLAYER_Y));
+        hp = snap.players.get(row, Snapshot.PLAYER_HP);
+        echo(snap.players.get(row, Snapshot.PLAYER_INPUT));
+    }
+
+    /** Net thread: lockstep tick. A gap or a desync just asks for the world again. */
+    private void onStep(NetMessage m) {
+        var w = world;
+        var in = m.step;
+        if (w == null || in.tick != w.tick()) {
+            if (w != null && in.tick > w.tick()) { world = null; net.requestResync(); }
+            return;
+        }
+        w.step(in);
+        if (m.hasChecksum && w.checksum() != m.checksum) {
+            System.err.println("[Load] bot " + net.getMyId() + ": lockstep desync at tick " + w.tick());
+            world = null;
+            net.requestResync();
+            return;
+        }
+        int me = net.getMyId();
+        for (int i = 0, n = w.playerCount(); i < n; i++) {
+            if (w.playerId(i) != me) continue;
+            var p = w.player(i);
+            x = p.x; y = p.y; hp = p.hp;
+            echo(w.playerInputSeq(i));
+            return;
+        }
+    }
+
+    private void echo(int applied) {
+        int sent = sentSeq;   // volatile read: sentAt up to here is visible
+        if (applied <= echoed || applied > sent || sent - applied >= RING) return;
+        echoed = applied;
+        latency.record((System.nanoTime() - sentAt[applied % RING]) / 1000);
+    }
+
+    void close() {
+        net.close();
+    }
+}
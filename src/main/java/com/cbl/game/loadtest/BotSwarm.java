@@ -0,0 +1,265 @@
+package com.cbl.game.loadtest;
+
+import com.cbl.game.config.GameConfig;
+import com.cbl.game.config.ServerConfig;
+import com.cbl.game.core.metrics.Histogram;
+import com.cbl.game.net.NetServer;
+import com.cbl.game.net.RoomStats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator: connects scripted {@link Bot}s to a server
+ * following a staged profile (ramp up, hold, ramp down), plays them at the
+ * real input and shot rates from one driver thread, and reports per interval
+ * and per stage: input → echo latency percentiles, bytes and messages per
+ * client, disconnects and, when the server runs in this process
+ * ({@code --local=true}), its tick times. Options are in {@link LoadOptions#USAGE};
+ * exits with 3 if a stage failed, so it can gate a build.
+ */
+public final class BotSwarm {
+    private static final long CONNECT_TIMEOUT_NANOS = 10_000_000_000L;
+
+    private final LoadOptions o;
+    private final NetServer server;   // null unless local
+    private final LoadReport report;
+    private final List<Bot> bots = new ArrayList<>();
+    private final SplittableRandom rnd;
+    private final Histogram live = new Histogram(), interval = new Histogram(), stageLatency = new Histogram();
+    private long spawned, disconnects, connectFailures;
+
+    private BotSwarm(LoadOptions o, NetServer server) {
+        this.o = o;
+        this.server = server;
+        this.report = new LoadReport(o.toString());
+        this.rnd = new SplittableRandom(o.seed);
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 1 && (args[0].equals("--help") || args[0].equals("-h"))) {
+            System.out.println("usage: cbl-loadtest [--key=value ...]\n" + LoadOptions.USAGE);
+            return;
+        }
+        LoadOptions o;
+        NetServer server = null;
+        try {
+            o = LoadOptions.fromArgs(args);
+            if (o.local) {
+                var cfg = o.serverConfig != null
+                        ? ServerConfig.fromArgs("--config=" + o.serverConfig, "--port=" + o.port)
+                        : ServerConfig.defaults(o.port);
+                server = new NetServer(cfg);
+                if (!server.startAsync()) System.exit(1);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("[Load] " + e.getMessage() + "\n" + LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        System.out.println("[Load] " + o);
+        var swarm = new BotSwarm(o, server);
+        boolean pass = swarm.run();
+        try {
+            swarm.report.write(o.report);
+            System.out.println("[Load] report: " + o.report + ".csv, " + o.report + "-stages.csv, " + o.report + ".json");
+        } catch (IOException e) {
+            System.err.println("[Load] could not write report: " + e);
+        }
+        if (server != null) server.stop();
+        System.exit(pass ? 0 : 3);
+    }
+
+    /** Runs every stage on this thread. @return true if all stages passed. */
+    private boolean run() {
+        long stepNanos = 1_000_000_000L / GameConfig.TICK_HZ;
+        int sendEvery = Math.max(1, Math.round((float) GameConfig.TICK_HZ / GameConfig.SEND_INPUT_HZ));
+        double shootChance = o.shootHz / GameConfig.TICK_HZ;
+        long start = System.nanoTime(), next = start, step = 0;
+        double spawnBudget = 0;
+        boolean pass = true;
+
+        for (int stage = 0; stage < o.stageBots.length; stage++) {
+            int target = o.stageBots[stage];
+            long stageEnd = next + o.stageSeconds[stage] * 1_000_000_000L;
+            long sampleNanos = o.sampleSeconds * 1_000_000_000L, nextSample = next + sampleNanos, lastSample = next;
+            long stageDisconnects = disconnects, stageFailures = connectFailures;
+            var rows = new ArrayList<LoadReport.Row>();
+            stageLatency.reset();
+            if (server != null) server.resetRoomStats();
+            System.out.println("[Load] stage " + stage + ": " + target + " bot(s) for " + o.stageSeconds[stage] + " s");
+
+            while (next - stageEnd < 0) {
+                long now = System.nanoTime();
+                // số bot theo profile: thêm dần theo spawn-rate, bớt ngay
+                spawnBudget = Math.min(spawnBudget + o.spawnRate / (double) GameConfig.TICK_HZ, Math.max(1, o.spawnRate));
+                while (bots.size() < target && spawnBudget >= 1) {
+                    var b = new Bot(o.host, o.port, "load-" + (spawned % o.rooms), live, o.pattern, rnd.nextLong());
+                    spawned++;
+                    b.start(now);
+                    bots.add(b);
+                    spawnBudget--;
+                }
+                while (bots.size() > target) bots.remove(bots.size() - 1).close();
+
+                for (int i = bots.size() - 1; i >= 0; i--) {
+                    var b = bots.get(i);
+                    boolean joined = b.joined();
+                    if (joined && !b.net.isConnected()) {
+                        disconnects++;
+                        drop(i);
+                    } else if (!joined && now - b.startedAt > CONNECT_TIMEOUT_NANOS) {
+                        connectFailures++;
+                        drop(i);
+                    } else {
+                        // lệch pha theo bot để các lần gửi không dồn vào cùng một bước
+                        b.step(now, (step + i) % sendEvery == 0, rnd.nextDouble() < shootChance);
+                    }
+                }
+                step++;
+
+                if (now - nextSample >= 0) {
+                    var row = sample(now, start, now - lastSample, stage, target);
+                    row.disconnects = disconnects - stageDisconnects - sum(rows, true);
+                    row.connectFailures = connectFailures - stageFailures - sum(rows, false);
+                    rows.add(row);
+                    report.samples.add(row);
+                    print(row);
+                    lastSample = now;
+                    nextSample += sampleNanos;
+                }
+
+                next += stepNanos;
+                long wait = next - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+                else if (wait < -100 * stepNanos) next = System.nanoTime();  // bị tụt quá xa: bắt nhịp lại
+            }
+
+            var s = stageRow(rows, stage, target, (System.nanoTime() - start) / 1e9);
+            s.disconnects = disconnects - stageDisconnects;
+            s.connectFailures = connectFailures - stageFailures;
+            s.pass = s.p99Ms < o.maxP99Ms && s.disconnects == 0 && s.connectFailures == 0
+                    && s.connected >= target && s.tickOverruns <= 0;
+            pass &= s.pass;
+            report.stages.add(s);
+            System.out.println(String.format(Locale.ROOT,
+                    "[Load] stage %d %s: %d/%d connected, echo p50/p99/max %.1f/%.1f/%.1f ms, %.0f B/s in per client,"
+                            + " %d disconnect(s), %d failed connect(s)%s",
+                    stage, s.pass ? "PASS" : "FAIL", s.connected, target, s.p50Ms, s.p99Ms, s.maxMs, s.bytesInPerClient,
+                    s.disconnects, s.connectFailures,
+                    s.tickOverruns < 0 ? "" : ", tick avg/max " + Math.round(s.tickAvgUs) + "/" + Math.round(s.tickMaxUs)
+                            + " us, " + s.tickOverruns + " overrun(s)"));
+        }
+        for (Bot b : bots) b.close();
+        bots.clear();
+        return pass;
+    }
+
+    private void drop(int i) {
+        bots.remove(i).close();
+    }
+
+    private static long sum(List<LoadReport.Row> rows, boolean disconnects) {
+        long n = 0;
+        for (var r : rows) n += disconnects ? r.disconnects : r.connectFailures;
+        return n;
+    }
+
+    /** One interval: latency since the last sample, traffic deltas per connected bot, server tick stats. */
+    private LoadReport.Row sample(long now, long start, long elapsedNanos, int stage, int target) {
+        var r = new LoadReport.Row();
+        r.t = (now - start) / 1e9;
+        r.stage = stage;
+        r.targetBots = target;
+
+        live.drainTo(interval);
+        r.echoes = interval.count();
+        r.p50Ms = interval.percentile(50) / 1000.0;
+        r.p90Ms = interval.percentile(90) / 1000.0;
+        r.p99Ms = interval.percentile(99) / 1000.0;
+        r.maxMs = interval.max() / 1000.0;
+        interval.drainTo(stageLatency);
+
+        long in = 0, out = 0, msgs = 0;
+        for (Bot b : bots) {
+            if (b.joined() && b.net.isConnected()) r.connected++;
+            long bi = b.net.bytesReceived(), bo = b.net.bytesSent(), mi = b.net.messagesReceived();
+            in += bi - b.lastBytesIn;
+            out += bo - b.lastBytesOut;
+            msgs += mi - b.lastMsgsIn;
+            b.lastBytesIn = bi;
+            b.lastBytesOut = bo;
+            b.lastMsgsIn = mi;
+        }
+        double perClient = Math.max(1, r.connected) * (elapsedNanos / 1e9);
+        r.bytesInPerClient = in / perClient;
+        r.bytesOutPerClient = out / perClient;
+        r.msgsInPerClient = msgs / perClient;
+
+        if (server != null) {
+            List<RoomStats> rooms = server.roomStats();
+            server.resetRoomStats();   // max và overrun tính theo từng khoảng
+            r.rooms = rooms.size();
+            r.enemies = 0;
+            r.tickAvgUs = 0;
+            r.tickMaxUs = 0;
+            r.tickOverruns = 0;
+            r.lateTicks = 0;
+            for (var s : rooms) {
+                r.enemies += s.enemies;
+                r.tickAvgUs += s.avgTickUs / rooms.size();
+                r.tickMaxUs = Math.max(r.tickMaxUs, s.maxTickUs);
+                r.tickOverruns += s.overruns;
+                r.lateTicks += s.lateTicks;
+            }
+        }
+        return r;
+    }
+
+    /** A stage: latency over the whole stage, traffic and tick times averaged (max: worst) over its samples. */
+    private LoadReport.Row stageRow(List<LoadReport.Row> rows, int stage, int target, double t) {
+        var s = new LoadReport.Row();
+        s.t = t;
+        s.stage = stage;
+        s.targetBots = target;
+        s.echoes = stageLatency.count();
+        s.p50Ms = stageLatency.percentile(50) / 1000.0;
+        s.p90Ms = stageLatency.percentile(90) / 1000.0;
+        s.p99Ms = stageLatency.percentile(99) / 1000.0;
+        s.maxMs = stageLatency.max() / 1000.0;
+        if (rows.isEmpty()) return s;
+        var last = rows.get(rows.size() - 1);
+        s.connected = last.connected;
+        s.rooms = last.rooms;
+        s.enemies = last.enemies;
+        s.lateTicks = last.lateTicks < 0 ? -1 : 0;
+        s.tickOverruns = last.tickOverruns < 0 ? -1 : 0;
+        s.tickAvgUs = last.tickAvgUs < 0 ? -1 : 0;
+        s.tickMaxUs = last.tickMaxUs < 0 ? -1 : 0;
+        for (var r : rows) {
+            s.bytesInPerClient += r.bytesInPerClient / rows.size();
+            s.bytesOutPerClient += r.bytesOutPerClient / rows.size();
+            s.msgsInPerClient += r.msgsInPerClient / rows.size();
+            if (r.tickAvgUs < 0) continue;
+            s.tickAvgUs += r.tickAvgUs / rows.size();
+            s.tickMaxUs = Math.max(s.tickMaxUs, r.tickMaxUs);
+            s.tickOverruns += r.tickOverruns;
+        }
+        if (server != null) for (var r : rows) s.lateTicks += r.lateTicks;
+        return s;
+    }
+
+    private static void print(LoadReport.Row r) {
+        System.out.println(String.format(Locale.ROOT,
+                "[Load] t=%5.1fs bots %d/%d echo p50/p90/p99 %.1f/%.1f/%.1f ms (%d) in %.0f B/s out %.0f B/s per client%s",
+                r.t, r.connected, r.targetBots, r.p50Ms, r.p90Ms, r.p99Ms, r.echoes, r.bytesInPerClient, r.bytesOutPerClient,
+                r.tickAvgUs < 0 ? "" : String.format(Locale.ROOT, " | %d room(s) %d enemies tick avg/max %.0f/%.0f us over %d late %d",
+                        r.rooms, r.enemies, r.tickAvgUs, r.tickMaxUs, r.tickOverruns, r.lateTicks)));
+    }
+}
@@ -0,0 +1,139 @@
+package com.cbl.game.loadtest;
+
+import com.cbl.game.config.GameConfig;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+
+/** Options of one {@link BotSwarm} run; parsed like the server's ({@code --key=value}, {@code --config=file}). */
+final class LoadOptions {
+    static final String USAGE = String.join("\n",
+            "options (also valid as keys in the --config properties file):",
+            "  --config=FILE           properties file read before the other options",
+            "  --host=HOST             server to load (default 127.0.0.1)",
+            "  --port=N                its port (default " + GameConfig.DEFAULT_PORT + ")",
+            "  --local=true            start a server in this process first, so tick times can be reported",
+            "  --server-config=FILE    properties for that local server (see cbl-server --help)",
+            "  --profile=N:S,...       stages: hold N bots for S seconds each (default 10:20,50:20,100:20)",
+            "  --spawn-rate=N          bots connected per second while ramping up (default 50)",
+            "  --rooms=N               bots are spread over this many rooms (default 1)",
+            "  --pattern=P             movement: circle, zigzag or random (default random)",
+            "  --shoot-hz=F            shots per bot per second (default 2)",
+            "  --sample-seconds=S      one report row every S seconds (default 1)",
+            "  --max-p99-ms=MS         a stage passes if input echo p99 stays under this, with no",
+            "                          disconnects and no overrun ticks (default 200)",
+            "  --report=PATH           writes PATH.csv, PATH-stages.csv and PATH.json (default loadtest)",
+            "  --seed=N                seed for the bots' patterns (default 1)");
+
+    String host = "127.0.0.1";
+    int port = GameConfig.DEFAULT_PORT;
+    boolean local;
+    String serverConfig;
+    int[] stageBots = {10, 50, 100}, stageSeconds = {20, 20, 20};
+    int spawnRate = 50, rooms = 1, sampleSeconds = 1, maxP99Ms = 200;
+    Bot.Pattern pattern = Bot.Pattern.RANDOM;
+    double shootHz = 2;
+    String report = "loadtest";
+    long seed = 1;
+
+    /**
+     * @throws IllegalArgumentException on an unknown key or a bad value
+     * @throws IOException if the config file cannot be read
+     */
+    static LoadOptions fromArgs(String... args) throws IOException {
+        var cli = new Properties();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (!a.startsWith("--") || eq < 0) throw new IllegalArgumentException("expected --key=value, got: " + a);
+            cli.setProperty(a.substring(2, eq), a.substring(eq + 1));
+        }
+        var p = new Properties();
+        String file = cli.getProperty("config");
+        if (file != null) {
+            try (Reader r = Files.newBufferedReader(Path.of(file))) { p.load(r); }
+        }
+        p.putAll(cli);
+        p.remove("config");
+
+        var o = new LoadOptions();
+        o.host = str(p, "host", o.host);
+        o.port = num(p, "port", o.port, 1, 65535);
+        o.local = Boolean.parseBoolean(str(p, "local", "false"));
+        o.serverConfig = str(p, "server-config", null);
+        String profile = str(p, "profile", null);
+        if (profile != null) o.parseProfile(profile);
+        o.spawnRate = num(p, "spawn-rate", o.spawnRate, 1, 100_000);
+        o.rooms = num(p, "rooms", o.rooms, 1, 1 << 16);
+        o.sampleSeconds = num(p, "sample-seconds", o.sampleSeconds, 1, 3600);
+        o.maxP99Ms = num(p, "max-p99-ms", o.maxP99Ms, 1, 60_000);
+        String pattern = str(p, "pattern", null);
+        if (pattern != null) {
+            try { o.pattern = Bot.Pattern.valueOf(pattern.trim().toUpperCase(Locale.ROOT)); }
+            catch (IllegalArgumentException e) { throw new IllegalArgumentException("pattern: expected circle, zigzag or random, got " + pattern); }
+        }
+        String shoot = str(p, "shoot-hz", null);
+        if (shoot != null) {
+            try { o.shootHz = Double.parseDouble(shoot.trim()); }
+            catch (NumberFormatException e) { throw new IllegalArgumentException("shoot-hz: not a number: " + shoot); }
+            if (o.shootHz < 0 || o.shootHz > GameConfig.TICK_HZ) throw new IllegalArgumentException("shoot-hz must be in [0, " + GameConfig.TICK_HZ + "]");
+        }
+        o.report = str(p, "report", o.report);
+        o.seed = num(p, "seed", 1, 0, Integer.MAX_VALUE);
+        if (!p.isEmpty()) throw new IllegalArgumentException("unknown option: " + p.keySet().iterator().next());
+        return o;
+    }
+
+    /** "N:S,N:S,...": hold N bots for S seconds; N may go down as well as up. */
+    private void parseProfile(String s) {
+        String[] parts = s.split(",");
+        stageBots = new int[parts.length];
+        stageSeconds = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String[] ns = parts[i].trim().split(":");
+            if (ns.length != 2) throw new IllegalArgumentException("profile: expected bots:seconds, got " + parts[i]);
+            try {
+                stageBots[i] = Integer.parseInt(ns[0].trim());
+                stageSeconds[i] = Integer.parseInt(ns[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("profile: not a number in " + parts[i]);
+            }
+            if (stageBots[i] < 0 || stageSeconds[i] < 1) throw new IllegalArgumentException("profile: bad stage " + parts[i]);
+        }
+    }
+
+    int maxBots() {
+        int m = 0;
+        for (int b : stageBots) m = Math.max(m, b);
+        return m;
+    }
+
+    @Override public String toString() {
+        var sb = new StringBuilder();
+        for (int i = 0; i < stageBots.length; i++) sb.append(i == 0 ? "" : ",").append(stageBots[i]).append(':').append(stageSeconds[i]);
+        return "target=" + host + ":" + port + (local ? " (local)" : "") + " profile=" + sb + " spawn-rate=" + spawnRate
+                + "/s rooms=" + rooms + " pattern=" + pattern.name().toLowerCase(Locale.ROOT) + " shoot-hz=" + shootHz;
+    }
+
+    /** Reads and removes {@code key}, so leftovers are unknown options. */
+    private static String str(Properties p, String key, String def) {
+        Object v = p.remove(key);
+        return v == null ? def : v.toString().trim();
+    }
+
+    private static int num(Properties p, String key, int def, int min, int max) {
+        Object v = p.remove(key);
+        if (v == null) return def;
+        int n;
+        try {
+            n = Integer.parseInt(v.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + ": not a number: " + v);
+        }
+        if (n < min || n > max) throw new IllegalArgumentException(key + " must be in [" + min + ", " + max + "], got " + n);
+        return n;
+    }
+}
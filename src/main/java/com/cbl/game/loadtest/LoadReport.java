@@ -0,0 +1,93 @@
+package com.cbl.game.loadtest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Rows collected by a {@link BotSwarm} run: one {@link Row} per sample
+ * interval and one per stage, written as CSV (samples, stages) and as one
+ * JSON document. Server tick columns are -1 when the server is not local.
+ */
+final class LoadReport {
+    /** One interval (a sample) or a whole stage; per-client rates are averaged over connected bots. */
+    static final class Row {
+        double t;              // seconds since start (end of the interval)
+        int stage, targetBots, connected;
+        long disconnects, connectFailures;
+        double p50Ms, p90Ms, p99Ms, maxMs;
+        long echoes;
+        double bytesInPerClient, bytesOutPerClient, msgsInPerClient;   // per second
+        int rooms = -1, enemies = -1;
+        double tickAvgUs = -1, tickMaxUs = -1;
+        long tickOverruns = -1, lateTicks = -1;
+        boolean pass;          // stages only
+    }
+
+    private static final String[] COLUMNS = {
+            "t_s", "stage", "target_bots", "connected", "disconnects", "connect_failures",
+            "echo_p50_ms", "echo_p90_ms", "echo_p99_ms", "echo_max_ms", "echoes",
+            "bytes_in_per_client_s", "bytes_out_per_client_s", "msgs_in_per_client_s",
+            "rooms", "enemies", "tick_avg_us", "tick_max_us", "tick_overruns", "late_ticks" };
+
+    final List<Row> samples = new ArrayList<>(), stages = new ArrayList<>();
+    private final String options;
+
+    LoadReport(String options) { this.options = options; }
+
+    /** Writes {@code base}.csv, {@code base}-stages.csv and {@code base}.json. */
+    void write(String base) throws IOException {
+        Path csv = Path.of(base + ".csv"), stageCsv = Path.of(base + "-stages.csv"), json = Path.of(base + ".json");
+        if (csv.getParent() != null) Files.createDirectories(csv.getParent());
+        writeCsv(csv, samples, false);
+        writeCsv(stageCsv, stages, true);
+        try (var w = new PrintWriter(Files.newBufferedWriter(json, StandardCharsets.UTF_8))) {
+            w.println("{");
+            w.println("  \"options\": \"" + options.replace("\\", "\\\\").replace("\"", "\\\"") + "\",");
+            w.println("  \"stages\": [");
+            writeJson(w, stages, true);
+            w.println("  ],");
+            w.println("  \"samples\": [");
+            writeJson(w, samples, false);
+            w.println("  ]");
+            w.println("}");
+        }
+    }
+
+    private static void writeCsv(Path p, List<Row> rows, boolean withPass) throws IOException {
+        try (var w = new PrintWriter(Files.newBufferedWriter(p, StandardCharsets.UTF_8))) {
+            w.println(String.join(",", COLUMNS) + (withPass ? ",pass" : ""));
+            for (Row r : rows) {
+                var v = values(r);
+                w.println(String.join(",", v) + (withPass ? "," + r.pass : ""));
+            }
+        }
+    }
+
+    private static void writeJson(PrintWriter w, List<Row> rows, boolean withPass) {
+        for (int i = 0; i < rows.size(); i++) {
+            var v = values(rows.get(i));
+            var sb = new StringBuilder("    {");
+            for (int c = 0; c < COLUMNS.length; c++) sb.append(c == 0 ? "" : ", ").append('"').append(COLUMNS[c]).append("\": ").append(v[c]);
+            if (withPass) sb.append(", \"pass\": ").append(rows.get(i).pass);
+            w.println(sb.append(i + 1 < rows.size() ? "}," : "}"));
+        }
+    }
+
+    private static String[] values(Row r) {
+        return new String[] {
+                f(r.t), Integer.toString(r.stage), Integer.toString(r.targetBots), Integer.toString(r.connected),
+                Long.toString(r.disconnects), Long.toString(r.connectFailures),
+                f(r.p50Ms), f(r.p90Ms), f(r.p99Ms), f(r.maxMs), Long.toString(r.echoes),
+                f(r.bytesInPerClient), f(r.bytesOutPerClient), f(r.msgsInPerClient),
+                Integer.toString(r.rooms), Integer.toString(r.enemies), f(r.tickAvgUs), f(r.tickMaxUs),
+                Long.toString(r.tickOverruns), Long.toString(r.lateTicks) };
+    }
+
+    private static String f(double v) { return String.format(Locale.ROOT, "%.1f", v); }
+}
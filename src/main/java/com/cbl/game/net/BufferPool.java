@@ -0,0 +1,22 @@
+package com.cbl.game.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/** Small free-list of heap buffers so encoding a frame never allocates. */
+final class BufferPool {
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private final int capacity;
+    private final int maxPooled;
+
+    BufferPool(int capacity, int maxPooled) { this.capacity = capacity; this.maxPooled = maxPooled; }
+
+    synchronized ByteBuffer acquire() {
+        var b = free.poll();
+        return b != null ? b.clear() : ByteBuffer.allocate(capacity);
+    }
+
+    synchronized void release(ByteBuffer b) {
+        if (b.capacity() == capacity && free.size() < maxPooled) free.push(b);
+    }
+}
@@ -0,0 +1,157 @@
+package com.cbl.game.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer, single-consumer queue of decoded client commands
+ * (Vyukov-style: each slot carries a sequence number, producers claim slots
+ * with one CAS on the tail, the consumer never locks). IO threads decode a
+ * frame and copy its fields into a preallocated slot; the tick thread drains
+ * everything at the start of the tick and is the only one that applies them.
+ * <p>
+ * Lossy commands (INPUT/SHOT/ACK/RESYNC) are refused once the ring is within
+ * {@link #RESERVE} of full and counted as drops; JOIN/LEAVE may use the
+ * reserve and only spin if even that is gone, so a connection is never lost.
+ */
+final class CommandRing {
+    static final int JOIN = 1, LEAVE = 2, INPUT = 3, SHOT = 4, ACK = 5, RESYNC = 6;
+    static final int INTS = 2 + NetMessage.MAX_INPUTS, FLOATS = 4;
+    static final int RESERVE = 64;
+
+    private final int capacity, mask;
+    private final AtomicLongArray seq;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;  // written by the consumer only
+
+    // slot payload, row i at [i * INTS] / [i * FLOATS]
+    private final int[] type;
+    private final Connection[] conn;
+    private final int[] ints;
+    private final float[] floats;
+
+    // stats
+    private final AtomicLong drops = new AtomicLong();
+    private volatile long drained;
+    private volatile int lastDepth, maxDepth;
+
+    /** @param capacity rounded up to a power of two, at least 2 × {@link #RESERVE} */
+    CommandRing(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(capacity, RESERVE * 2) - 1) << 1;
+        this.mask = this.capacity - 1;
+        seq = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) seq.set(i, i);
+        type = new int[this.capacity];
+        conn = new Connection[this.capacity];
+        ints = new int[this.capacity * INTS];
+        floats = new float[this.capacity * FLOATS];
+    }
+
+    // ---------- producers (any thread) ----------
+    void join(Connection c)  { control(JOIN, c); }
+    void leave(Connection c) { control(LEAVE, c); }
+
+    /** INPUT frame: {@code m.id} newest seq, {@code m.value} count, {@code m.inputs} oldest first. */
+    boolean input(Connection c, NetMessage m) {
+        int i = claim(RESERVE);
+        if (i < 0) { drops.incrementAndGet(); return false; }
+        int n = Math.min(m.value, NetMessage.MAX_INPUTS), o = i * INTS;
+        ints[o] = m.id;
+        ints[o + 1] = n;
+        System.arraycopy(m.inputs, 0, ints, o + 2, n);
+        return publish(i, INPUT, c);
+    }
+
+    /** SHOT frame: position/velocity in the floats, view seq in int 0. */
+    boolean shot(Connection c, NetMessage m) {
+        int i = claim(RESERVE);
+        if (i < 0) { drops.incrementAndGet(); return false; }
+        int o = i * FLOATS;
+        floats[o] = m.x; floats[o + 1] = m.y; floats[o + 2] = m.vx; floats[o + 3] = m.vy;
+        ints[i * INTS] = m.value;
+        return publish(i, SHOT, c);
+    }
+
+    boolean ack(Connection c, int snapSeq) {
+        int i = claim(RESERVE);
+        if (i < 0) { drops.incrementAndGet(); return false; }
+        ints[i * INTS] = snapSeq;
+        return publish(i, ACK, c);
+    }
+
+    /** Lockstep client asking for the world again; lossy like ACK (it asks again on the next mismatch). */
+    boolean resync(Connection c) {
+        int i = claim(RESERVE);
+        if (i < 0) { drops.incrementAndGet(); return false; }
+        return publish(i, RESYNC, c);
+    }
+
+    private void control(int t, Connection c) {
+        int i;
+        while ((i = claim(0)) < 0) Thread.yield(); // chỉ khi tick kẹt hẳn; không được mất JOIN/LEAVE
+        publish(i, t, c);
+    }
+
+    /** @return a slot index, or -1 if fewer than {@code keepFree} slots would remain. */
+    private int claim(int keepFree) {
+        long pos = tail.get();
+        for (;;) {
+            if (pos - head >= capacity - keepFree) return -1;
+            int i = (int) pos & mask;
+            long d = seq.get(i) - pos;
+            if (d == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) return i;
+                pos = tail.get();
+            } else if (d < 0) {
+                return -1; // consumer chưa trả slot: coi như đầy
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private boolean publish(int i, int t, Connection c) {
+        type[i] = t;
+        conn[i] = c;
+        seq.set(i, seq.get(i) + 1); // volatile write: payload is visible to the consumer after this
+        return true;
+    }
+
+    // ---------- consumer (tick thread) ----------
+    /** @return the slot of the next command, or -1 if none is published yet. Pair with {@link #release}. */
+    int poll() {
+        long h = head;
+        int i = (int) h & mask;
+        return seq.get(i) == h + 1 ? i : -1;
+    }
+
+    void release(int i) {
+        conn[i] = null;
+        long h = head;
+        seq.set(i, h + capacity);
+        head = h + 1;
+        drained++;
+    }
+
+    int type(int i) { return type[i]; }
+    Connection connection(int i) { return conn[i]; }
+    int intAt(int i, int k) { return ints[i * INTS + k]; }
+    float floatAt(int i, int k) { return floats[i * FLOATS + k]; }
+    /** INPUT payload: button bits start at this offset of {@link #intArray()}. */
+    int inputsOffset(int i) { return i * INTS + 2; }
+    int[] intArray() { return ints; }
+
+    /** Consumer: records how many commands are waiting, before draining. */
+    void sampleDepth() {
+        int d = (int) (tail.get() - head);
+        lastDepth = d;
+        if (d > maxDepth) maxDepth = d;
+    }
+
+    // ---------- stats (any thread) ----------
+    int capacity() { return capacity; }
+    int lastDepth() { return lastDepth; }
+    int maxDepth() { return maxDepth; }
+    long drops() { return drops.get(); }
+    long drained() { return drained; }
+}
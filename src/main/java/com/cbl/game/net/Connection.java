@@ -0,0 +1,172 @@
+package com.cbl.game.net;
+
+import com.cbl.game.sim.PlayerState;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One client socket owned by an {@link IoLoop}. Other threads only append to
+ * the outbound buffers; the loop thread does all reads, writes and the close.
+ * <p>
+ * Outbound is split in two: reliable events go to a bounded byte queue, the
+ * per-tick position state goes to a single slot. The slot is only moved onto
+ * the wire once the queue has drained, so a client that falls behind gets the
+ * newest state instead of a backlog (each overwritten state is "coalesced").
+ */
+final class Connection {
+    static final int OUT_CAPACITY = 256 * 1024;
+    static final int STATE_CAPACITY = 128 * 1024;
+
+    int id;                  // fixed once handshaken; a resumed session takes its old id back then (NetServer.resume)
+    final SocketChannel channel;
+    final IoLoop loop;
+    final ByteBuffer in = ByteBuffer.allocateDirect(NetMessage.MAX_FRAME);
+    final NetMessage msg = new NetMessage();   // decode scratch, loop thread only
+    SelectionKey key;
+
+    private final ByteBuffer out = ByteBuffer.allocateDirect(OUT_CAPACITY);
+    private final ByteBuffer state = ByteBuffer.allocateDirect(STATE_CAPACITY);
+    private boolean writeRequested, drop, statePending;
+    Connection nextWrite;    // IoLoop's pending-write list, guarded by its lock
+    boolean writeQueued;
+    volatile boolean joined, closed;  // joined: set by the tick when it applies JOIN
+    boolean handshaken;      // IO thread: JOIN accepted and queued
+    volatile boolean quit;   // IO thread: the client sent LEAVE, so its slot is not kept for a reconnect
+    int resumeBase;          // JOIN of a resumed session: newest snapshot seq / lockstep tick the client has
+    volatile Room room;      // set once at handshake; its tick owns everything below
+    int ackedSeq;            // newest snapshot the client confirmed (delta baseline); tick thread only
+    Snapshot.History history = new Snapshot.History(32); // views sent, tick thread only; passed on by a resume
+    int lastSentSeq;
+    boolean parked;          // socket gone, player kept for a reconnect while resumeLeft lasts; tick thread only
+    int resumeLeft;          // parked: ticks left, counted down by the room
+    volatile boolean removed;  // tick: out of the room for good (left, or its window ran out); no longer resumable
+
+    // Authoritative player, moved by the tick from queued inputs
+    final PlayerState player = new PlayerState();   // tick thread only (after join)
+    InputQueue inputs = new InputQueue(32);           // passed on by a resume, like history
+    int lastInputSeq;   // newest input applied, echoed in snapshots; tick thread only
+    int inputBudget;    // inputs this client may still apply; tick thread only
+
+    // UDP side channel, bound by the session token sent in WELCOME
+    final long token;
+    volatile java.net.SocketAddress udpAddr;
+    volatile boolean udpActive;  // client proved it receives our datagrams
+    int udpInSeq;                // newest-wins sequence numbers
+    private int udpOutSeq;       // guarded by this: the room tick and the hello reply both send
+
+    // counters (guarded by this)
+    private long frames, bytesOut, coalesced;
+    // inbound counters, one writer each (TCP: this loop, UDP: loop 0); read by ServerMetrics
+    volatile long bytesIn, messagesIn, parseErrors;
+    volatile long udpBytesIn, udpMessagesIn, udpParseErrors;
+
+    Connection(int id, long token, SocketChannel channel, IoLoop loop) {
+        this.id = id; this.token = token; this.channel = channel; this.loop = loop;
+    }
+
+    /**
+     * Queues the frames in {@code b} ([0, position)) without blocking. If the
+     * peer is too slow and the buffer is full, the connection is marked for close.
+     */
+    void enqueue(ByteBuffer b) {
+        synchronized (this) {
+            if (closed || drop) return;
+            frames++;
+            append(b);
+            if (writeRequested) return;
+            writeRequested = true;
+        }
+        loop.requestWrite(this);
+    }
+
+    /**
+     * Queues one tick frame: {@code events} are reliable and appended,
+     * {@code snapshot} replaces any state that has not hit the wire yet.
+     */
+    void enqueueTick(ByteBuffer events, ByteBuffer snapshot) {
+        synchronized (this) {
+            if (closed || drop) return;
+            frames++;
+            if (events.position() > 0) append(events);
+            if (snapshot.position() > 0) {
+                if (statePending) coalesced++;
+                state.clear();
+                state.put(snapshot.array(), snapshot.arrayOffset(), snapshot.position());
+                statePending = true;
+            }
+            if (writeRequested) return;
+            writeRequested = true;
+        }
+        loop.requestWrite(this);
+    }
+
+    private void append(ByteBuffer b) {
+        if (out.remaining() < b.position()) drop = true;
+        else out.put(b.array(), b.arrayOffset(), b.position());
+    }
+
+    /** Asks the loop to close this connection (any thread). */
+    void drop() {
+        synchronized (this) { drop = true; }
+        loop.requestWrite(this);
+    }
+
+    synchronized boolean dropped() { return drop; }
+
+    /** Bytes the reliable queue can still take before the connection would be dropped. */
+    synchronized int outRoom() { return out.remaining(); }
+
+    /** Forgets queued output, overflow included (benchmarks use connections as in-memory sinks). */
+    synchronized void discardOutput() {
+        out.clear();
+        statePending = false;
+        drop = false;
+    }
+
+    /**
+     * Sends one datagram to {@link #udpAddr}: {@code b}'s [UDP_SERVER_HEADER,
+     * + frameBytes) holds the frames, the header is filled in here. Drops it if
+     * the kernel buffer is full.
+     */
+    void sendDatagram(java.nio.channels.DatagramChannel udp, ByteBuffer b, int frameBytes) {
+        int seq;
+        synchronized (this) { seq = ++udpOutSeq; bytesOut += NetMessage.UDP_SERVER_HEADER + frameBytes; }
+        b.clear();
+        b.putInt(seq);
+        b.position(NetMessage.UDP_SERVER_HEADER + frameBytes).flip();
+        try { udp.send(b, udpAddr); } catch (java.io.IOException ignored) {}
+    }
+
+    /** Loop thread: writes what the socket accepts. @return false if the connection must close. */
+    boolean flush() throws java.io.IOException {
+        synchronized (this) {
+            if (drop) return false;
+            if (out.position() == 0 && statePending) {
+                state.flip();
+                out.put(state);
+                statePending = false;
+            }
+            out.flip();
+            bytesOut += channel.write(out);
+            out.compact();
+            if (out.position() == 0 && !statePending) {
+                writeRequested = false;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            return true;
+        }
+    }
+
+    synchronized long framesOut() { return frames; }
+    synchronized long bytesOut() { return bytesOut; }
+    long bytesIn() { return bytesIn + udpBytesIn; }
+    long messagesIn() { return messagesIn + udpMessagesIn; }
+    long parseErrors() { return parseErrors + udpParseErrors; }
+
+    synchronized String stats() {
+        return "frames=" + frames + " bytes=" + bytesOut + " coalesced=" + coalesced
+                + " in=" + messagesIn() + "/" + bytesIn() + "B" + (parseErrors() > 0 ? " bad=" + parseErrors() : "");
+    }
+}
@@ -0,0 +1,27 @@
+package com.cbl.game.net;
+
+/**
+ * Opcode-indexed handler table: one array lookup per message instead of a
+ * switch in every consumer. Register before connecting; unregistered types
+ * are ignored. Handlers get the reused {@link NetMessage}: copy what you need.
+ */
+public final class Dispatcher {
+    @FunctionalInterface
+    public interface Handler { void handle(NetMessage m); }
+
+    private final Handler[] byCode = new Handler[256];
+
+    /** Replaces the handler for {@code t}. @return this, for chaining. */
+    public Dispatcher on(MessageType t, Handler h) {
+        byCode[t.code] = h;
+        return this;
+    }
+
+    /** @return false if nothing is registered for {@code m.type}. */
+    public boolean dispatch(NetMessage m) {
+        Handler h = byCode[m.type.code];
+        if (h == null) return false;
+        h.handle(m);
+        return true;
+    }
+}
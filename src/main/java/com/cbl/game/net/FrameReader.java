@@ -0,0 +1,55 @@
+package com.cbl.game.net;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads length-prefixed frames from a blocking stream. Bytes go straight from
+ * the socket into one reused buffer in large reads, and frames are decoded in
+ * place; only a partial frame at the end is moved to the front before the
+ * next read.
+ */
+final class FrameReader {
+    private final InputStream in;
+    private final ByteBuffer buf = ByteBuffer.allocate(NetMessage.MAX_FRAME * 2); // [position, limit) unread
+    private int lastFrameBytes;
+
+    FrameReader(InputStream in) {
+        this.in = in;
+        buf.limit(0);
+    }
+
+    /**
+     * Blocks for the next frame and decodes it into {@code msg}. Whatever
+     * {@code msg} points into the buffer (SNAP body) is valid until the next call.
+     * @return false if the frame was not understood (it is skipped).
+     * @throws EOFException when the peer closes the stream.
+     */
+    boolean next(NetMessage msg) throws IOException {
+        while (true) {
+            if (buf.remaining() >= 2) {
+                int len = buf.getShort(buf.position()) & 0xFFFF;
+                if (buf.remaining() >= 2 + len) {
+                    int start = buf.position() + 2, end = start + len;
+                    buf.position(start);
+                    boolean ok = len > 0 && msg.read(buf, len);
+                    buf.position(end);
+                    lastFrameBytes = 2 + len;
+                    return ok;
+                }
+            }
+            fill();
+        }
+    }
+
+    /** Size on the wire of the frame {@link #next} returned last. */
+    int lastFrameBytes() { return lastFrameBytes; }
+
+    private void fill() throws IOException {
+        buf.compact();
+        int n = in.read(buf.array(), buf.position(), buf.remaining());
+        if (n < 0) throw new EOFException();
+        buf.position(buf.position() + n);
+        buf.flip();
+    }
+}
@@ -0,0 +1,45 @@
+package com.cbl.game.net;
+
+/**
+ * Inputs from one client in seq order. Clients resend their newest few inputs
+ * in every INPUT frame, so anything at or below the newest seq seen is a
+ * duplicate and dropped. Tick thread only (fed from the {@link CommandRing}).
+ */
+final class InputQueue {
+    private final int[] seqs, buttons;
+    private int head, count, newestSeq;
+
+    InputQueue(int capacity) {
+        seqs = new int[capacity];
+        buttons = new int[capacity];
+    }
+
+    /**
+     * Takes the inputs of one INPUT frame ({@code n} button sets at {@code src[off..]},
+     * the last numbered {@code newest}); ones already seen are skipped, overflow is dropped.
+     */
+    void offer(int newest, int[] src, int off, int n) {
+        int first = newest - n + 1;
+        for (int i = 0; i < n; i++) {
+            int seq = first + i;
+            if (seq <= newestSeq) continue;
+            if (count == seqs.length) return; // client gửi nhanh hơn tick xử lý: bỏ phần dư
+            int slot = (head + count++) % seqs.length;
+            seqs[slot] = seq;
+            buttons[slot] = src[off + i];
+            newestSeq = seq;
+        }
+    }
+
+    /** @return seq of the input {@link #poll()} would return next, or 0 if empty. */
+    int peekSeq() { return count == 0 ? 0 : seqs[head]; }
+
+    /** Removes the next input. @return its button bits, or -1 if empty. */
+    int poll() {
+        if (count == 0) return -1;
+        int b = buttons[head];
+        head = (head + 1) % seqs.length;
+        count--;
+        return b;
+    }
+}
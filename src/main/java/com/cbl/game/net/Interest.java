@@ -0,0 +1,83 @@
+package com.cbl.game.net;
+
+import com.cbl.game.core.spatial.SpatialHash;
+
+/**
+ * Area of interest: decides which rows of the world snapshot a client sees.
+ * Entities enter inside {@code radius} and leave only past {@code radius *
+ * LEAVE_FACTOR}, so something sitting on the edge does not flap in and out.
+ * Entering/leaving shows up on the client as a row added/removed in the delta.
+ */
+final class Interest {
+    static final float LEAVE_FACTOR = 1.15f;
+
+    private final long enter2, leave2;   // squared radii in quantized units
+    private final float radius, radius2; // px, for grid queries and events
+    private int[] nearby = new int[256]; // grid query scratch, tick thread only
+    private long[] rows = new long[16];  // bit per world row among them, tick thread only
+
+    Interest(float radius) {
+        this.radius = radius;
+        long q = NetMessage.quantize(radius);
+        long ql = NetMessage.quantize(radius * LEAVE_FACTOR);
+        this.enter2 = q * q;
+        this.leave2 = ql * ql;
+        this.radius2 = radius * radius;
+    }
+
+    /**
+     * Fills {@code view} with the rows of {@code world} around (x, y).
+     * {@code prev} is the last view sent to this client (may be null). Enemy
+     * candidates come from {@code enemyGrid}, which must match {@code world};
+     * players are few and just scanned. The client's own player row is always kept.
+     */
+    void filter(Snapshot world, Snapshot prev, Snapshot view, int selfId, float x, float y, SpatialHash enemyGrid) {
+        int cx = NetMessage.quantize(x), cy = NetMessage.quantize(y);
+        int n;
+        while ((n = enemyGrid.queryRadius(x, y, radius * LEAVE_FACTOR, nearby)) == nearby.length) {
+            nearby = new int[nearby.length * 2];
+        }
+        // view rows must stay id-sorted: world rows are, so mark them and walk the bits
+        // (Arrays.sort on these partly ordered runs allocates merge scratch every call)
+        var src = world.enemies;
+        var was = prev != null ? prev.enemies : null;
+        int words = (src.size() + 63) >>> 6;
+        if (rows.length < words) rows = new long[Math.max(words, rows.length * 2)];
+        for (int i = 0; i < n; i++) {
+            int r = src.find(nearby[i]);
+            if (r >= 0) rows[r >>> 6] |= 1L << r;
+        }
+        view.enemies.clear();
+        for (int w = 0; w < words; w++) {
+            for (long bits = rows[w]; bits != 0; bits &= bits - 1) {
+                int r = (w << 6) + Long.numberOfTrailingZeros(bits);
+                keepIfNear(src, r, was, view.enemies, Snapshot.ENEMY_X, Snapshot.ENEMY_Y, -1, cx, cy);
+            }
+            rows[w] = 0;
+        }
+        var ps = world.players;
+        view.players.clear();
+        for (int r = 0; r < ps.size(); r++) {
+            keepIfNear(ps, r, prev != null ? prev.players : null, view.players,
+                    Snapshot.PLAYER_X, Snapshot.PLAYER_Y, selfId, cx, cy);
+        }
+    }
+
+    boolean contains(float x, float y, float cx, float cy) {
+        float dx = x - cx, dy = y - cy;
+        return dx * dx + dy * dy <= radius2;
+    }
+
+    /** Copies row {@code r} of {@code src} into {@code dst} if it is (still) in range. */
+    private void keepIfNear(Snapshot.Table src, int r, Snapshot.Table prev, Snapshot.Table dst,
+                            int fx, int fy, int alwaysId, int cx, int cy) {
+        int id = src.id(r);
+        long dx = src.get(r, fx) - cx, dy = src.get(r, fy) - cy;
+        long d2 = dx * dx + dy * dy;
+        boolean keep = id == alwaysId || d2 <= enter2
+                || (d2 <= leave2 && prev != null && prev.find(id) >= 0);
+        if (!keep) return;
+        int row = dst.add(id);
+        for (int f = 0; f < src.fields; f++) dst.set(row, f, src.get(r, f));
+    }
+}
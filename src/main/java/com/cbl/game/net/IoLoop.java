@@ -0,0 +1,168 @@
+package com.cbl.game.net;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread for a shard of connections. Reads and decodes frames,
+ * writes queued output when the socket is writable. Never blocks on a peer.
+ */
+final class IoLoop implements Runnable {
+    interface Handler {
+        void onAccept(SocketChannel ch) throws IOException;
+        void onMessage(Connection c, NetMessage msg);
+        void onClose(Connection c);
+        void onDatagram(DatagramChannel ch) throws IOException;
+    }
+
+    private final Selector selector;
+    private final Handler handler;
+    private final Queue<Connection> pendingRegister = new ConcurrentLinkedQueue<>();
+    // Connections waiting for OP_WRITE, linked through Connection.nextWrite (no node per request)
+    private final Object writeLock = new Object();
+    private Connection writeHead;   // guarded by writeLock
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    IoLoop(String name, Handler handler) throws IOException {
+        this.selector = Selector.open();
+        this.handler = handler;
+        this.thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    void start() { thread.start(); }
+
+    void listen(ServerSocketChannel ss) throws IOException {
+        ss.configureBlocking(false);
+        ss.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    void listen(DatagramChannel udp) throws IOException {
+        udp.configureBlocking(false);
+        udp.register(selector, SelectionKey.OP_READ);
+    }
+
+    /** Hands a freshly accepted channel to this loop (any thread). */
+    void register(Connection c) {
+        pendingRegister.add(c);
+        selector.wakeup();
+    }
+
+    /** Asks the loop to start writing {@code c}'s queued output (any thread). */
+    void requestWrite(Connection c) {
+        synchronized (writeLock) {
+            if (c.writeQueued) return; // đã trong danh sách, loop sẽ thấy
+            c.writeQueued = true;
+            c.nextWrite = writeHead;
+            writeHead = c;
+        }
+        selector.wakeup();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /** Releases the selector of a loop that was never started (a started one closes it on exit). */
+    void close() {
+        try { selector.close(); } catch (IOException ignored) {}
+    }
+
+    /** Waits for the loop to close its connections and exit after {@link #stop()}. */
+    void join(long millis) throws InterruptedException { thread.join(millis); }
+
+    @Override public void run() {
+        while (running) {
+            try {
+                selector.select();
+                drainPending();
+                var keys = selector.selectedKeys();
+                for (var key : keys) {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        SocketChannel ch = ((ServerSocketChannel) key.channel()).accept();
+                        if (ch != null) handler.onAccept(ch);
+                        continue;
+                    }
+                    if (key.channel() instanceof DatagramChannel) {
+                        handler.onDatagram((DatagramChannel) key.channel());
+                        continue;
+                    }
+                    var c = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable() && !read(c)) { close(c); continue; }
+                        if (key.isValid() && key.isWritable() && !c.flush()) close(c);
+                    } catch (IOException e) {
+                        close(c);
+                    }
+                }
+                keys.clear();
+            } catch (IOException e) {
+                if (running) System.err.println("[Server] io loop error: " + e);
+            }
+        }
+        for (var key : selector.keys()) {
+            if (key.attachment() instanceof Connection) close((Connection) key.attachment());
+        }
+        try { selector.close(); } catch (IOException ignored) {}
+    }
+
+    private void drainPending() {
+        Connection c;
+        while ((c = pendingRegister.poll()) != null) {
+            try {
+                c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+            } catch (IOException e) {
+                close(c);
+            }
+        }
+        synchronized (writeLock) {
+            c = writeHead;
+            writeHead = null;
+        }
+        while (c != null) {
+            Connection next = c.nextWrite;
+            synchronized (writeLock) { c.nextWrite = null; c.writeQueued = false; }
+            if (c.key != null && c.key.isValid()) c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            c = next;
+        }
+    }
+
+    /** Reads available bytes and dispatches every complete frame. @return false on EOF. */
+    private boolean read(Connection c) throws IOException {
+        var in = c.in;
+        int n = c.channel.read(in);
+        if (n < 0) return false;
+        c.bytesIn += n;
+        in.flip();
+        while (in.remaining() >= 2) {
+            int len = in.getShort(in.position()) & 0xFFFF;
+            if (in.remaining() < 2 + len) break;
+            in.position(in.position() + 2);
+            int end = in.position() + len;
+            if (len > 0 && c.msg.read(in, len)) {
+                c.messagesIn++;
+                handler.onMessage(c, c.msg);
+            } else if (c.parseErrors++ == 0) {
+                // chỉ in lần đầu; sau đó chỉ đếm (xem ServerMetrics)
+                System.out.println("[Server] Client " + c.id + " sent an unreadable frame (" + len + " bytes)");
+            }
+            in.position(end);
+            if (c.dropped()) return false;
+        }
+        in.compact();
+        return true;
+    }
+
+    private void close(Connection c) {
+        if (c.closed) return;
+        c.closed = true;
+        if (c.key != null) c.key.cancel();
+        try { c.channel.close(); } catch (IOException ignored) {}
+        handler.onClose(c);
+    }
+}
@@ -0,0 +1,233 @@
+package com.cbl.game.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only recording of one {@link Room}: every command its tick applied,
+ * in order, and a marker at the end of each tick, so {@link Replay} can feed
+ * the same commands to a fresh room and get the same world. Written by the
+ * room's tick only, into a memory-mapped file that grows in
+ * {@value #CHUNK_MB} MB chunks: a record is a few varints put into mapped
+ * memory, no syscall and no allocation. The OS writes pages back on its own;
+ * a crash loses at most what it had not, and the zeros after the last record
+ * read as the end.
+ * <p>
+ * Layout: header (magic, format, protocol, tick length, world, spawn rules,
+ * flags, resume window, RNG seed, room name), then records of a u8 kind and its fields
+ * (ids and seqs are varints, shot floats are raw bits so replay is exact).
+ * Every {@link Room#CHECK_TICKS} ticks a {@link #CHECK} carries the room's
+ * state checksum, so a replay can tell where it stopped matching. If the file
+ * cannot grow (disk full) recording stops there; the game goes on.
+ */
+final class Journal implements Closeable {
+    static final int MAGIC = 0x43424C4A;   // "CBLJ"
+    static final int FORMAT = 4;   // 2: flags after the spawn rules (1 = lockstep room); 3: resume window, LEAVE parks
+    static final int SQRT_FORMAT = 4;   // 4: same layout, recorded by a room that measures lengths with Math.sqrt, not Math.hypot
+    static final int END = 0, TICK = 1, JOIN = 2, LEAVE = 3, INPUT = 4, SHOT = 5, ACK = 6, CHECK = 7;
+    private static final int CHUNK_MB = 16;
+    private static final long CHUNK = CHUNK_MB << 20;
+    private static final int MAX_RECORD = 64;   // INPUT with MAX_INPUTS buttons is the largest
+
+    final Path file;
+    private final FileChannel ch;
+    private MappedByteBuffer map;
+    private long base;        // file offset of map[0]
+    private long records;
+    private boolean failed;
+
+    private Journal(Path file, FileChannel ch) throws IOException {
+        this.file = file;
+        this.ch = ch;
+        this.map = ch.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK);
+    }
+
+    /** Creates {@code dir}/{@code <room>-<serial>-<millis>.cbj} and writes the header. */
+    static Journal create(Path dir, Room r, long seed) throws IOException {
+        Files.createDirectories(dir);
+        String safe = r.name.isEmpty() ? "default" : r.name.replaceAll("[^A-Za-z0-9._-]", "_");
+        Path file = dir.resolve(safe + "-" + r.serial + "-" + System.currentTimeMillis() + ".cbj");
+        var ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        var j = new Journal(file, ch);
+        var m = j.map;
+        var cfg = r.config();
+        m.putInt(MAGIC);
+        NetMessage.putVar(m, FORMAT);
+        NetMessage.putVar(m, NetMessage.PROTOCOL_VERSION);
+        NetMessage.putVar(m, cfg.tickMs());
+        NetMessage.putVar(m, cfg.worldW);
+        NetMessage.putVar(m, cfg.worldH);
+        NetMessage.putVar(m, cfg.maxEnemies);
+        NetMessage.putVar(m, cfg.enemySpawnMs);
+        NetMessage.putVar(m, cfg.lockstep ? 1 : 0);
+        NetMessage.putVar(m, cfg.resumeMs);
+        m.putLong(seed);
+        m.putLong(System.currentTimeMillis());
+        byte[] name = NetMessage.roomName(r.name);
+        NetMessage.putVar(m, name.length);
+        m.put(name);
+        return j;
+    }
+
+    // ---------- records (room tick only) ----------
+    void join(int id)  { if (begin(JOIN)) NetMessage.putVar(map, id); }
+    void leave(int id, boolean park) {
+        if (!begin(LEAVE)) return;
+        NetMessage.putVar(map, id);
+        map.put((byte) (park ? 1 : 0));
+    }
+
+    void ack(int id, int seq) {
+        if (!begin(ACK)) return;
+        NetMessage.putVar(map, id);
+        NetMessage.putVar(map, seq);
+    }
+
+    void input(int id, int newestSeq, int[] buttons, int off, int n) {
+        if (!begin(INPUT)) return;
+        NetMessage.putVar(map, id);
+        NetMessage.putVar(map, newestSeq);
+        map.put((byte) n);
+        for (int i = 0; i < n; i++) map.put((byte) buttons[off + i]);
+    }
+
+    void shot(int id, float x, float y, float vx, float vy, int viewSeq) {
+        if (!begin(SHOT)) return;
+        NetMessage.putVar(map, id);
+        map.putFloat(x).putFloat(y).putFloat(vx).putFloat(vy);
+        NetMessage.putVar(map, viewSeq);
+    }
+
+    void tick() { begin(TICK); }
+
+    void check(long tick, long checksum) {
+        if (!begin(CHECK)) return;
+        map.putLong(tick).putLong(checksum);
+    }
+
+    long records() { return records; }
+    long bytes() { return base + map.position(); }
+
+    /** @return false once recording has stopped. */
+    private boolean begin(int kind) {
+        if (failed || map.remaining() < MAX_RECORD && !grow()) return false;
+        map.put((byte) kind);
+        records++;
+        return true;
+    }
+
+    private boolean grow() {
+        try {
+            var next = ch.map(FileChannel.MapMode.READ_WRITE, base + map.position(), CHUNK);
+            base += map.position();
+            map = next;
+            return true;
+        } catch (IOException e) {
+            System.err.println("[Server] journal " + file + " stopped at " + bytes() + " bytes: " + e);
+            failed = true;
+            return false;
+        }
+    }
+
+    /** Flushes and cuts the file to what was written. */
+    @Override public void close() throws IOException {
+        long size = bytes();
+        map.force();
+        try {
+            ch.truncate(size);
+        } finally {
+            ch.close();
+        }
+    }
+
+    /**
+     * Sequential reader of a journal file. {@link #next()} returns the next
+     * record's kind and leaves its fields in the public members.
+     */
+    static final class Reader implements Closeable {
+        private final FileChannel ch;
+        private final ByteBuffer in;
+        final int protocol, tickMs, worldW, worldH, maxEnemies, enemySpawnMs, resumeMs;
+        final boolean lockstep;
+        final int format;
+        final long seed, startedMillis;
+        final String room;
+
+        // current record
+        int id, seq, count;
+        boolean park;
+        final int[] inputs = new int[NetMessage.MAX_INPUTS];
+        float x, y, vx, vy;
+        long tick, checksum;
+
+        Reader(Path file) throws IOException {
+            ch = FileChannel.open(file, StandardOpenOption.READ);
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("journal over 2 GB: " + file);
+            in = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < 4 || in.getInt() != MAGIC) throw new IOException("not a journal: " + file);
+            format = NetMessage.getVar(in);
+            if (format < 1 || format > FORMAT) throw new IOException("journal format " + format + ", this build reads 1-" + FORMAT);
+            protocol = NetMessage.getVar(in);
+            tickMs = NetMessage.getVar(in);
+            worldW = NetMessage.getVar(in);
+            worldH = NetMessage.getVar(in);
+            maxEnemies = NetMessage.getVar(in);
+            enemySpawnMs = NetMessage.getVar(in);
+            lockstep = format >= 2 && (NetMessage.getVar(in) & 1) != 0;
+            resumeMs = format >= 3 ? NetMessage.getVar(in) : 0;
+            seed = in.getLong();
+            startedMillis = in.getLong();
+            var name = new byte[NetMessage.getVar(in)];
+            in.get(name);
+            room = new String(name, StandardCharsets.UTF_8);
+        }
+
+        /** @return the kind of the next record, {@link #END} at the end (or at a torn record). */
+        int next() {
+            if (!in.hasRemaining()) return END;
+            int pos = in.position();
+            try {
+                int kind = in.get();
+                switch (kind) {
+                    case TICK: break;
+                    case JOIN: id = NetMessage.getVar(in); break;
+                    case LEAVE:
+                        id = NetMessage.getVar(in);
+                        park = format >= 3 && in.get() != 0;
+                        break;
+                    case ACK: id = NetMessage.getVar(in); seq = NetMessage.getVar(in); break;
+                    case INPUT:
+                        id = NetMessage.getVar(in);
+                        seq = NetMessage.getVar(in);
+                        count = in.get();
+                        if (count < 0 || count > NetMessage.MAX_INPUTS) return END;
+                        for (int i = 0; i < count; i++) inputs[i] = in.get() & 0xFF;
+                        break;
+                    case SHOT:
+                        id = NetMessage.getVar(in);
+                        x = in.getFloat(); y = in.getFloat(); vx = in.getFloat(); vy = in.getFloat();
+                        seq = NetMessage.getVar(in);
+                        break;
+                    case CHECK: tick = in.getLong(); checksum = in.getLong(); break;
+                    default: return END;   // 0 = chưa ghi tới (sau crash), khác = hỏng
+                }
+                return kind;
+            } catch (java.nio.BufferUnderflowException e) {
+                in.position(pos);
+                return END;
+            }
+        }
+
+        long position() { return in.position(); }
+
+        @Override public void close() throws IOException { ch.close(); }
+    }
+}
@@ -1,3 +1,27 @@
 package com.cbl.game.net;
 
-public enum MessageType { WELCOME, JOIN, JOINED, POS, SHOT, LEAVE }
+/**
+ * Wire opcodes. Codes are part of the protocol: never renumber, only append.
+ * HIT is retired since v4 (the server resolves hits itself) and POS since v5
+ * (the server moves players from INPUT); both are ignored. LSTEP, LSTATE
+ * and RESYNC are only used by lockstep rooms (v9); since v10 LSTATE comes in
+ * deflated chunks, and a client sends LEAVE when it quits on purpose (its
+ * slot is then not kept for a reconnect).
+ */
+public enum MessageType {
+    WELCOME(1), JOIN(2), JOINED(3), LEAVE(4), POS(5), SHOT(6), HIT(7),
+    ENSPAWN(8), ENPOS(9), ENHP(10), ENDEAD(11), SNAP(12), ACK(13), INPUT(14), PING(15), PONG(16),
+    LSTEP(17), LSTATE(18), RESYNC(19);
+
+    public final int code;
+
+    MessageType(int code) { this.code = code; }
+
+    private static final MessageType[] BY_CODE = new MessageType[256];
+    static { for (var t : values()) BY_CODE[t.code] = t; }
+
+    /** @return the type for an opcode, or {@code null} if unknown. */
+    public static MessageType fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
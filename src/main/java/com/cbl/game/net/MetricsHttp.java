@@ -0,0 +1,36 @@
+package com.cbl.game.net;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@code GET /metrics} on the loopback interface: {@link ServerMetrics#text()}
+ * as plain text, for curl or a Prometheus scraper on the same host. One
+ * thread (the JDK server's dispatcher), nothing on the game's threads.
+ */
+final class MetricsHttp {
+    private final HttpServer http;
+
+    MetricsHttp(int port, ServerMetrics metrics) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", ex -> {
+            try (ex) {
+                if (!"GET".equals(ex.getRequestMethod())) {
+                    ex.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = metrics.text().getBytes(StandardCharsets.UTF_8);
+                ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                ex.sendResponseHeaders(200, body.length);
+                ex.getResponseBody().write(body);
+            }
+        });
+        http.start();
+    }
+
+    void stop() { http.stop(0); }
+}
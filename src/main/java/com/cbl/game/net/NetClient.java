@@ -1,62 +1,446 @@
 package com.cbl.game.net;
 
+import com.cbl.game.config.GameConfig;
+import com.cbl.game.core.metrics.RateMeter;
+import com.cbl.game.sim.LockstepWorld;
+
 import java.io.*;
-import java.net.Socket;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 public final class NetClient {
+    private static final long RETRY_MS = 500;                    // between reconnect attempts
+    private static final int MAX_WORLD_BYTES = 64 << 20;         // biggest LSTATE we inflate
+
     private final String host; private final int port;
+    private final String room;
     private Socket socket;
-    private PrintWriter out;
-    private final ExecutorService pool = Executors.newSingleThreadExecutor();
+    private volatile OutputStream out;
+    private final ByteBuffer tx = ByteBuffer.allocate(256);   // frame at [UDP_CLIENT_HEADER, position)
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
     private volatile boolean connected = false;
+    private volatile boolean reconnecting, closing;
+    private volatile int resumeMs;                               // from WELCOME; 0 = the server keeps no slot
     private volatile int myId = -1;
-    private Consumer<String> onMsg;
+    private final Dispatcher handlers = new Dispatcher();
+    private final RateMeter messagesIn = new RateMeter(1000), bytesIn = new RateMeter(1000);
+    private final java.util.concurrent.atomic.AtomicLong bytesOut = new java.util.concurrent.atomic.AtomicLong();
+    private volatile boolean verbose = true;
+    private final Snapshot.History snapshots = new Snapshot.History(32);
+    private volatile int lastSnapSeq = 0;
+    private volatile int tickMs = GameConfig.SERVER_TICK_MS;   // from WELCOME
+    private volatile int worldW = GameConfig.WORLD_W, worldH = GameConfig.WORLD_H;
+    private volatile long seed;
+    private volatile boolean lockstep;
+    private volatile long rttNanos = -1, rttMinNanos = -1;   // newest PONG / lowest seen
+    private volatile double rttAvgNanos = -1;
+
+    // UDP side channel for INPUT/ACK up and SNAP down; TCP until it proves it works both ways
+    private DatagramSocket udp;
+    private DatagramPacket udpTx;
+    private volatile long token;
+    private volatile boolean udpConfirmed = false;
+    private int udpOutSeq, udpInSeq;
+
+    // Lockstep, read thread: LSTATE chunks being inflated, and the LSTEPs held back until the world is whole
+    private final Inflater inflater = new Inflater();
+    private byte[] worldBytes;
+    private int worldSize, worldLen;
+    private boolean worldPending;
+    private final ArrayList<HeldStep> held = new ArrayList<>();
+    private int heldCount;
+    private volatile int nextStepTick;           // tick of the next LSTEP; the baseline when resuming
+    private volatile boolean resyncRequested;    // asked for a world that has not arrived yet
 
-    public NetClient(String host, int port) { this.host = host; this.port = port; }
+    public NetClient(String host, int port) { this(host, port, ""); }
+
+    /** {@code room}: joined on connect, created by the server if nobody is in it yet ("" = default room). */
+    public NetClient(String host, int port, String room) { this.host = host; this.port = port; this.room = room; }
+
+    /**
+     * Registers the handler for one message type (call before {@link #connect()}).
+     * Handlers run on a network thread and receive one reused {@link NetMessage}:
+     * copy what you need, don't keep it. SNAP arrives already decoded in
+     * {@link NetMessage#snapshot}.
+     */
+    public NetClient on(MessageType t, Dispatcher.Handler h) {
+        handlers.on(t, h);
+        return this;
+    }
 
-    public void connect(Consumer<String> onMessage) {
-        this.onMsg = onMessage;
+    /**
+     * Connects on a background thread and starts dispatching to the registered
+     * handlers. If the connection drops after WELCOME and the server keeps
+     * slots, it reconnects with the session token until the server's window
+     * closes: same id, same player, and only what changed meanwhile is sent.
+     */
+    public void connect() {
         pool.submit(() -> {
-            try {
-                socket = new Socket(host, port);
-                out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
-                connected = true;
-                System.out.println("[Client] Connected " + host + ":" + port);
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-                    String line;
-                    while ((line = in.readLine()) != null) {
-                        if (line.startsWith("WELCOME|")) {
-                            myId = Integer.parseInt(line.split("\\|")[1]);
-                            System.out.println("[Client] myId = " + myId);
-                        }
-                        if (onMsg != null) onMsg.accept(line);
+            var msg = new NetMessage();
+            long giveUp = 0;
+            while (!closing) {
+                boolean welcomed = session(msg);
+                if (closing || myId == -1 || resumeMs == 0) break;
+                long now = System.nanoTime();
+                if (welcomed) giveUp = now + resumeMs * 1_000_000L;
+                if (now - giveUp >= 0) break;
+                reconnecting = true;
+                try { Thread.sleep(RETRY_MS); } catch (InterruptedException e) { break; }
+            }
+            reconnecting = false;
+        });
+    }
+
+    /** One TCP connection, from JOIN until it closes. @return whether it got a WELCOME */
+    private boolean session(NetMessage msg) {
+        boolean welcomed = false;
+        try {
+            socket = new Socket(host, port);
+            out = socket.getOutputStream();
+            udpConfirmed = false;
+            udpInSeq = 0;
+            boolean resume = myId != -1;
+            synchronized (tx) {
+                begin();
+                if (resume) NetMessage.writeJoin(tx, room, token, lockstep ? (resyncRequested ? 0 : nextStepTick) : lastSnapSeq);
+                else NetMessage.writeJoin(tx, room);
+                flush(false);
+            }
+            connected = true;
+            if (verbose) System.out.println("[Client] Connected " + host + ":" + port + (resume ? ", resuming id " + myId : ""));
+            var in = new FrameReader(socket.getInputStream());
+            while (connected) {
+                boolean ok = in.next(msg);
+                bytesIn.mark(in.lastFrameBytes());
+                if (!ok) continue;
+                messagesIn.mark();
+                if (msg.type == MessageType.WELCOME) {
+                    if (msg.value != NetMessage.PROTOCOL_VERSION) {
+                        System.err.println("[Client] protocol mismatch: server=" + msg.value
+                                + " client=" + NetMessage.PROTOCOL_VERSION);
+                        resumeMs = 0;
+                        break;
                     }
+                    welcome(msg);
+                    welcomed = true;
+                } else if (msg.type == MessageType.SNAP) {
+                    dispatchSnapshot(msg);
+                    continue;
+                } else if (msg.type == MessageType.PONG) {
+                    onPong(msg.time);
+                } else if (msg.type == MessageType.LSTATE) {
+                    if (!assembleWorld(msg)) continue;
+                    handlers.dispatch(msg);
+                    releaseSteps(msg);
+                    continue;
+                } else if (msg.type == MessageType.LSTEP) {
+                    if (worldPending) { holdStep(msg); continue; }
+                    nextStepTick = msg.step.tick + 1;
                 }
+                handlers.dispatch(msg);
+            }
+        } catch (IOException e) {
+            if (connected) System.err.println("[Client] connect error: " + e.getMessage());
+        } finally {
+            connected = false;
+            try { if (socket != null) socket.close(); } catch (IOException ignored) {}
+            if (udp != null) udp.close();
+            if (worldPending) resyncRequested = true;   // nửa world không dùng được: xin lại từ đầu
+            worldPending = false;
+            heldCount = 0;
+        }
+        return welcomed;
+    }
+
+    private void welcome(NetMessage msg) {
+        if (!msg.resumed && myId != -1) {
+            // chỗ cũ đã hết hạn: vào lại như người mới, các mốc cũ vô nghĩa
+            if (verbose) System.out.println("[Client] session expired, joined as a new player");
+            synchronized (snapshots) { lastSnapSeq = 0; }
+            nextStepTick = 0;
+        }
+        myId = msg.id;
+        token = msg.token;
+        tickMs = msg.tickMs; worldW = msg.worldW; worldH = msg.worldH;
+        seed = msg.seed; lockstep = msg.lockstep;
+        resumeMs = msg.resumeMs;
+        reconnecting = false;
+        if (verbose) System.out.println("[Client] myId = " + myId + (msg.resumed ? " (session resumed)" : ""));
+        startUdp();
+    }
+
+    /**
+     * Read thread: adds one LSTATE chunk to the world being inflated.
+     * @return true when the world is complete; {@code msg}'s body is then the
+     *         whole world, ready for {@link NetMessage#readWorld()}
+     */
+    private boolean assembleWorld(NetMessage msg) {
+        if ((msg.value & NetMessage.WORLD_FIRST) != 0) {
+            if (msg.id < 0 || msg.id > MAX_WORLD_BYTES) return badWorld("size " + msg.id);
+            if (worldBytes == null || worldBytes.length < msg.id) worldBytes = new byte[msg.id];
+            inflater.reset();
+            worldSize = msg.id;
+            worldLen = 0;
+            worldPending = true;
+        } else if (!worldPending) {
+            return false;
+        }
+        var in = msg.body.duplicate();
+        in.position(msg.bodyPos).limit(msg.bodyEnd);
+        inflater.setInput(in);
+        try {
+            for (;;) {
+                int n = inflater.inflate(worldBytes, worldLen, worldSize - worldLen);
+                worldLen += n;
+                if (inflater.finished() || inflater.needsInput()) break;
+                if (n == 0) return badWorld("more data than announced");
+            }
+        } catch (DataFormatException e) {
+            return badWorld(e.getMessage());
+        }
+        if ((msg.value & NetMessage.WORLD_LAST) == 0) return false;
+        worldPending = false;
+        if (!inflater.finished() || worldLen != worldSize) return badWorld("truncated");
+        resyncRequested = false;
+        msg.body = ByteBuffer.wrap(worldBytes);
+        msg.bodyPos = 0;
+        msg.bodyEnd = worldSize;
+        return true;
+    }
+
+    private boolean badWorld(String why) {
+        System.err.println("[Client] bad LSTATE (" + why + "), asking again");
+        worldPending = false;
+        heldCount = 0;
+        requestResync();
+        return false;
+    }
+
+    /** Read thread: keeps a copy of an LSTEP that arrived while the world it applies to is still coming. */
+    private void holdStep(NetMessage msg) {
+        if (heldCount == held.size()) held.add(new HeldStep());
+        var h = held.get(heldCount++);
+        h.step.copyFrom(msg.step);
+        h.hasChecksum = msg.hasChecksum;
+        h.checksum = msg.checksum;
+    }
+
+    /** Read thread: dispatches the held LSTEPs in order, right after the world. */
+    private void releaseSteps(NetMessage msg) {
+        var own = msg.step;
+        msg.type = MessageType.LSTEP;
+        for (int i = 0; i < heldCount; i++) {
+            var h = held.get(i);
+            msg.step = h.step;
+            msg.hasChecksum = h.hasChecksum;
+            msg.checksum = h.checksum;
+            nextStepTick = h.step.tick + 1;
+            handlers.dispatch(msg);
+        }
+        msg.step = own;
+        heldCount = 0;
+    }
+
+    private static final class HeldStep {
+        final LockstepWorld.Inputs step = new LockstepWorld.Inputs();
+        boolean hasChecksum;
+        long checksum;
+    }
+
+    private void startUdp() {
+        DatagramSocket s;
+        try {
+            s = new DatagramSocket();
+            s.connect(new InetSocketAddress(host, port));
+            s.setSoTimeout(250);
+            udpTx = new DatagramPacket(tx.array(), 0);
+        } catch (IOException e) {
+            System.err.println("[Client] UDP unavailable, staying on TCP: " + e.getMessage());
+            return;
+        }
+        udp = s;
+        pool.submit(() -> udpLoop(s));
+        sendHello();
+    }
+
+    /** Receives server datagrams (i32 seq + frames); newest wins, older packets are dropped. */
+    private void udpLoop(DatagramSocket udp) {
+        var msg = new NetMessage();
+        var rx = ByteBuffer.allocate(GameConfig.UDP_MAX_PACKET);
+        var packet = new DatagramPacket(rx.array(), rx.capacity());
+        while (connected) {
+            try {
+                packet.setLength(rx.capacity());
+                udp.receive(packet);
+            } catch (SocketTimeoutException e) {
+                if (!udpConfirmed) sendHello();
+                continue;
             } catch (IOException e) {
-                System.err.println("[Client] connect error: " + e.getMessage());
-            } finally { connected = false; }
-        });
+                break;
+            }
+            rx.clear().limit(packet.getLength());
+            bytesIn.mark(packet.getLength());
+            if (rx.remaining() < NetMessage.UDP_SERVER_HEADER) continue;
+            int seq = rx.getInt();
+            if (seq - udpInSeq <= 0) continue;
+            udpInSeq = seq;
+            udpConfirmed = true;
+            while (rx.remaining() >= 2) {
+                int len = rx.getShort() & 0xFFFF;
+                if (len == 0 || len > rx.remaining()) break;
+                int end = rx.position() + len;
+                if (msg.read(rx, len)) {
+                    messagesIn.mark();
+                    if (msg.type == MessageType.SNAP) dispatchSnapshot(msg);
+                }
+                rx.position(end);
+            }
+        }
+    }
+
+    private void onPong(long sentAt) {
+        long rtt = System.nanoTime() - sentAt;
+        if (rtt < 0) return;
+        rttNanos = rtt;
+        if (rttMinNanos < 0 || rtt < rttMinNanos) rttMinNanos = rtt;
+        rttAvgNanos = rttAvgNanos < 0 ? rtt : rttAvgNanos + (rtt - rttAvgNanos) * 0.2;
+    }
+
+    /** Header-only datagram: asks the server to answer so we know UDP works both ways. */
+    private void sendHello() {
+        synchronized (tx) { begin(); sendDatagram(); }
+    }
+
+    /** SNAP can arrive on either channel; decode and deliver them one at a time, in order. */
+    private void dispatchSnapshot(NetMessage msg) {
+        synchronized (snapshots) {
+            if (decodeSnapshot(msg)) handlers.dispatch(msg);
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot from its acked baseline and acks it back.
+     * @return false if it is stale or its baseline is no longer known.
+     */
+    private boolean decodeSnapshot(NetMessage msg) {
+        int seq = msg.id, baseSeq = msg.value;
+        if (seq <= lastSnapSeq) return false;
+        Snapshot base = snapshots.get(baseSeq);
+        if (baseSeq != 0 && base == null) return false;
+        Snapshot snap = snapshots.slot(seq);
+        if (snap == base) return false;
+        try {
+            msg.body.position(msg.bodyPos);
+            snap.readDelta(msg.body, base);
+        } catch (RuntimeException e) {
+            snap.seq = -1; // corrupt: never use as a baseline
+            return false;
+        } finally {
+            msg.body.position(msg.bodyEnd);
+        }
+        lastSnapSeq = seq;
+        msg.snapshot = snap;
+        synchronized (tx) { begin(); NetMessage.writeAck(tx, seq); flush(true); }
+        return true;
     }
 
     public boolean isConnected() { return connected; }
+    /** Lost the connection and trying to take the session back; the server keeps our player meanwhile. */
+    public boolean isReconnecting() { return reconnecting; }
     public int getMyId() { return myId; }
+    public String room() { return room; }
+    /** Server tick length in ms, i.e. time between snapshot seqs (defaults until WELCOME). */
+    public int serverTickMs() { return tickMs; }
+    /** Map size the server keeps players in (defaults until WELCOME). */
+    public int worldWidth() { return worldW; }
+    public int worldHeight() { return worldH; }
+    /** The room's RNG seed (from WELCOME). */
+    public long seed() { return seed; }
+    /** Whether the room is lockstep: it sends LSTATE once and LSTEP every tick instead of snapshots. */
+    public boolean lockstep() { return lockstep; }
+    /** Seq of the newest snapshot delivered (0 before the first). */
+    public int lastSnapshotSeq() { return lastSnapSeq; }
+    /** Frames decoded per second, TCP and UDP together (refreshed once a second). */
+    public double messagesPerSecond() { return messagesIn.perSecond(); }
+    /** Bytes received per second, including frame and datagram headers. */
+    public double bytesPerSecond() { return bytesIn.perSecond(); }
+    public long messagesReceived() { return messagesIn.total(); }
+    public long bytesReceived() { return bytesIn.total(); }
+    /** Round trip of the newest PING in ms over TCP, -1 before the first PONG. */
+    public double rttMs() { return rttNanos < 0 ? -1 : rttNanos / 1e6; }
+    /** Moving average of the last few round trips, ms (-1 before the first). */
+    public double rttAvgMs() { return rttAvgNanos < 0 ? -1 : rttAvgNanos / 1e6; }
+    public double rttMinMs() { return rttMinNanos < 0 ? -1 : rttMinNanos / 1e6; }
+    /** Bytes sent, TCP frames plus whole datagrams. */
+    public long bytesSent() { return bytesOut.get(); }
 
-    public void sendPos(float x, float y) {
-        if (connected && out != null && myId != -1) out.println("POS|" + myId + "|" + (int)x + "|" + (int)y);
+    /** Stops the per-connection log lines (errors still print); for running many clients at once. */
+    public NetClient quiet() {
+        verbose = false;
+        return this;
     }
-    public void sendShot(float x, float y, float vx, float vy) {
-        if (connected && out != null && myId != -1) out.println("SHOT|" + myId + "|" + (int)x + "|" + (int)y + "|" + (int)vx + "|" + (int)vy);
+
+    /**
+     * Sends the newest {@code n} inputs ({@code buttons} oldest first, the last
+     * one numbered {@code newestSeq}). Unreliable: the next call repeats them.
+     */
+    public void sendInputs(int newestSeq, int[] buttons, int n) {
+        if (!ready()) return;
+        synchronized (tx) { begin(); NetMessage.writeInput(tx, newestSeq, buttons, n); flush(true); }
     }
-    public void sendHit(int enemyId, int dmg) {
-        if (connected && out != null && myId != -1) out.println("HIT|" + enemyId + "|" + dmg + "|" + myId);
+    /** {@code viewSeq}: snapshot on screen when the shot was fired; the server rewinds hits to it. */
+    public void sendShot(float x, float y, float vx, float vy, int viewSeq) {
+        if (!ready()) return;
+        synchronized (tx) { begin(); NetMessage.writeShot(tx, myId, x, y, vx, vy, viewSeq); flush(false); }
     }
 
+    /** Asks the server to echo our clock; the answer updates {@link #rttMs()}. Reliable, so call it about once a second. */
+    public void ping() {
+        if (!ready()) return;
+        synchronized (tx) { begin(); NetMessage.writeTime(tx, MessageType.PING, System.nanoTime()); flush(false); }
+    }
+
+    /** Lockstep: asks for a fresh LSTATE (after a checksum mismatch or a gap in the steps). */
+    public void requestResync() {
+        resyncRequested = true;
+        if (!ready()) return;
+        synchronized (tx) { begin(); NetMessage.writeResync(tx); flush(false); }
+    }
+
+    private boolean ready() { return connected && out != null && myId != -1; }
+
+    /** Caller holds tx. Leaves room for the datagram header in front of the frame. */
+    private void begin() { tx.clear().position(NetMessage.UDP_CLIENT_HEADER); }
+
+    /** Caller holds tx. {@code unreliable} frames go over UDP once it is confirmed. */
+    private void flush(boolean unreliable) {
+        if (unreliable && udpConfirmed) { sendDatagram(); return; }
+        try {
+            out.write(tx.array(), NetMessage.UDP_CLIENT_HEADER, tx.position() - NetMessage.UDP_CLIENT_HEADER);
+            bytesOut.addAndGet(tx.position() - NetMessage.UDP_CLIENT_HEADER);
+        } catch (IOException e) { connected = false; }
+    }
+
+    /** Caller holds tx. Fills in the header and sends [0, position) as one datagram. */
+    private void sendDatagram() {
+        if (udp == null) return;
+        tx.putInt(0, myId).putLong(4, token).putInt(12, ++udpOutSeq);
+        udpTx.setData(tx.array(), 0, tx.position());
+        try { udp.send(udpTx); bytesOut.addAndGet(tx.position()); } catch (IOException ignored) {}
+    }
+
+    /** Leaves the room for good: tells the server first, so it does not keep our slot for a reconnect. */
     public void close() {
+        closing = true;
+        if (ready()) synchronized (tx) { begin(); NetMessage.writeId(tx, MessageType.LEAVE, myId); flush(false); }
+        connected = false;
         try { if (socket != null) socket.close(); } catch (IOException ignored) {}
+        if (udp != null) udp.close();
         pool.shutdownNow();
-        connected = false;
     }
 }
@@ -1,24 +1,311 @@
 package com.cbl.game.net;
 
+import com.cbl.game.sim.LockstepWorld;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * Binary wire codec shared by {@link NetServer} and {@link NetClient}.
+ * Frame: u16 length | u8 opcode | payload (length counts opcode + payload).
+ * IDs/HP are varints, positions and velocities are zigzag varints quantized
+ * to 1/{@value #POS_SCALE} px. Decoding fills a reusable instance, so read
+ * loops keep one {@code NetMessage} per connection and never allocate.
+ */
 public final class NetMessage {
-    public final MessageType type;
-    public final String[] args;
+    public static final int PROTOCOL_VERSION = 10;
+    public static final int MAX_FRAME = 2 + 0xFFFF;
+    /** Datagram headers: client→server i32 id, i64 token, i32 seq; server→client i32 seq. */
+    public static final int UDP_CLIENT_HEADER = 16, UDP_SERVER_HEADER = 4;
+    /** INPUT repeats up to this many of the newest inputs, so a lost datagram costs nothing. */
+    public static final int MAX_INPUTS = 8;
+    /** JOIN: longest room name, in UTF-8 bytes. */
+    public static final int MAX_ROOM_NAME = 32;
+    /** LSTATE chunk flags. */
+    public static final int WORLD_FIRST = 1, WORLD_LAST = 2;
+    private static final float POS_SCALE = 4f;
 
-    public NetMessage(MessageType type, String... args) {
-        this.type = type; this.args = args;
+    public MessageType type;
+    public int id;      // player id, enemy id for EN*/HIT, resume baseline (JOIN), raw world size (first LSTATE chunk)
+    public int value;   // hp (EN*), dmg (HIT), protocol version (WELCOME/JOIN), view seq (SHOT), count (INPUT), flags (LSTATE)
+    public int by;      // HIT: shooter id
+    public long token;  // WELCOME: session token that binds the UDP channel; JOIN: token of the session to resume (0 = new)
+    public int tickMs, worldW, worldH;  // WELCOME: server tick length (snapshot spacing) and map size
+    public long seed;                   // WELCOME: the room's RNG seed
+    public boolean lockstep;            // WELCOME: the room sends LSTEP/LSTATE instead of snapshots
+    public boolean resumed;             // WELCOME: the JOIN took back its old slot (same id, same player)
+    public int resumeMs;                // WELCOME: how long the server keeps the slot after a drop
+    public String room = "";            // JOIN: room to join or create ("" = the default room)
+    public long time;                   // PING: sender's clock, echoed unchanged in PONG
+    public float x, y, vx, vy;
+    /** INPUT: button bits, oldest first; {@link #id} is the seq of the last one. */
+    public final int[] inputs = new int[MAX_INPUTS];
+    /** LSTEP: every player's buttons for tick {@code step.tick} (created on the first LSTEP). */
+    public LockstepWorld.Inputs step;
+    /** LSTEP: whether {@link #checksum} holds the world's checksum after this step. */
+    public boolean hasChecksum;
+    public long checksum;
+    /** SNAP: the decoded snapshot (set by {@link NetClient}); valid only during dispatch. */
+    public Snapshot snapshot;
+    /** SNAP/LSTATE: raw payload in {@link #body} [bodyPos, bodyEnd); valid only during dispatch. */
+    ByteBuffer body; int bodyPos, bodyEnd;
+
+    // ---------- ENCODE ----------
+    /** JOIN: version, then the room name (varint length + UTF-8). */
+    public static void writeJoin(ByteBuffer b, String room) { writeJoin(b, room, 0, 0); }
+    /**
+     * JOIN that resumes a dropped session: also the token its last WELCOME
+     * gave, and the newest snapshot seq (lockstep: world tick) the client
+     * still has, which the server sends changes against.
+     */
+    public static void writeJoin(ByteBuffer b, String room, long token, int baseline) {
+        byte[] name = roomName(room);
+        int s = begin(b, MessageType.JOIN); putVar(b, PROTOCOL_VERSION); putVar(b, name.length); b.put(name);
+        b.putLong(token); putVar(b, baseline);
+        end(b, s);
+    }
+    /**
+     * WELCOME: id, version, UDP token (also the key to resume with), then what
+     * the client must simulate with (tick length, map size, room seed), u8
+     * flags (1 = lockstep room, 2 = resumed session) and the resume window in ms.
+     */
+    public static void writeWelcome(ByteBuffer b, int id, long token, int tickMs, int worldW, int worldH,
+                                    long seed, boolean lockstep, boolean resumed, int resumeMs) {
+        int s = begin(b, MessageType.WELCOME);
+        putVar(b, id); putVar(b, PROTOCOL_VERSION); b.putLong(token);
+        putVar(b, tickMs); putVar(b, worldW); putVar(b, worldH);
+        b.putLong(seed); b.put((byte) ((lockstep ? 1 : 0) | (resumed ? 2 : 0)));
+        putVar(b, resumeMs);
+        end(b, s);
+    }
+    /** JOINED, LEAVE and ENDEAD carry only an id. */
+    public static void writeId(ByteBuffer b, MessageType t, int id) {
+        int s = begin(b, t); putVar(b, id); end(b, s);
+    }
+    /** SHOT: shooter, origin, velocity, and the snapshot seq the shooter was looking at (for rewind). */
+    public static void writeShot(ByteBuffer b, int id, float x, float y, float vx, float vy, int viewSeq) {
+        int s = begin(b, MessageType.SHOT);
+        putVar(b, id); putPos(b, x); putPos(b, y); putPos(b, vx); putPos(b, vy); putVar(b, viewSeq);
+        end(b, s);
+    }
+    /** ENSPAWN and ENPOS share a layout: id, x, y, hp. */
+    public static void writeEnemy(ByteBuffer b, MessageType t, int id, float x, float y, int hp) {
+        int s = begin(b, t); putVar(b, id); putPos(b, x); putPos(b, y); putVar(b, Math.max(0, hp)); end(b, s);
+    }
+    /** SNAP: seq, baseline seq (0 = full), then {@code cur} delta-encoded against {@code base}. */
+    public static void writeSnapshot(ByteBuffer b, Snapshot cur, Snapshot base) {
+        int s = begin(b, MessageType.SNAP);
+        putVar(b, cur.seq); putVar(b, base != null ? base.seq : 0);
+        cur.writeDelta(b, base);
+        end(b, s);
+    }
+    public static void writeAck(ByteBuffer b, int seq) {
+        int s = begin(b, MessageType.ACK); putVar(b, seq); end(b, s);
+    }
+    /** INPUT: seq of the newest input, then {@code n} button bytes from {@code buttons}, oldest first. */
+    public static void writeInput(ByteBuffer b, int newestSeq, int[] buttons, int n) {
+        int s = begin(b, MessageType.INPUT);
+        putVar(b, newestSeq); putVar(b, n);
+        for (int i = 0; i < n; i++) b.put((byte) buttons[i]);
+        end(b, s);
+    }
+    /** PING and PONG: an opaque i64 the other side echoes back (the client's {@code System.nanoTime()}). */
+    public static void writeTime(ByteBuffer b, MessageType t, long time) {
+        int s = begin(b, t); b.putLong(time); end(b, s);
+    }
+    /**
+     * LSTEP: tick, player count, then per player id, seq of its newest input
+     * and the buttons applied this tick (count + one byte each); then u8 1 and
+     * the i64 world checksum after the step, or u8 0.
+     */
+    public static void writeStep(ByteBuffer b, LockstepWorld.Inputs in, boolean withChecksum, long checksum) {
+        int s = begin(b, MessageType.LSTEP);
+        putVar(b, in.tick); putVar(b, in.count);
+        for (int k = 0; k < in.count; k++) {
+            putVar(b, in.ids[k]); putVar(b, in.lastSeq[k]); putVar(b, in.counts[k]);
+            for (int j = in.offset[k], e = j + in.counts[k]; j < e; j++) b.put((byte) in.buttons[j]);
+        }
+        if (withChecksum) b.put((byte) 1).putLong(checksum);
+        else b.put((byte) 0);
+        end(b, s);
+    }
+    /**
+     * LSTATE: one chunk of the deflated world ({@link LockstepWorld#write}):
+     * u8 flags ({@link #WORLD_FIRST}, {@link #WORLD_LAST}), the raw size as a
+     * varint in the first chunk, then up to {@code max} bytes of {@code d}'s
+     * output ({@code d} holds the whole world and has been told to finish).
+     * @return true if this was the last chunk
+     */
+    public static boolean writeWorldChunk(ByteBuffer b, Deflater d, int rawBytes, boolean first, int max) {
+        int s = begin(b, MessageType.LSTATE);
+        int flags = b.position();
+        b.put((byte) 0);
+        if (first) putVar(b, rawBytes);
+        int n = d.deflate(b.array(), b.arrayOffset() + b.position(), Math.min(max, b.remaining()));
+        b.position(b.position() + n);
+        boolean last = d.finished();
+        b.put(flags, (byte) ((first ? WORLD_FIRST : 0) | (last ? WORLD_LAST : 0)));
+        end(b, s);
+        return last;
+    }
+    /** RESYNC: no payload; asks for a fresh LSTATE after a checksum mismatch. */
+    public static void writeResync(ByteBuffer b) {
+        int s = begin(b, MessageType.RESYNC); end(b, s);
+    }
+    public static void writeEnHp(ByteBuffer b, int id, int hp) {
+        int s = begin(b, MessageType.ENHP); putVar(b, id); putVar(b, Math.max(0, hp)); end(b, s);
     }
 
-    public String toLine() {
-        var sb = new StringBuilder(type.name());
-        for (var a : args) sb.append('|').append(a);
-        return sb.toString();
+    private static int begin(ByteBuffer b, MessageType t) {
+        int s = b.position();
+        b.position(s + 2);
+        b.put((byte) t.code);
+        return s;
+    }
+    private static void end(ByteBuffer b, int start) {
+        int len = b.position() - start - 2;
+        if (len > 0xFFFF) throw new IllegalStateException("frame too large: " + len);
+        b.putShort(start, (short) len);
+    }
+
+    // ---------- DECODE ----------
+    /**
+     * Decodes one frame body (opcode + payload) of {@code len} bytes starting at
+     * the buffer's position. The position always ends up after the frame, so
+     * trailing fields added by newer peers are skipped.
+     * @return false if the opcode is unknown or the payload is truncated.
+     */
+    public boolean read(ByteBuffer b, int len) {
+        int end = b.position() + len;
+        try {
+            type = MessageType.fromCode(b.get() & 0xFF);
+            if (type == null) return false;
+            switch (type) {
+                case JOIN:
+                    value = getVar(b);
+                    room = "";
+                    if (b.position() < end) {   // older clients stop after the version
+                        int n = getVar(b);
+                        if (n < 0 || n > MAX_ROOM_NAME || n > end - b.position()) return false;
+                        var name = new byte[n];
+                        b.get(name);
+                        room = new String(name, StandardCharsets.UTF_8);
+                    }
+                    token = 0; id = 0;
+                    if (b.position() < end) { token = b.getLong(); id = getVar(b); }   // resume
+                    break;
+                case WELCOME:
+                    id = getVar(b); value = getVar(b); token = b.getLong();
+                    tickMs = getVar(b); worldW = getVar(b); worldH = getVar(b);
+                    seed = b.getLong();
+                    int flags = b.get();
+                    lockstep = (flags & 1) != 0; resumed = (flags & 2) != 0;
+                    resumeMs = getVar(b);
+                    break;
+                case JOINED: case LEAVE: case ENDEAD: id = getVar(b); break;
+                case POS:     id = getVar(b); x = getPos(b); y = getPos(b); break;
+                case SHOT:    id = getVar(b); x = getPos(b); y = getPos(b); vx = getPos(b); vy = getPos(b); value = getVar(b); break;
+                case HIT:     id = getVar(b); value = getVar(b); by = getVar(b); break;
+                case ENSPAWN: case ENPOS:
+                    id = getVar(b); x = getPos(b); y = getPos(b); value = getVar(b); break;
+                case ENHP:    id = getVar(b); value = getVar(b); break;
+                case SNAP:    id = getVar(b); value = getVar(b); body = b; bodyPos = b.position(); bodyEnd = end; break;
+                case ACK:     id = getVar(b); break;
+                case PING: case PONG: time = b.getLong(); break;
+                case LSTEP: if (!readStep(b, end)) return false; break;
+                case LSTATE:
+                    value = b.get() & 0xFF;
+                    id = (value & WORLD_FIRST) != 0 ? getVar(b) : 0;
+                    body = b; bodyPos = b.position(); bodyEnd = end;
+                    break;
+                case RESYNC:  break;
+                case INPUT:
+                    id = getVar(b); value = getVar(b);
+                    if (value < 0 || value > MAX_INPUTS) return false;
+                    for (int i = 0; i < value; i++) inputs[i] = b.get() & 0xFF;
+                    break;
+            }
+            return b.position() <= end;
+        } catch (BufferUnderflowException e) {
+            return false;
+        } finally {
+            b.position(Math.min(end, b.limit()));
+        }
+    }
+
+    private boolean readStep(ByteBuffer b, int end) {
+        if (step == null) step = new LockstepWorld.Inputs();
+        step.clear(getVar(b));
+        int n = getVar(b);
+        if (n < 0 || n > end - b.position()) return false;
+        for (int k = 0; k < n; k++) {
+            step.begin(getVar(b));
+            int seq = getVar(b), count = getVar(b);
+            if (count < 0 || count > end - b.position()) return false;
+            for (int j = 0; j < count; j++) step.button(b.get() & 0xFF);
+            step.end(seq);
+        }
+        hasChecksum = b.get() != 0;
+        if (hasChecksum) checksum = b.getLong();
+        return step.sorted();
+    }
+
+    /**
+     * LSTATE: decodes the world carried by this message (allocates it). Only
+     * valid once {@link NetClient} has put the chunks back together: it
+     * dispatches LSTATE once per world, with the inflated bytes as the body.
+     * @return null if the payload is not a valid world
+     */
+    public LockstepWorld readWorld() {
+        if (type != MessageType.LSTATE || body == null) return null;
+        var b = body.duplicate();
+        b.position(bodyPos).limit(bodyEnd);
+        try {
+            return LockstepWorld.read(b);
+        } catch (RuntimeException e) {   // BufferUnderflowException / IllegalArgumentException
+            return null;
+        }
     }
 
-    public static NetMessage parse(String line) {
-        var parts = line.split("\\|", -1);
-        var t = MessageType.valueOf(parts[0]);
-        var rest = new String[Math.max(0, parts.length - 1)];
-        System.arraycopy(parts, 1, rest, 0, rest.length);
-        return new NetMessage(t, rest);
+    @Override public String toString() {
+        return type + "{id=" + id + ", value=" + value + ", by=" + by
+                + ", x=" + x + ", y=" + y + ", vx=" + vx + ", vy=" + vy + "}";
     }
+
+    // ---------- PRIMITIVES ----------
+    static void putVar(ByteBuffer b, int v) {
+        while ((v & ~0x7F) != 0) { b.put((byte) ((v & 0x7F) | 0x80)); v >>>= 7; }
+        b.put((byte) v);
+    }
+    static int getVar(ByteBuffer b) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int k = b.get();
+            v |= (k & 0x7F) << shift;
+            if (k >= 0) return v;
+        }
+        throw new BufferUnderflowException(); // > 5 bytes: corrupt
+    }
+    static void putSVar(ByteBuffer b, int v) { putVar(b, (v << 1) ^ (v >> 31)); }
+    static int getSVar(ByteBuffer b) { int v = getVar(b); return (v >>> 1) ^ -(v & 1); }
+
+    static void putPos(ByteBuffer b, float v) { putSVar(b, quantize(v)); }
+    static float getPos(ByteBuffer b) { return dequantize(getSVar(b)); }
+
+    /** UTF-8 of {@code room}, trimmed and shortened to fit {@link #MAX_ROOM_NAME} bytes (null = default room). */
+    public static byte[] roomName(String room) {
+        String r = room == null ? "" : room.trim();
+        byte[] n = r.getBytes(StandardCharsets.UTF_8);
+        while (n.length > MAX_ROOM_NAME) {
+            r = r.substring(0, r.length() - 1);   // bớt theo ký tự, không cắt giữa chuỗi UTF-8
+            n = r.getBytes(StandardCharsets.UTF_8);
+        }
+        return n;
+    }
+
+    /** Position/velocity in wire units (1/{@value #POS_SCALE} px), as stored in {@link Snapshot}. */
+    public static int quantize(float v) { return Math.round(v * POS_SCALE); }
+    public static float dequantize(int q) { return q / POS_SCALE; }
 }
@@ -1,174 +1,349 @@
 package com.cbl.game.net;
 
-import java.io.*;
-import java.net.*;
-import java.util.*;
-import java.util.concurrent.*;
-import java.awt.Point;
+import com.cbl.game.config.GameConfig;
+import com.cbl.game.config.ServerConfig;
+import com.cbl.game.sim.PlayerMotion;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Host-authoritative server:
  * - Spawns enemies periodically, moves them toward nearest player.
  * - Broadcasts enemy spawn/pos/hp/death to all clients.
- * - Accepts POS/SHOT from clients and HIT (enemy damage).
+ * - Moves players itself from their numbered INPUTs (same {@link PlayerMotion}
+ *   the client predicts with) and echoes the last input applied in each
+ *   snapshot, so the client can reconcile. Contact damage is decided here too.
+ * - Accepts SHOT from clients. Bullets live on the server ({@link Projectiles}):
+ *   SHOT only spawns one, and hits are checked against enemies rewound to what
+ *   the shooter was seeing, so clients just get the resulting ENHP/ENDEAD.
+ * - Speaks the binary {@link NetMessage} protocol; JOIN must carry our version.
+ *   PING is answered with PONG straight from the IO thread.
+ * - Socket I/O runs on a fixed set of non-blocking {@link IoLoop}s, so a slow
+ *   client can never stall the tick; it is dropped when its buffer fills.
+ * - Everything that happens in a tick goes out as one frame per client:
+ *   reliable events (spawn/hp/death/join/shot) plus a {@link Snapshot} of
+ *   positions, delta-encoded against the last snapshot that client acked.
+ * - Snapshots and INPUT/ACK move to a UDP side channel on the same port once
+ *   the client proves it works both ways; join/leave/spawn/death/hp stay on TCP.
+ * - Each client only sees entities, shots and spawns within its {@link Interest}
+ *   radius; entities entering/leaving appear as rows added/removed in its delta.
+ * - One writer: IO threads only decode and push typed commands into a
+ *   lock-free {@link CommandRing}; the tick drains it at the start of each
+ *   tick and is the only code that touches world state, so commands apply in
+ *   arrival order and nothing on the hot path takes a lock.
+ * - World state is primitive: enemies are columns of an {@code EntityStore},
+ *   clients a copy-on-write array with an int-keyed index, players are moved
+ *   in place. A steady tick allocates nothing (see {@link RoomStats}).
+ * - Many sessions per process: JOIN names a {@link Room}, which owns all of the
+ *   above and its own tick. Rooms are spread over {@code simThreads}
+ *   {@link SimShard}s and moved between them to keep the tick work even
+ *   ({@link RoomManager}); {@link #roomStats()} reports tick times per room.
+ * - Drops are survivable: the room keeps a dropped player for {@code resumeMs},
+ *   and a JOIN carrying the token of that session takes the same id and player
+ *   back, without LEAVE/JOINED, and gets only what changed since the baseline
+ *   it still holds. A client that sends LEAVE first is removed at once.
+ * - Instrumented: tick and jitter histograms, traffic and parse-error counters
+ *   ({@link ServerMetrics}), readable over JMX and, with {@code metricsPort},
+ *   as text on {@code http://127.0.0.1:<metricsPort>/metrics}.
  */
-public final class NetServer {
+public final class NetServer implements IoLoop.Handler {
+    private final ServerConfig cfg;
     private final int port;
-    private ServerSocket server;
-    private final ExecutorService pool = Executors.newCachedThreadPool();
-    private final ScheduledExecutorService tick = Executors.newSingleThreadScheduledExecutor();
+    private final IoLoop[] loops;
+    private ServerSocketChannel server;
+    private DatagramChannel udp;
+    private final ByteBuffer udpIn  = ByteBuffer.allocate(GameConfig.UDP_MAX_PACKET);        // loop 0 only
+    private final ByteBuffer udpOut = ByteBuffer.allocateDirect(NetMessage.UDP_SERVER_HEADER); // loop 0 only: hello replies
+    private final NetMessage udpMsg = new NetMessage();
+    private final java.security.SecureRandom tokens = new java.security.SecureRandom();
 
-    private final Map<Integer, Client> clients = new ConcurrentHashMap<>();
-    private final Map<Integer, Point> playerPos = new ConcurrentHashMap<>();
-    private final Map<Integer, Enemy> enemies = new ConcurrentHashMap<>();
+    private final BufferPool buffers = new BufferPool(NetMessage.MAX_FRAME, 64);
+    private final RoomManager rooms;
+    private final ServerMetrics metrics;
+    private ObjectName mbeanName;
+    private MetricsHttp metricsHttp;
+    private volatile Roster clients = Roster.EMPTY;   // handshaken, any room, for UDP lookups; replaced under this
+    private final Map<Long, Parked> resumable = new HashMap<>();   // by session token; guarded by itself; the room decides expiry
 
     private volatile boolean running = false;
-    private int nextClientId = 1;
-    private int nextEnemyId  = 1;
+    private final AtomicInteger nextClientId = new AtomicInteger(1);
 
-    private static final class Enemy {
-        int id; float x, y; int hp = 50;
-        Enemy(int id, float x, float y) { this.id = id; this.x = x; this.y = y; }
-    }
-    private static final class Client {
-        final int id; final Socket socket; volatile PrintWriter out;
-        Client(int id, Socket socket) { this.id = id; this.socket = socket; }
-    }
+    /** Listen-server defaults ({@link GameConfig}) on {@code port}. */
+    public NetServer(int port) { this(ServerConfig.defaults(port)); }
 
-    public NetServer(int port) { this.port = port; }
+    /** Connections are sharded across {@code cfg.ioThreads} selector loops, rooms across {@code cfg.simThreads}. */
+    public NetServer(ServerConfig cfg) {
+        this.cfg = cfg;
+        this.port = cfg.port;
+        this.loops = new IoLoop[cfg.ioThreads];
+        this.rooms = new RoomManager(cfg, buffers);
+        this.metrics = new ServerMetrics(rooms);
+    }
 
-    public void startAsync() {
-        if (running) return;
+    /** Binds and starts the IO loops and the simulation shards. @return false if the port could not be bound. */
+    public boolean startAsync() {
+        if (running) return true;
+        try {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+            udp = DatagramChannel.open();
+            udp.bind(new InetSocketAddress(port));
+            // selectors only once both ports are ours
+            for (int i = 0; i < loops.length; i++) loops[i] = new IoLoop("net-io-" + i, this);
+            loops[0].listen(server);
+            loops[0].listen(udp);
+        } catch (IOException e) {
+            System.err.println("[Server] bind error: " + e);
+            // không để rò rỉ gì: lobby có thể thử host lại nhiều lần
+            for (int i = 0; i < loops.length; i++) {
+                if (loops[i] != null) loops[i].close();
+                loops[i] = null;
+            }
+            try { if (udp != null) udp.close(); } catch (IOException ignored) {}
+            try { if (server != null) server.close(); } catch (IOException ignored) {}
+            udp = null;
+            server = null;
+            return false;
+        }
         running = true;
-        pool.submit(this::acceptLoop);
-        // game tick ~20Hz
-        tick.scheduleAtFixedRate(this::serverStep, 50, 50, TimeUnit.MILLISECONDS);
-        // spawn enemy mỗi 3s
-        tick.scheduleAtFixedRate(this::spawnEnemy, 0, 3, TimeUnit.SECONDS);
-        System.out.println("[Server] Listening on " + port);
+        for (IoLoop l : loops) l.start();
+        // các shard mô phỏng: chỉ chúng thay đổi world của phòng
+        rooms.start(udp);
+        System.out.println("[Server] Listening on " + port + " (" + loops.length + " io loop(s), "
+                + rooms.shardCount() + " sim thread(s), " + cfg.tickRate + " Hz)");
+        startMetrics();
+        return true;
+    }
+
+    /** JMX always; the text endpoint if configured. Failing either only costs the metrics. */
+    private void startMetrics() {
+        try {
+            mbeanName = new ObjectName("com.cbl.game:type=Server,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, mbeanName);
+        } catch (JMException e) {
+            mbeanName = null;
+            System.err.println("[Server] JMX registration failed: " + e);
+        }
+        if (cfg.metricsPort == 0) return;
+        try {
+            metricsHttp = new MetricsHttp(cfg.metricsPort, metrics);
+            System.out.println("[Server] Metrics on http://127.0.0.1:" + cfg.metricsPort + "/metrics");
+        } catch (IOException e) {
+            System.err.println("[Server] metrics endpoint error: " + e);
+        }
     }
 
+    /**
+     * Stops accepting, lets the running ticks finish (their frames still go
+     * out), then closes every connection and waits for the IO loops to exit.
+     */
     public void stop() {
+        if (!running) return;
         running = false;
         try { if (server != null) server.close(); } catch (IOException ignored) {}
-        tick.shutdownNow();
-        pool.shutdownNow();
-    }
-
-    private void acceptLoop() {
-        try (ServerSocket ss = new ServerSocket(port)) {
-            this.server = ss;
-            while (running) {
-                Socket s = ss.accept();
-                int id = nextClientId++;
-                Client c = new Client(id, s);
-                clients.put(id, c);
-                pool.submit(() -> handle(c));
-            }
-        } catch (IOException e) {
-            if (running) System.err.println("[Server] acceptLoop error: " + e);
+        try {
+            rooms.stop();
+            for (IoLoop l : loops) if (l != null) l.stop();
+            for (IoLoop l : loops) if (l != null) l.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try { if (udp != null) udp.close(); } catch (IOException ignored) {}
+        if (metricsHttp != null) metricsHttp.stop();
+        if (mbeanName != null) {
+            try { ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName); } catch (JMException ignored) {}
         }
+        long ticks = 0;
+        for (Room r : rooms.rooms()) ticks += r.ticks();
+        System.out.println("[Server] Stopped (" + rooms.roomCount() + " room(s), " + ticks + " ticks)");
     }
 
-    private void handle(Client c) {
-        try (c.socket;
-             BufferedReader in = new BufferedReader(new InputStreamReader(c.socket.getInputStream()));
-             PrintWriter out = new PrintWriter(new OutputStreamWriter(c.socket.getOutputStream()), true)) {
+    public ServerConfig config() { return cfg; }
+    public boolean isRunning() { return running; }
 
-            c.out = out;
+    // ---------- IO LOOP CALLBACKS (chạy trên thread net-io-*) ----------
+    @Override public void onAccept(SocketChannel ch) throws IOException {
+        ch.configureBlocking(false);
+        ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        int id = nextClientId.getAndIncrement();
+        var loop = loops[id % loops.length];
+        var c = new Connection(id, tokens.nextLong(), ch, loop);
+        metrics.opened(c);
+        loop.register(c);
+    }
 
-            // Gửi id + toàn bộ enemy hiện có cho client mới
-            out.println("WELCOME|" + c.id);
-            for (Enemy e : enemies.values()) {
-                out.println("ENSPAWN|" + e.id + "|" + (int)e.x + "|" + (int)e.y + "|" + e.hp);
+    /** IO thread: decode only; everything is applied by the room's tick (see {@link Room}). */
+    @Override public void onMessage(Connection c, NetMessage msg) {
+        if (!c.handshaken) {
+            // Handshake: frame đầu tiên phải là JOIN cùng protocol version
+            if (msg.type != MessageType.JOIN || msg.value != NetMessage.PROTOCOL_VERSION) {
+                System.out.println("[Server] Client " + c.id + " rejected: protocol mismatch");
+                c.drop();
+                return;
             }
-            broadcast("JOINED|" + c.id);
-
-            String line;
-            while ((line = in.readLine()) != null) {
-                // Cập nhật vị trí người chơi
-                if (line.startsWith("POS|")) {
-                    String[] p = line.split("\\|");
-                    int pid = Integer.parseInt(p[1]);
-                    int px = Integer.parseInt(p[2]);
-                    int py = Integer.parseInt(p[3]);
-                    playerPos.put(pid, new Point(px, py));
-                    broadcast(line); // vẫn phát cho tất cả
-                } else if (line.startsWith("SHOT|")) {
-                    broadcast(line);
-                } else if (line.startsWith("HIT|")) {
-                    // HIT|enemyId|dmg|byPlayerId
-                    String[] p = line.split("\\|");
-                    int eid = Integer.parseInt(p[1]);
-                    int dmg = Integer.parseInt(p[2]);
-                    Enemy e = enemies.get(eid);
-                    if (e != null) {
-                        e.hp -= dmg;
-                        if (e.hp <= 0) {
-                            enemies.remove(eid);
-                            broadcast("ENDEAD|" + eid);
-                        } else {
-                            broadcast("ENHP|" + eid + "|" + e.hp);
-                        }
-                    }
-                }
+            Room r = rooms.join(msg.room);
+            if (r == null) {
+                System.out.println("[Server] Client " + c.id + " rejected: room limit (" + cfg.maxRooms + ") reached");
+                c.drop();
+                return;
             }
-        } catch (IOException ignore) {
-        } finally {
-            clients.remove(c.id);
-            playerPos.remove(c.id);
-            broadcast("LEAVE|" + c.id);
-            System.out.println("[Server] Client " + c.id + " disconnected");
+            if (msg.token != 0) resume(c, r, msg.token, msg.id);
+            c.room = r;
+            c.handshaken = true;
+            setClients(c, true);
+            r.commands.join(c);
+            return;
+        }
+        var commands = c.room.commands;
+        switch (msg.type) {
+            case INPUT: commands.input(c, msg); break;
+            case SHOT:  commands.shot(c, msg); break;
+            case ACK:   commands.ack(c, msg.id); break;
+            case RESYNC: commands.resync(c); break;
+            case LEAVE: c.quit = true; break;   // cố ý thoát: không giữ chỗ
+            case PING: {
+                // trả lời ngay trên thread IO: RTT đo mạng, không đo tick
+                var b = buffers.acquire();
+                NetMessage.writeTime(b, MessageType.PONG, msg.time);
+                c.enqueue(b);
+                buffers.release(b);
+                break;
+            }
+            default: break;
         }
     }
 
-    private void serverStep() {
-        // Move each enemy toward nearest player
-        if (playerPos.isEmpty()) return;
-        for (Enemy e : enemies.values()) {
-            Point target = nearestPlayer(e.x, e.y);
-            if (target == null) continue;
-            float dx = target.x - e.x, dy = target.y - e.y;
-            float len = (float)Math.hypot(dx, dy);
-            if (len > 1e-3) {
-                float speed = 100f; // px/s
-                float dt = 0.05f;   // 50 ms tick
-                e.x += (dx/len) * speed * dt;
-                e.y += (dy/len) * speed * dt;
+    @Override public void onClose(Connection c) {
+        if (c.handshaken) {
+            c.room.commands.leave(c);
+            rooms.leave(c.room);
+            setClients(c, false);
+        }
+        metrics.closed(c);
+        boolean kept = c.handshaken && c.joined && !c.quit && cfg.resumeMs > 0;
+        if (kept) {
+            synchronized (resumable) {
+                resumable.values().removeIf(p -> p.session.removed);   // phòng đã cho ra khỏi phòng
+                resumable.put(c.token, new Parked(c));
             }
-            broadcast("ENPOS|" + e.id + "|" + (int)e.x + "|" + (int)e.y + "|" + e.hp);
         }
+        System.out.println("[Server] Client " + c.id + " disconnected (" + c.stats() + ")"
+                + (kept ? ", slot kept " + cfg.resumeMs + " ms" : ""));
     }
 
-    private Point nearestPlayer(float x, float y) {
-        Point best = null;
-        double bestD = Double.MAX_VALUE;
-        for (Point p : playerPos.values()) {
-            double d = p.distance(x, y);
-            if (d < bestD) { bestD = d; best = p; }
-        }
-        return best;
+    /**
+     * IO thread, at handshake, before {@code c} is in any roster or room: if
+     * {@code token} is a session dropped from room {@code r} that the room
+     * still keeps, {@code c} takes over its id, and the room's tick hands it
+     * the parked player. Only the room's tick count decides when the window
+     * ends; should it run out before the JOIN is applied, {@code c} simply
+     * joins as new. Otherwise {@code c} keeps its own id.
+     */
+    private void resume(Connection c, Room r, long token, int baseline) {
+        Parked p;
+        synchronized (resumable) { p = resumable.remove(token); }
+        if (p == null || p.session.room != r || p.session.removed) return;
+        int was = c.id;
+        System.out.println("[Server] Client " + was + " resumes session of client " + p.session.id);
+        c.id = p.session.id;
+        c.resumeBase = baseline;
+        metrics.rekeyed(c, was);
     }
 
-    private void spawnEnemy() {
-        // Spawn ở rìa màn hình 960x540 (gần đúng), bạn chỉnh theo kích thước thật nếu khác
-        int w = 960, h = 540;
-        int side = ThreadLocalRandom.current().nextInt(4);
-        int x = 0, y = 0;
-        switch (side) {
-            case 0: x = 0;           y = ThreadLocalRandom.current().nextInt(h); break;     // trái
-            case 1: x = w - 32;      y = ThreadLocalRandom.current().nextInt(h); break;     // phải
-            case 2: x = ThreadLocalRandom.current().nextInt(w); y = 0; break;               // trên
-            case 3: x = ThreadLocalRandom.current().nextInt(w); y = h - 32; break;          // dưới
-        }
-        Enemy e = new Enemy(nextEnemyId++, x, y);
-        enemies.put(e.id, e);
-        broadcast("ENSPAWN|" + e.id + "|" + x + "|" + y + "|" + e.hp);
+    /** A dropped session that may still be resumed, as long as its room has not removed it. */
+    private static final class Parked {
+        final Connection session;
+
+        Parked(Connection session) { this.session = session; }
     }
 
-    private void broadcast(String msg) {
-        for (Client cl : clients.values()) {
-            try { if (cl.out != null) cl.out.println(msg); } catch (Exception ignored) {}
+    private synchronized void setClients(Connection c, boolean add) {
+        clients = add ? clients.with(c) : clients.without(c);
+    }
+
+    /**
+     * Datagram layout: i32 id, i64 token, i32 seq, then frames (INPUT/ACK only).
+     * An empty payload is a hello: we answer with an empty datagram so the
+     * client knows UDP works both ways. Snapshots switch to UDP once the
+     * client starts sending real frames over it.
+     */
+    @Override public void onDatagram(DatagramChannel ch) throws IOException {
+        SocketAddress from;
+        while ((from = ch.receive(udpIn.clear())) != null) {
+            udpIn.flip();
+            if (udpIn.remaining() < NetMessage.UDP_CLIENT_HEADER) { metrics.badDatagrams++; continue; }
+            Connection c = clients.get(udpIn.getInt());
+            if (c == null || !c.joined || c.token != udpIn.getLong()) { metrics.badDatagrams++; continue; }
+            int seq = udpIn.getInt();
+            if (seq - c.udpInSeq <= 0) { metrics.staleDatagrams++; continue; } // cũ hơn gói đã nhận: bỏ
+            c.udpInSeq = seq;
+            c.udpAddr = from;
+            c.udpBytesIn += udpIn.limit();
+            if (!udpIn.hasRemaining()) {
+                c.sendDatagram(udp, udpOut, 0);
+                continue;
+            }
+            if (!c.udpActive) {
+                c.udpActive = true;
+                System.out.println("[Server] Client " + c.id + " snapshots via UDP " + from);
+            }
+            while (udpIn.remaining() >= 2) {
+                int len = udpIn.getShort() & 0xFFFF;
+                if (len == 0 || len > udpIn.remaining()) { c.udpParseErrors++; break; }
+                int end = udpIn.position() + len;
+                if (!udpMsg.read(udpIn, len)) c.udpParseErrors++;
+                else if (udpMsg.type == MessageType.INPUT || udpMsg.type == MessageType.ACK) {
+                    c.udpMessagesIn++;
+                    onMessage(c, udpMsg);
+                }
+                udpIn.position(end);
+            }
         }
     }
+
+    // ---------- METRICS (any thread) ----------
+    /** Tick time, load, allocation and command queue of every open room, by name. */
+    public List<RoomStats> roomStats() {
+        var list = new ArrayList<RoomStats>();
+        for (Room r : rooms.rooms()) list.add(new RoomStats(r));
+        list.sort(Comparator.comparing(s -> s.name));
+        return list;
+    }
+
+    public int roomCount() { return rooms.roomCount(); }
+
+    /** Server-wide histograms and counters (also on JMX and, if configured, {@code /metrics}). */
+    public ServerMetrics metrics() { return metrics; }
+
+    /**
+     * Starts a new interval for every room's max tick time, overruns, late ticks
+     * and allocation stats in {@link #roomStats()}, e.g. between load-test stages.
+     * Each room resets on its next tick; the totals in {@link #metrics()} keep counting.
+     */
+    public void resetRoomStats() {
+        for (Room r : rooms.rooms()) r.requestStatsReset();
+    }
+
+    /** Share of a core each simulation thread spends ticking its rooms (1.0 = fully busy). */
+    public double[] shardLoads() {
+        var l = new double[rooms.shardCount()];
+        for (int i = 0; i < l.length; i++) l[i] = rooms.shard(i).load();
+        return l;
+    }
 }
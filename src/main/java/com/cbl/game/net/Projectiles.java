@@ -0,0 +1,141 @@
+package com.cbl.game.net;
+
+import com.cbl.game.config.GameConfig;
+import com.cbl.game.core.spatial.SpatialHash;
+
+import java.util.Arrays;
+
+/**
+ * Server-owned bullets as parallel arrays. Each bullet remembers how many
+ * ticks behind the server its shooter was looking ({@code rewind}), and every
+ * tick its path is swept against enemy positions from that far back in the
+ * snapshot history, so what the shooter saw is what gets hit.
+ * <p>
+ * Tick thread only: {@link #spawn} queues while the tick drains commands,
+ * {@link #step} then launches the queued bullets.
+ */
+final class Projectiles {
+    /** Called per hit; return true if the bullet is used up. */
+    interface HitSink { boolean hit(int enemyId, int ownerId); }
+
+    private static final float HIT_R = GameConfig.BULLET_HIT_RADIUS;
+
+    private int count;
+    private int[] owner = new int[64], rewind = new int[64], life = new int[64];
+    private float[] x = new float[64], y = new float[64], vx = new float[64], vy = new float[64];
+
+    // spawn queue, drained at the start of each step
+    private final int[] pending = new int[GameConfig.MAX_PENDING_SHOTS * 2];       // owner, view seq
+    private final float[] pendingPos = new float[GameConfig.MAX_PENDING_SHOTS * 4]; // x, y, vx, vy
+    private int pendingCount;
+
+    private int[] candidates = new int[64];
+    private final int tickMs;
+
+    /** @param tickMs length of one server tick (one step of rewind) */
+    Projectiles(int tickMs) { this.tickMs = tickMs; }
+
+    int size() { return count; }
+
+    /**
+     * Queues a bullet fired while the shooter was looking at snapshot {@code viewSeq}
+     * (0 = unknown, no rewind). @return false if the queue is full this tick (shot dropped).
+     */
+    boolean spawn(int ownerId, float px, float py, float pvx, float pvy, int viewSeq) {
+        if (pendingCount == GameConfig.MAX_PENDING_SHOTS) return false;
+        int n = pendingCount++;
+        pending[n * 2] = ownerId; pending[n * 2 + 1] = viewSeq;
+        pendingPos[n * 4] = px; pendingPos[n * 4 + 1] = py;
+        pendingPos[n * 4 + 2] = pvx; pendingPos[n * 4 + 3] = pvy;
+        return true;
+    }
+
+    /**
+     * Advances every bullet by {@code dt} and resolves hits.
+     * @param seq       the snapshot seq being built this tick (positions "now")
+     * @param history   past world snapshots for rewinding
+     * @param enemyGrid current enemy positions (candidates only)
+     */
+    void step(float dt, int seq, Snapshot.History history, SpatialHash enemyGrid, HitSink sink) {
+        drainPending(seq);
+        int lifeStep = Math.round(dt * 1000);
+        for (int i = 0; i < count; ) {
+            float x0 = x[i], y0 = y[i], x1 = x0 + vx[i] * dt, y1 = y0 + vy[i] * dt;
+            x[i] = x1; y[i] = y1;
+            life[i] -= lifeStep;
+            boolean consumed = sweep(i, x0, y0, x1, y1, seq, history, enemyGrid, sink);
+            if (consumed || life[i] <= 0) removeAt(i);
+            else i++;
+        }
+    }
+
+    private boolean sweep(int i, float x0, float y0, float x1, float y1, int seq,
+                          Snapshot.History history, SpatialHash enemyGrid, HitSink sink) {
+        int back = rewind[i];
+        Snapshot past = back > 0 ? history.get(seq - back) : null;
+        // enemies can have moved since then; widen the candidate query accordingly
+        float slack = back * tickMs / 1000f * GameConfig.ENEMY_SPEED;
+        float mx = (x0 + x1) * 0.5f, my = (y0 + y1) * 0.5f;
+        float dx = x1 - x0, dy = y1 - y0;
+        float reach = (float) Math.sqrt(dx * dx + dy * dy) * 0.5f + HIT_R + slack;
+        int n;
+        while ((n = enemyGrid.queryRadius(mx, my, reach, candidates)) == candidates.length) {
+            candidates = new int[candidates.length * 2];
+        }
+        int best = SpatialHash.NONE;
+        float bestT = Float.MAX_VALUE;
+        for (int k = 0; k < n; k++) {
+            int id = candidates[k];
+            float ex, ey;
+            if (past != null) {
+                int row = past.enemies.find(id);
+                if (row < 0) continue; // did not exist yet from the shooter's point of view
+                ex = NetMessage.dequantize(past.enemies.get(row, Snapshot.ENEMY_X));
+                ey = NetMessage.dequantize(past.enemies.get(row, Snapshot.ENEMY_Y));
+            } else {
+                ex = enemyGrid.x(id);
+                ey = enemyGrid.y(id);
+            }
+            float t = segmentHit(x0, y0, x1, y1, ex, ey);
+            if (t >= 0 && t < bestT) { bestT = t; best = id; }
+        }
+        return best != SpatialHash.NONE && sink.hit(best, owner[i]);
+    }
+
+    /** @return where along [0,1] the segment first comes within HIT_R of (cx, cy), or -1. */
+    private static float segmentHit(float x0, float y0, float x1, float y1, float cx, float cy) {
+        float dx = x1 - x0, dy = y1 - y0;
+        float len2 = dx * dx + dy * dy;
+        float t = len2 > 0 ? ((cx - x0) * dx + (cy - y0) * dy) / len2 : 0;
+        t = Math.max(0, Math.min(1, t));
+        float px = x0 + dx * t - cx, py = y0 + dy * t - cy;
+        return px * px + py * py <= HIT_R * HIT_R ? t : -1;
+    }
+
+    private void drainPending(int seq) {
+        for (int p = 0; p < pendingCount; p++) {
+            if (count == owner.length) grow();
+            owner[count] = pending[p * 2];
+            int view = pending[p * 2 + 1];
+            // the bullet lives that far in the past for its whole flight; never trust more than MAX_REWIND
+            rewind[count] = view <= 0 || view > seq ? 0 : Math.min(seq - view, GameConfig.MAX_REWIND_TICKS);
+            x[count] = pendingPos[p * 4]; y[count] = pendingPos[p * 4 + 1];
+            vx[count] = pendingPos[p * 4 + 2]; vy[count] = pendingPos[p * 4 + 3];
+            life[count] = GameConfig.BULLET_LIFETIME_MS;
+            count++;
+        }
+        pendingCount = 0;
+    }
+
+    private void removeAt(int i) {
+        int last = --count;
+        owner[i] = owner[last]; rewind[i] = rewind[last]; life[i] = life[last];
+        x[i] = x[last]; y[i] = y[last]; vx[i] = vx[last]; vy[i] = vy[last];
+    }
+
+    private void grow() {
+        int n = owner.length * 2;
+        owner = Arrays.copyOf(owner, n); rewind = Arrays.copyOf(rewind, n); life = Arrays.copyOf(life, n);
+        x = Arrays.copyOf(x, n); y = Arrays.copyOf(y, n); vx = Arrays.copyOf(vx, n); vy = Arrays.copyOf(vy, n);
+    }
+}
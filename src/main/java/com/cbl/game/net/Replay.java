@@ -0,0 +1,146 @@
+package com.cbl.game.net;
+
+import com.cbl.game.config.ServerConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link Journal} back into a fresh {@link Room} built from its
+ * header (same config, same seed), on this thread and without sockets:
+ * each recorded command is applied as the live tick applied it, each tick
+ * marker runs {@link Room#tick()}, and every recorded checksum is compared
+ * with the replayed room's. Useful to reproduce a session under a profiler
+ * or debugger, and to measure the tick on real traffic faster than real time.
+ * Exits with 1 if the replay diverged from the recording.
+ */
+public final class Replay {
+    static final String USAGE = String.join("\n",
+            "usage: cbl-replay FILE [--speed=N] [--repeat=N]",
+            "  --speed=N    N × real time, 0 = as fast as possible (default 0)",
+            "  --repeat=N   play the file N times, e.g. to let the JIT warm up (default 1)");
+
+    private final Path file;
+    private final double speed;
+    private Connection[] byId = new Connection[64];
+
+    private Replay(Path file, double speed) {
+        this.file = file;
+        this.speed = speed;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        Path file = null;
+        double speed = 0;
+        int repeat = 1;
+        try {
+            for (String a : args) {
+                if (a.startsWith("--speed=")) speed = Double.parseDouble(a.substring(8));
+                else if (a.startsWith("--repeat=")) repeat = Integer.parseInt(a.substring(9));
+                else if (!a.startsWith("--") && file == null) file = Path.of(a);
+                else throw new IllegalArgumentException("unknown argument: " + a);
+            }
+            if (file == null) throw new IllegalArgumentException("no journal file given");
+            if (speed < 0 || repeat < 1) throw new IllegalArgumentException("speed must be >= 0, repeat >= 1");
+        } catch (IllegalArgumentException e) {
+            System.err.println("[Replay] " + e.getMessage() + "\n" + USAGE);
+            System.exit(2);
+            return;
+        }
+
+        boolean ok = true;
+        try {
+            for (int i = 1; i <= repeat && ok; i++) {
+                if (repeat > 1) System.out.println("[Replay] run " + i + "/" + repeat);
+                ok = new Replay(file, speed).run();
+            }
+        } catch (IOException e) {
+            System.err.println("[Replay] " + e.getMessage());
+            System.exit(2);
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /** @return false if a recorded checksum did not match. */
+    private boolean run() throws IOException {
+        try (var in = new Journal.Reader(file)) {
+            if (in.protocol != NetMessage.PROTOCOL_VERSION) {
+                System.out.println("[Replay] recorded with protocol " + in.protocol + ", this build speaks "
+                        + NetMessage.PROTOCOL_VERSION + "; checksums may not match");
+            }
+            if (in.format < Journal.SQRT_FORMAT) {
+                System.out.println("[Replay] journal format " + in.format + " was recorded with Math.hypot lengths, this build uses"
+                        + " Math.sqrt; checksums may not match");
+            }
+            var cfg = new ServerConfig(0, 1000 / in.tickMs, 1, in.worldW, in.worldH, in.maxEnemies, in.enemySpawnMs,
+                    1, 1, 0, in.resumeMs, 0, 0, null, in.lockstep);
+            if (cfg.tickMs() != in.tickMs) throw new IOException("tick length " + in.tickMs + " ms cannot be expressed as a tick rate");
+            var loop = new IoLoop("replay-io", null);   // never started: only collects write requests
+            try {
+                var room = new Room(in.room, 0, cfg, null, new BufferPool(NetMessage.MAX_FRAME, 4), in.seed);
+                System.out.printf(Locale.ROOT, "[Replay] %s: %sroom '%s', %d ms ticks, %dx%d, seed %016x%n",
+                        file.getFileName(), in.lockstep ? "lockstep " : "", in.room, in.tickMs, in.worldW, in.worldH, in.seed);
+                return play(in, room, loop);
+            } finally {
+                loop.stop();
+            }
+        }
+    }
+
+    private boolean play(Journal.Reader in, Room room, IoLoop loop) {
+        long ticks = 0, checks = 0, commands = 0, start = System.nanoTime();
+        long nanosPerTick = speed > 0 ? (long) (in.tickMs * 1_000_000L / speed) : 0;
+        for (int kind; (kind = in.next()) != Journal.END; ) {
+            switch (kind) {
+                case Journal.JOIN:  room.applyJoin(connection(in.id, loop)); commands++; break;
+                case Journal.LEAVE: room.applyLeave(connection(in.id, loop), in.park); commands++; break;
+                case Journal.INPUT: room.applyInput(connection(in.id, loop), in.seq, in.inputs, 0, in.count); commands++; break;
+                case Journal.SHOT:  room.applyShot(connection(in.id, loop), in.x, in.y, in.vx, in.vy, in.seq); commands++; break;
+                case Journal.ACK:   room.applyAck(connection(in.id, loop), in.seq); commands++; break;
+                case Journal.TICK:
+                    if (nanosPerTick > 0) {
+                        long due = start + ticks * nanosPerTick;
+                        for (long wait; (wait = due - System.nanoTime()) > 0; ) LockSupport.parkNanos(wait);
+                    }
+                    room.tick();
+                    ticks++;
+                    for (Connection c : byId) if (c != null) c.discardOutput();
+                    break;
+                case Journal.CHECK:
+                    checks++;
+                    long sum = room.checksum();
+                    if (in.tick != ticks) {
+                        System.out.println("[Replay] DIVERGED: checksum for tick " + in.tick + " found after tick " + ticks);
+                        return false;
+                    }
+                    if (sum != in.checksum) {
+                        System.out.printf(Locale.ROOT, "[Replay] DIVERGED at tick %d (between ticks %d and %d): recorded %016x, replayed %016x%n",
+                                ticks, ticks - Room.CHECK_TICKS, ticks, in.checksum, sum);
+                        return false;
+                    }
+                    break;
+                default: break;
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        double recorded = ticks * in.tickMs / 1000.0;
+        System.out.printf(Locale.ROOT,
+                "[Replay] %d ticks (%.1f s of play), %d commands, %d checks OK in %.2f s: %.0f ticks/s, %.1fx real time%n",
+                ticks, recorded, commands, checks, secs, ticks / Math.max(secs, 1e-9), recorded / Math.max(secs, 1e-9));
+        System.out.printf(Locale.ROOT, "[Replay] tick us p50 %d p99 %d max %d; final checksum %016x%n",
+                room.tickMicros.percentile(50), room.tickMicros.percentile(99), room.tickMicros.max(), room.checksum());
+        return true;
+    }
+
+    /** The stand-in for recorded client {@code id}; output goes to an unstarted loop and is discarded every tick. */
+    private Connection connection(int id, IoLoop loop) {
+        if (id >= byId.length) byId = Arrays.copyOf(byId, Math.max(id + 1, byId.length * 2));
+        Connection c = byId[id];
+        if (c == null) byId[id] = c = new Connection(id, id, null, loop);
+        return c;
+    }
+}
@@ -0,0 +1,668 @@
+package com.cbl.game.net;
+
+import com.cbl.game.config.GameConfig;
+import com.cbl.game.config.ServerConfig;
+import com.cbl.game.core.collect.IntIntMap;
+import com.cbl.game.core.entity.EntityStore;
+import com.cbl.game.core.metrics.AllocationMeter;
+import com.cbl.game.core.metrics.Histogram;
+import com.cbl.game.core.metrics.TickTimer;
+import com.cbl.game.core.spatial.SpatialHash;
+import com.cbl.game.sim.DetRandom;
+import com.cbl.game.sim.LockstepWorld;
+import com.cbl.game.sim.PlayerMotion;
+import com.cbl.game.sim.PlayerState;
+
+import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One game session hosted by a {@link NetServer}: its players, enemies,
+ * bullets and snapshot history, and the tick that moves them. IO threads only
+ * push commands into the room's {@link CommandRing}; {@link #tick()} runs on
+ * whichever {@link SimShard} currently owns the room (one at a time, handed
+ * over through the shard's inbox), drains the ring and is the only code that
+ * touches world state.
+ * <p>
+ * Given the same seed, config and sequence of applied commands per tick, two
+ * rooms reach the same state ({@link #checksum()}): the only randomness is
+ * {@link #rng}, and nothing in the tick reads the clock. That is what a
+ * {@link Journal} records and {@link Replay} relies on.
+ * <p>
+ * A lockstep room ({@code --lockstep}) keeps its world in a
+ * {@link LockstepWorld} instead: each tick it hands the world the inputs it
+ * applied and broadcasts just those (LSTEP), every client runs the same
+ * world, and a joiner gets the whole state once (LSTATE). Traffic then grows
+ * with the players, not with the enemies. The world goes out deflated, a few
+ * chunks per tick ({@link WorldStream}), so a big one does not stall the tick.
+ * <p>
+ * A player whose connection drops is parked, not removed: it stays in the
+ * world for {@code resumeMs} (counted in ticks, so replays agree), and a JOIN
+ * that resumes its session swaps the new connection in with the same id and
+ * state, sending only what changed since the client's baseline (a snapshot
+ * delta, or the logged LSTEPs it missed). Others see no LEAVE/JOINED.
+ */
+final class Room {
+    final String name;
+    final int serial;
+    private final ServerConfig cfg;
+    private final int tickMs, inputsPerTick, enemySpawnTicks, resumeTicks;
+    private final DatagramChannel udp;
+    private final BufferPool buffers;
+    private final ByteBuffer udpOut = ByteBuffer.allocateDirect(GameConfig.UDP_MAX_PACKET); // tick only; direct: send() copies heap buffers
+
+    final CommandRing commands = new CommandRing(GameConfig.COMMAND_QUEUE_CAPACITY);
+    private volatile Roster roster = Roster.EMPTY;   // joined clients; replaced by the tick, read lock-free
+
+    // Enemies, tick only (spawn and hits run there too)
+    private static final int EX = 0, EY = 1;       // float columns
+    private static final int EID = 0, EHP = 1;     // int columns
+    private final EntityStore enemies = new EntityStore(2, 2, 256);
+    private final IntIntMap enemyHandles = new IntIntMap(256);  // enemy id → handle
+
+    // Per-tick frame, encoded once and copied to every client at the end of the tick
+    private final ByteBuffer events = ByteBuffer.allocate(Connection.OUT_CAPACITY / 2);
+    private final ByteBuffer state  = ByteBuffer.allocate(Connection.STATE_CAPACITY);
+    private final Snapshot.History history = new Snapshot.History(32);              // whole world per tick
+    private final Interest interest = new Interest(GameConfig.INTEREST_RADIUS);
+
+    // Spatial indexes: enemies move incrementally, players are re-put each tick
+    private final SpatialHash enemyGrid  = new SpatialHash(64f, 1024);
+    private final SpatialHash playerGrid = new SpatialHash(256f, 64);
+    private final Projectiles projectiles;
+    private final Projectiles.HitSink onHit = this::damageEnemy;
+
+    // Positional events (SHOT/ENSPAWN): encoded once, sent only to clients near (localX, localY)
+    private final ByteBuffer localEvents = ByteBuffer.allocate(64 * 1024);
+    private final float[] localX = new float[512], localY = new float[512];
+    private final int[] localEnd = new int[512];
+    private int localCount;
+    private boolean localOverflow;
+    private final ByteBuffer clientEvents = ByteBuffer.allocate(events.capacity() + localEvents.capacity());
+    private int snapSeq = 0;
+    private int nextEnemyId = 1;
+    private volatile int enemyCount;
+    final long seed;
+    private final DetRandom rng;
+    private final LockstepWorld world;          // lockstep rooms only, tick only
+    private final LockstepWorld.Inputs stepInputs;
+    private final ArrayList<WorldStream> streams = new ArrayList<>();   // LSTATEs still being sent
+    // LSTEP frames of the last STEP_LOG ticks by tick % STEP_LOG, resent to a resumed client
+    private final byte[][] stepLog;
+    private final int[] stepLen, stepTick;
+    private int parkedCount;
+    private long tick;            // ticks begun: the simulation clock (spawns, CHECK numbers), tick only
+    private Journal journal;      // tick only; null unless the server records
+
+    // Metrics: written by the owning shard, read from anywhere
+    final TickTimer tickTime;
+    final AllocationMeter tickAlloc = new AllocationMeter();
+    volatile long lateTicks;      // ticks started more than a whole tick after their deadline (total)
+    private volatile long lateTicksBase;        // lateTicks at the last stats reset
+    private volatile boolean statsResetRequested;
+    final Histogram tickMicros = new Histogram();     // tick duration
+    final Histogram jitterMicros = new Histogram();   // tick start minus its deadline
+
+    // Scheduling, owned by the shard that runs the room
+    final long tickNanos;
+    long deadline;                // next tick is due at this System.nanoTime()
+    volatile int shard = -1;      // index of the owning shard
+    volatile int moveTo = -1;     // set by the balancer: owner hands the room to this shard
+
+    // Lifecycle, guarded by the RoomManager
+    int members;                  // handshaken connections that chose this room
+    long emptySince;
+    boolean closed;
+
+    Room(String name, int serial, ServerConfig cfg, DatagramChannel udp, BufferPool buffers) {
+        this(name, serial, cfg, udp, buffers, ThreadLocalRandom.current().nextLong());
+    }
+
+    Room(String name, int serial, ServerConfig cfg, DatagramChannel udp, BufferPool buffers, long seed) {
+        this.name = name;
+        this.seed = seed;
+        this.rng = new DetRandom(seed);
+        this.serial = serial;
+        this.cfg = cfg;
+        this.udp = udp;
+        this.buffers = buffers;
+        this.tickMs = cfg.tickMs();
+        this.tickNanos = tickMs * 1_000_000L;
+        this.inputsPerTick = Math.max(1, Math.round(tickMs / (PlayerMotion.DT * 1000)));
+        this.enemySpawnTicks = Math.max(1, cfg.enemySpawnMs / tickMs);
+        this.resumeTicks = (cfg.resumeMs + tickMs - 1) / tickMs;
+        this.projectiles = new Projectiles(tickMs);
+        this.tickTime = new TickTimer(tickNanos);
+        this.world = cfg.lockstep ? new LockstepWorld(seed, tickMs, cfg.worldW, cfg.worldH, cfg.maxEnemies, cfg.enemySpawnMs) : null;
+        this.stepInputs = cfg.lockstep ? new LockstepWorld.Inputs() : null;
+        this.stepLog = cfg.lockstep ? new byte[STEP_LOG][] : null;
+        this.stepLen = cfg.lockstep ? new int[STEP_LOG] : null;
+        this.stepTick = cfg.lockstep ? new int[STEP_LOG] : null;
+        if (stepTick != null) Arrays.fill(stepTick, -1);
+        // lệch pha theo số thứ tự: các phòng cùng shard không tick dồn một lúc
+        this.deadline = System.nanoTime() + (long) (tickNanos * ((serial * 0.6180339887) % 1.0));
+    }
+
+    int players() { return roster.list.length; }
+    int enemies() { return enemyCount; }
+    long ticks() { return tickTime.count(); }
+    /** Late ticks since the last {@link #requestStatsReset()}. */
+    long intervalLateTicks() { return lateTicks - lateTicksBase; }
+
+    /**
+     * Any thread: the next tick starts a new interval for the resettable
+     * stats (max tick time, interval overruns and late ticks, allocation).
+     * Done by the owner, and the totals behind the metrics never go back.
+     */
+    void requestStatsReset() { statsResetRequested = true; }
+    ServerConfig config() { return cfg; }
+
+    /** Starts recording into a new journal under {@code dir}; before the room's first tick. */
+    void record(java.nio.file.Path dir) throws IOException { journal = Journal.create(dir, this, seed); }
+
+    /** Owning shard (or after the shards stopped): finishes the journal, if any. */
+    void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+            System.out.println("[Server] room '" + name + "' journal: " + journal.file + " (" + journal.records() + " records)");
+        } catch (IOException e) {
+            System.err.println("[Server] room '" + name + "' journal: " + e);
+        }
+        journal = null;
+    }
+
+    /**
+     * Applies every command queued since the last tick, in arrival order.
+     * Commands from a connection that already left are ignored.
+     */
+    private void drainCommands() {
+        commands.sampleDepth();
+        for (int i; (i = commands.poll()) >= 0; commands.release(i)) {
+            Connection c = commands.connection(i);
+            switch (commands.type(i)) {
+                case CommandRing.JOIN:  applyJoin(c); break;
+                case CommandRing.LEAVE: applyLeave(c, !c.quit); break;
+                case CommandRing.INPUT:
+                    applyInput(c, commands.intAt(i, 0), commands.intArray(), commands.inputsOffset(i), commands.intAt(i, 1));
+                    break;
+                case CommandRing.SHOT:
+                    applyShot(c, commands.floatAt(i, 0), commands.floatAt(i, 1), commands.floatAt(i, 2), commands.floatAt(i, 3), commands.intAt(i, 0));
+                    break;
+                case CommandRing.ACK:   applyAck(c, commands.intAt(i, 0)); break;
+                case CommandRing.RESYNC: applyResync(c); break;
+                default: break;
+            }
+        }
+    }
+
+    // Một lệnh đã rút khỏi ring; Replay gọi thẳng các hàm này, không qua ring. Tick thread.
+    void applyJoin(Connection c) {
+        if (journal != null) journal.join(c.id);
+        Connection old = roster.get(c.id);
+        if (old != null && old.parked) { resume(old, c); return; }
+        roster = roster.with(c);
+        welcome(c, false);
+    }
+
+    /** {@code park}: the connection dropped rather than quit, so the player waits {@code resumeMs} for it. */
+    void applyLeave(Connection c, boolean park) {
+        if (journal != null) journal.leave(c.id, park);
+        if (park && resumeTicks > 0 && c.joined && !c.parked) {
+            c.parked = true;
+            c.resumeLeft = resumeTicks;
+            parkedCount++;
+            return;
+        }
+        if (c.parked) { c.parked = false; parkedCount--; }
+        remove(c);
+    }
+
+    void applyInput(Connection c, int newestSeq, int[] buttons, int off, int n) {
+        if (!c.joined) return;
+        if (journal != null) journal.input(c.id, newestSeq, buttons, off, n);
+        c.inputs.offer(newestSeq, buttons, off, n); // tick sẽ áp dụng theo thứ tự seq
+    }
+
+    void applyShot(Connection c, float x, float y, float vx, float vy, int viewSeq) {
+        if (!c.joined || world != null) return;   // lockstep: bắn là nút FIRE trong INPUT
+        if (journal != null) journal.shot(c.id, x, y, vx, vy, viewSeq);
+        if (!plausibleShot(c, x, y, vx, vy) || !projectiles.spawn(c.id, x, y, vx, vy, viewSeq)) return;
+        NetMessage.writeShot(beginLocal(x, y), c.id, x, y, vx, vy, viewSeq);
+        endLocal();
+    }
+
+    void applyAck(Connection c, int seq) {
+        if (journal != null) journal.ack(c.id, seq);
+        if (seq > c.ackedSeq && seq <= snapSeq) c.ackedSeq = seq;
+    }
+
+    /** A lockstep client whose checksum disagreed: send it the world again. Changes nothing, so not journaled. */
+    private void applyResync(Connection c) {
+        if (world == null || !c.joined) return;
+        for (WorldStream s : streams) if (s.to == c) return;   // đang gửi rồi
+        sendWorld(c);
+    }
+
+    /** Gửi id cho client mới, rồi báo JOINED cho mọi người trong phòng (trừ khi nối lại phiên cũ). */
+    private void welcome(Connection c, boolean resumed) {
+        // enemy hiện có tới qua snapshot đầu tiên (full, theo vùng quan tâm)
+        var b = buffers.acquire();
+        NetMessage.writeWelcome(b, c.id, c.token, tickMs, cfg.worldW, cfg.worldH, seed, world != null, resumed, cfg.resumeMs);
+        c.enqueue(b);
+        buffers.release(b);
+        // trạng thái đầu tick này (hoặc các LSTEP còn thiếu); LSTEP của tick này theo sau
+        if (world != null && !(resumed && sendSteps(c, c.resumeBase))) sendWorld(c);
+        c.joined = true; // từ đây tick frame mới tới client này (sau WELCOME)
+        if (!resumed) eventId(MessageType.JOINED, c.id);
+    }
+
+    /**
+     * {@code c} came back with the token of parked {@code old} (the same
+     * object when replaying): it takes over the player, its input queue and
+     * view history, and its next snapshot is a delta against the newest one
+     * the client says it still has, if we still have it too.
+     */
+    private void resume(Connection old, Connection c) {
+        old.parked = false;
+        parkedCount--;
+        if (old != c) {
+            c.player.set(old.player);
+            c.inputs = old.inputs;
+            c.history = old.history;
+            c.lastSentSeq = old.lastSentSeq;
+            c.lastInputSeq = old.lastInputSeq;
+            c.inputBudget = old.inputBudget;
+            old.joined = false;
+            roster = roster.replacing(c);
+        }
+        int base = c.resumeBase;
+        c.ackedSeq = base > 0 && base <= snapSeq && c.history.get(base) != null ? base : 0;
+        welcome(c, true);
+    }
+
+    /**
+     * Counts the parked players' windows down; those that ran out leave now.
+     * A countdown rather than a deadline: Replay applies a LEAVE between
+     * ticks, the live room inside one, and both must agree.
+     */
+    private void expireParked() {
+        for (Connection c : roster.list) {
+            if (c.parked && --c.resumeLeft < 0) {
+                c.parked = false;
+                parkedCount--;
+                remove(c);
+            }
+        }
+    }
+
+    private void remove(Connection c) {
+        c.removed = true;   // NetServer stops offering its session for a resume
+        roster = roster.without(c);
+        if (c.joined) { c.joined = false; eventId(MessageType.LEAVE, c.id); }
+    }
+
+    /** Starts streaming LSTATE to {@code c}; its first chunk is queued now, ahead of this tick's LSTEP. */
+    private void sendWorld(Connection c) {
+        var s = new WorldStream(c, world);
+        if (!s.pump(buffers)) streams.add(s);
+    }
+
+    /**
+     * Lockstep resume: queues the logged LSTEPs from tick {@code from} up to
+     * now. @return false if some are no longer logged (send the world instead)
+     */
+    private boolean sendSteps(Connection c, int from) {
+        int to = world.tick();
+        if (from <= 0 || from > to || to - from > STEP_LOG) return false;
+        for (int t = from; t < to; t++) if (stepTick[t % STEP_LOG] != t) return false;
+        var b = buffers.acquire();
+        try {
+            for (int t = from; t < to; t++) {
+                int slot = t % STEP_LOG;
+                if (b.remaining() < stepLen[slot]) { c.enqueue(b); b.clear(); }
+                b.put(stepLog[slot], 0, stepLen[slot]);
+            }
+            if (b.position() > 0) c.enqueue(b);
+        } finally {
+            buffers.release(b);
+        }
+        return true;
+    }
+
+    /** One simulation step; called by the owning shard every {@link #tickNanos}. */
+    void tick() {
+        long t = tick++;   // before anything can throw: a failed tick still uses up its slot
+        if (statsResetRequested) {
+            statsResetRequested = false;
+            tickTime.reset();
+            tickAlloc.reset();
+            lateTicksBase = lateTicks;
+        }
+        tickTime.begin();
+        tickAlloc.begin();
+        drainCommands();
+        if (parkedCount > 0) expireParked();
+        if (world != null) {
+            stepLockstep(roster.list);
+            endTick();
+            return;
+        }
+        if (t % enemySpawnTicks == 0) spawnEnemy();
+        float dt = tickMs / 1000f;
+        Connection[] cs = roster.list;
+        playerGrid.clear();
+        for (Connection c : cs) {
+            if (!c.joined) continue;
+            applyInputs(c);
+            if (!c.player.dead()) playerGrid.put(c.id, c.player.x, c.player.y);
+        }
+
+        // Move each enemy toward nearest player
+        float[] ex = enemies.f(EX), ey = enemies.f(EY);
+        int[] eid = enemies.i(EID);
+        for (int r = 0, n = enemies.size(); r < n; r++) {
+            PlayerState target = nearestPlayer(ex[r], ey[r]);
+            if (target != null) {
+                float dx = target.x - ex[r], dy = target.y - ey[r];
+                float len = (float) Math.sqrt(dx * dx + dy * dy);
+                if (len > 1e-3) {
+                    ex[r] += (dx/len) * GameConfig.ENEMY_SPEED * dt;
+                    ey[r] += (dy/len) * GameConfig.ENEMY_SPEED * dt;
+                }
+            }
+            enemyGrid.put(eid[r], ex[r], ey[r]);
+        }
+        for (Connection c : cs) {
+            if (!c.joined) continue;
+            var p = c.player;
+            int hit = enemyGrid.firstWithin(p.x, p.y, GameConfig.PLAYER_HIT_RADIUS);
+            if (hit != SpatialHash.NONE) PlayerMotion.hurt(p, enemyGrid.x(hit), enemyGrid.y(hit), GameConfig.CONTACT_DAMAGE);
+        }
+        // đạn: quét theo vị trí enemy mà người bắn đã thấy (history), trước khi chụp snapshot mới
+        projectiles.step(dt, snapSeq + 1, history, enemyGrid, onHit);
+        flushTick(cs);
+        enemyCount = enemies.size();
+        endTick();
+    }
+
+    private void endTick() {
+        if (journal != null) {
+            journal.tick();
+            if (tick % CHECK_TICKS == 0) journal.check(tick, checksum());
+        }
+        tickAlloc.end();
+        tickMicros.record(tickTime.end() / 1000);
+    }
+
+    /**
+     * Lockstep tick: takes each client's inputs under the same budget as
+     * {@link #applyInputs}, steps the world with exactly those, and sends them
+     * to everyone as one LSTEP (with the world checksum every
+     * {@value #CHECK_TICKS} ticks). Reliable, in tick order, over TCP.
+     */
+    private void stepLockstep(Connection[] cs) {
+        var in = stepInputs;
+        in.clear(world.tick());
+        int buttons = 0;
+        for (Connection c : cs) {
+            if (!c.joined) continue;
+            in.begin(c.id);
+            c.inputBudget = Math.min(c.inputBudget + inputsPerTick, inputsPerTick + GameConfig.MAX_INPUT_BACKLOG);
+            for (int seq; c.inputBudget > 0 && (seq = c.inputs.peekSeq()) != 0; c.inputBudget--, buttons++) {
+                in.button(c.inputs.poll());
+                c.lastInputSeq = seq;
+            }
+            in.end(c.lastInputSeq);
+        }
+        in.sort();
+        world.step(in);
+        enemyCount = world.enemyCount();
+
+        boolean check = world.tick() % CHECK_TICKS == 0;
+        reserveEvents(32 + in.count * 16 + buttons);
+        int start = events.position();
+        NetMessage.writeStep(events, in, check, check ? world.checksum() : 0);
+        logStep(in.tick, start);
+        for (Connection cl : cs) {
+            if (cl.joined && !cl.parked) cl.enqueueTick(events, EMPTY);
+        }
+        events.clear();
+        for (int i = streams.size() - 1; i >= 0; i--) {
+            if (streams.get(i).pump(buffers)) streams.remove(i);
+        }
+    }
+
+    /** Keeps the LSTEP frame just written at events[start, position) for {@link #sendSteps}. */
+    private void logStep(int tick, int start) {
+        int slot = tick % STEP_LOG, n = events.position() - start;
+        if (stepLog[slot] == null || stepLog[slot].length < n) stepLog[slot] = new byte[Math.max(n, 256)];
+        System.arraycopy(events.array(), start, stepLog[slot], 0, n);
+        stepLen[slot] = n;
+        stepTick[slot] = tick;
+    }
+
+    /**
+     * Hash of the simulated state: enemies (id, exact position, hp), players
+     * (id, exact position and velocity, hp, last applied input), id and
+     * snapshot counters, RNG state. Lockstep rooms: {@link LockstepWorld#checksum()}. Tick thread.
+     */
+    long checksum() {
+        if (world != null) return world.checksum();
+        long h = mix(seed, rng.state());
+        float[] ex = enemies.f(EX), ey = enemies.f(EY);
+        int[] eid = enemies.i(EID), ehp = enemies.i(EHP);
+        for (int r = 0, n = enemies.size(); r < n; r++) {
+            h = mix(h, eid[r]);
+            h = mix(h, Float.floatToRawIntBits(ex[r]));
+            h = mix(h, Float.floatToRawIntBits(ey[r]));
+            h = mix(h, ehp[r]);
+        }
+        for (Connection c : roster.list) {
+            if (!c.joined) continue;
+            var p = c.player;
+            h = mix(h, c.id);
+            h = mix(h, Float.floatToRawIntBits(p.x));
+            h = mix(h, Float.floatToRawIntBits(p.y));
+            h = mix(h, Float.floatToRawIntBits(p.vx));
+            h = mix(h, Float.floatToRawIntBits(p.vy));
+            h = mix(h, p.hp);
+            h = mix(h, c.lastInputSeq);
+        }
+        h = mix(h, nextEnemyId);
+        return mix(h, snapSeq);
+    }
+
+    private static long mix(long h, long v) {
+        h = (h ^ v) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Applies the client's queued inputs, at most one tick's worth on average:
+     * the budget refills by that much per tick and may bank a little for
+     * jitter, so sending inputs faster than 60 Hz does not move you faster.
+     */
+    private void applyInputs(Connection c) {
+        c.inputBudget = Math.min(c.inputBudget + inputsPerTick, inputsPerTick + GameConfig.MAX_INPUT_BACKLOG);
+        for (int seq; c.inputBudget > 0 && (seq = c.inputs.peekSeq()) != 0; c.inputBudget--) {
+            PlayerMotion.step(c.player, c.inputs.poll(), cfg.worldW, cfg.worldH);
+            c.lastInputSeq = seq;
+        }
+    }
+
+    /** Applies one bullet hit; the result goes out as ENHP/ENDEAD. */
+    private boolean damageEnemy(int enemyId, int shooterId) {
+        int row = enemies.row(enemyHandles.get(enemyId, EntityStore.NONE));
+        if (row == EntityStore.NONE) return false;
+        int hp = enemies.i(EHP)[row] -= GameConfig.BULLET_DAMAGE;
+        reserveEvents();
+        if (hp <= 0) {
+            enemies.removeRow(row);
+            enemyHandles.remove(enemyId, EntityStore.NONE);
+            enemyGrid.remove(enemyId);
+            NetMessage.writeId(events, MessageType.ENDEAD, enemyId);
+        } else {
+            NetMessage.writeEnHp(events, enemyId, hp);
+        }
+        return true;
+    }
+
+    /** Rejects SHOTs that are too fast or fired from somewhere the shooter clearly is not. */
+    private boolean plausibleShot(Connection c, float x, float y, float vx, float vy) {
+        float max = GameConfig.BULLET_SPEED * 1.05f;
+        if (vx * vx + vy * vy > max * max) return false;
+        PlayerState p = c.player;
+        float dx = x - p.x, dy = y - p.y;
+        return !p.dead() && dx * dx + dy * dy <= 96 * 96;
+    }
+
+    /**
+     * Captures this tick's world snapshot, then for every joined client: cuts it
+     * down to the client's area of interest, and hands over the shared events,
+     * nearby positional events and the view's delta against its acked baseline.
+     */
+    private void flushTick(Connection[] cs) {
+        Snapshot world = history.slot(snapSeq + 1);
+        float[] ex = enemies.f(EX), ey = enemies.f(EY);
+        int[] eid = enemies.i(EID), ehp = enemies.i(EHP);
+        for (int r = 0, n = enemies.size(); r < n; r++) {
+            int row = world.enemies.add(eid[r]);
+            world.enemies.set(row, Snapshot.ENEMY_X, NetMessage.quantize(ex[r]));
+            world.enemies.set(row, Snapshot.ENEMY_Y, NetMessage.quantize(ey[r]));
+            world.enemies.set(row, Snapshot.ENEMY_HP, Math.max(0, ehp[r]));
+        }
+        for (Connection c : cs) {
+            if (!c.joined) continue;
+            var p = c.player;
+            int row = world.players.add(c.id);
+            world.players.set(row, Snapshot.PLAYER_X, NetMessage.quantize(p.x));
+            world.players.set(row, Snapshot.PLAYER_Y, NetMessage.quantize(p.y));
+            world.players.set(row, Snapshot.PLAYER_VX, NetMessage.quantize(p.vx));
+            world.players.set(row, Snapshot.PLAYER_VY, NetMessage.quantize(p.vy));
+            world.players.set(row, Snapshot.PLAYER_HP, p.hp);
+            world.players.set(row, Snapshot.PLAYER_INPUT, c.lastInputSeq);
+        }
+        world.enemies.sort();
+        world.players.sort();
+        snapSeq = world.seq;
+
+        for (Connection cl : cs) {
+            if (!cl.joined || cl.parked) continue;   // parked: still in the world, nobody to send to
+            Snapshot view = buildView(cl, world);
+            writeClientEvents(cl.player);
+            state.clear();
+            try {
+                NetMessage.writeSnapshot(state, view, cl.history.get(cl.ackedSeq));
+            } catch (IllegalStateException | java.nio.BufferOverflowException e) {
+                state.clear(); // quá lớn cho 1 frame: bỏ state tick này, vẫn gửi events
+            }
+            if (cl.udpActive && state.position() <= udpOut.capacity() - NetMessage.UDP_SERVER_HEADER) {
+                udpOut.clear().position(NetMessage.UDP_SERVER_HEADER);
+                udpOut.put(state.array(), 0, state.position());
+                cl.sendDatagram(udp, udpOut, state.position());
+                cl.enqueueTick(clientEvents, EMPTY);
+            } else {
+                cl.enqueueTick(clientEvents, state);
+            }
+        }
+        events.clear();
+        localEvents.clear();
+        localCount = 0;
+    }
+
+    /** The part of {@code world} this client gets, stored in its own history for delta baselines. */
+    private Snapshot buildView(Connection cl, Snapshot world) {
+        Snapshot prev = cl.history.get(cl.lastSentSeq);
+        Snapshot view = cl.history.slot(world.seq);
+        if (prev == view) prev = null;
+        interest.filter(world, prev, view, cl.id, cl.player.x, cl.player.y, enemyGrid);
+        cl.lastSentSeq = view.seq;
+        return view;
+    }
+
+    /** Shared events plus the positional ones near {@code pos} into clientEvents. */
+    private void writeClientEvents(PlayerState pos) {
+        clientEvents.clear();
+        clientEvents.put(events.array(), 0, events.position());
+        for (int i = 0, start = 0; i < localCount; start = localEnd[i++]) {
+            if (interest.contains(localX[i], localY[i], pos.x, pos.y)) {
+                clientEvents.put(localEvents.array(), start, localEnd[i] - start);
+            }
+        }
+    }
+
+    private PlayerState nearestPlayer(float x, float y) {
+        int id = playerGrid.nearest(x, y, Float.MAX_VALUE);
+        Connection c = id < 0 ? null : roster.get(id);
+        return c == null ? null : c.player;
+    }
+
+    /** One enemy on a random edge, unless the room is full or empty. Tick thread (benchmarks: setup). */
+    void spawnEnemy() {
+        if (enemies.size() >= cfg.maxEnemies || roster.list.length == 0) return;
+        // spawn ở rìa bản đồ
+        int w = cfg.worldW, h = cfg.worldH;
+        int side = rng.nextInt(4);
+        int x = 0, y = 0;
+        switch (side) {
+            case 0: x = 0;               y = rng.nextInt(h); break;     // trái
+            case 1: x = w - 32;          y = rng.nextInt(h); break;     // phải
+            case 2: x = rng.nextInt(w);  y = 0; break;                  // trên
+            case 3: x = rng.nextInt(w);  y = h - 32; break;             // dưới
+        }
+        int id = nextEnemyId++;
+        enemyHandles.put(id, enemies.add());
+        int row = enemies.size() - 1;
+        enemies.f(EX)[row] = x; enemies.f(EY)[row] = y;
+        enemies.i(EID)[row] = id; enemies.i(EHP)[row] = ENEMY_HP;
+        NetMessage.writeEnemy(beginLocal(x, y), MessageType.ENSPAWN, id, x, y, ENEMY_HP);
+        endLocal();
+    }
+
+    private void eventId(MessageType t, int id) {
+        reserveEvents();
+        NetMessage.writeId(events, t, id);
+    }
+
+    /**
+     * @return the buffer to write a positional
+     * event at (x, y) into; call {@link #endLocal()} right after. If the local
+     * buffer is full the event falls back to going to everybody.
+     */
+    private ByteBuffer beginLocal(float x, float y) {
+        if (localCount == localEnd.length || localEvents.remaining() < 256) {
+            reserveEvents();
+            localOverflow = true;
+            return events;
+        }
+        localX[localCount] = x;
+        localY[localCount] = y;
+        return localEvents;
+    }
+
+    private void endLocal() {
+        if (localOverflow) { localOverflow = false; return; }
+        localEnd[localCount++] = localEvents.position();
+    }
+
+    /** Ships the events early if the tick buffer is nearly full. */
+    private void reserveEvents() { reserveEvents(256); }
+
+    private void reserveEvents(int bytes) {
+        if (events.remaining() >= bytes) return;
+        for (Connection cl : roster.list) {
+            if (cl.joined && !cl.parked) cl.enqueueTick(events, EMPTY);
+        }
+        events.clear();
+    }
+
+    private static final int ENEMY_HP = 50;
+    static final int CHECK_TICKS = 64;           // journal: một CHECK mỗi chừng này tick
+    private static final int STEP_LOG = 256;     // lockstep: LSTEPs kept for resumes (~13 s at 20 Hz)
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+}
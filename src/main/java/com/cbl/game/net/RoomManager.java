@@ -0,0 +1,144 @@
+package com.cbl.game.net;
+
+import com.cbl.game.config.ServerConfig;
+import com.cbl.game.core.metrics.Histogram;
+
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rooms by name and the {@link SimShard}s that tick them. A room is created
+ * by the first JOIN that names it, placed on the least loaded shard, and
+ * closed once it has been empty for {@code roomIdleMs}. About once a second
+ * the balancer moves one room from the busiest shard to the idlest when that
+ * narrows the gap, using each room's measured average tick time.
+ */
+final class RoomManager {
+    private static final long BALANCE_NANOS = 1_000_000_000L;
+    /** Shards closer than this (fraction of a core) are left alone. */
+    private static final double BALANCE_GAP = 0.05;
+
+    private final ServerConfig cfg;
+    private final BufferPool buffers;
+    private final SimShard[] shards;
+    private final Map<String, Room> rooms = new HashMap<>();   // guarded by this
+    private DatagramChannel udp;
+    private int nextSerial;
+    // closed rooms' share of the server totals (guarded by this), see ServerMetrics
+    final Histogram closedTicks = new Histogram(), closedJitter = new Histogram();
+    long closedTickCount, closedOverruns, closedLateTicks;
+    private long nextBalance;   // shard 0 only
+
+    RoomManager(ServerConfig cfg, BufferPool buffers) {
+        this.cfg = cfg;
+        this.buffers = buffers;
+        this.shards = new SimShard[cfg.simThreads];
+        for (int i = 0; i < shards.length; i++) shards[i] = new SimShard(i, this);
+    }
+
+    void start(DatagramChannel udp) {
+        this.udp = udp;
+        for (SimShard s : shards) s.start();
+    }
+
+    /** Stops the shards (each finishes the tick it is in), then the journals of the rooms left. */
+    void stop() throws InterruptedException {
+        for (SimShard s : shards) s.stop();
+        for (SimShard s : shards) s.join(1000);
+        for (SimShard s : shards) if (s.alive()) return;   // còn tick: cắt file lúc này sẽ làm hỏng map
+        for (Room r : rooms()) r.closeJournal();
+    }
+
+    SimShard shard(int i) { return shards[i]; }
+    int shardCount() { return shards.length; }
+
+    /**
+     * IO thread, at handshake: the room called {@code name}, created if needed,
+     * with one more member. @return null if it does not exist and the server
+     * already hosts {@code maxRooms}.
+     */
+    synchronized Room join(String name) {
+        Room r = rooms.get(name);
+        if (r == null) {
+            if (rooms.size() >= cfg.maxRooms) return null;
+            r = new Room(name, nextSerial++, cfg, udp, buffers);
+            if (cfg.recordDir != null) {
+                try {
+                    r.record(Path.of(cfg.recordDir));
+                } catch (IOException e) {
+                    System.err.println("[Server] room '" + name + "' not recorded: " + e);
+                }
+            }
+            rooms.put(name, r);
+            leastLoaded().add(r);
+            System.out.println("[Server] room '" + name + "' opened (" + rooms.size() + " rooms)");
+        }
+        r.members++;
+        return r;
+    }
+
+    /** IO thread, when a member's connection closes. */
+    synchronized void leave(Room r) {
+        if (--r.members == 0) r.emptySince = System.nanoTime();
+    }
+
+    /** Owning shard: closes {@code r} if nobody has been in it for {@code roomIdleMs}. */
+    synchronized boolean closeIfIdle(Room r, long now) {
+        if (r.closed || r.members > 0 || now - r.emptySince < cfg.roomIdleMs * 1_000_000L) return false;
+        rooms.remove(r.name);
+        r.closed = true;
+        r.tickMicros.addTo(closedTicks);
+        r.jitterMicros.addTo(closedJitter);
+        closedTickCount += r.ticks();
+        closedOverruns += r.tickTime.overruns();
+        closedLateTicks += r.lateTicks;
+        r.closeJournal();
+        System.out.println("[Server] room '" + r.name + "' closed after " + r.ticks() + " ticks (" + rooms.size() + " rooms)");
+        return true;
+    }
+
+    synchronized int roomCount() { return rooms.size(); }
+
+    synchronized List<Room> rooms() { return new ArrayList<>(rooms.values()); }
+
+    /**
+     * Shard 0, every pass: at most once a second, marks one room of the
+     * busiest shard to move to the idlest, picking the one whose cost brings
+     * the two closest to even. The owner hands it over on its next pass.
+     */
+    void rebalance(long now) {
+        if (now - nextBalance < 0 || shards.length < 2) return;
+        nextBalance = now + BALANCE_NANOS;
+        int hi = 0, lo = 0;
+        double[] load = new double[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            load[i] = shards[i].load();
+            if (load[i] > load[hi]) hi = i;
+            if (load[i] < load[lo]) lo = i;
+        }
+        double gap = load[hi] - load[lo];
+        if (gap < BALANCE_GAP) return;
+        Room best = null;
+        double bestGap = gap;
+        for (Room r : shards[hi].rooms()) {
+            double after = Math.abs(gap - 2 * SimShard.cost(r));
+            if (after < bestGap) { best = r; bestGap = after; }
+        }
+        if (best != null) best.moveTo = lo;
+    }
+
+    private SimShard leastLoaded() {
+        SimShard best = shards[0];
+        double min = Double.MAX_VALUE;
+        for (SimShard s : shards) {
+            double l = s.load();
+            if (l < min) { min = l; best = s; }
+        }
+        return best;
+    }
+}
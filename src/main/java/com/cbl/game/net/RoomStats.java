@@ -0,0 +1,49 @@
+package com.cbl.game.net;
+
+/**
+ * Point-in-time metrics of one room (see {@link NetServer#roomStats()}).
+ * Tick times are wall time of the room's tick on its shard, in microseconds.
+ */
+public final class RoomStats {
+    public final String name;
+    public final int shard, players, enemies;
+    public final long ticks;
+    /** Since the room opened or the last {@link NetServer#resetRoomStats()}, like the max tick time and allocation. */
+    public final long lateTicks, overruns;
+    public final double avgTickUs, lastTickUs, maxTickUs;
+    /** From the room's histograms since it opened (or {@link ServerMetrics#resetHistograms()}). */
+    public final long p99TickUs, p99JitterUs;
+    /** Share of one core the room needs: average tick time / tick length. */
+    public final double load;
+    public final double allocBytesPerTick;
+    public final long allocBytesLastTick;
+    public final int commandQueueMaxDepth;
+    public final long commandDrops;
+
+    RoomStats(Room r) {
+        name = r.name;
+        shard = r.shard;
+        players = r.players();
+        enemies = r.enemies();
+        ticks = r.ticks();
+        lateTicks = r.intervalLateTicks();
+        overruns = r.tickTime.intervalOverruns();
+        avgTickUs = r.tickTime.averageNanos() / 1000;
+        lastTickUs = r.tickTime.lastNanos() / 1000.0;
+        maxTickUs = r.tickTime.maxNanos() / 1000.0;
+        p99TickUs = r.tickMicros.percentile(99);
+        p99JitterUs = r.jitterMicros.percentile(99);
+        load = r.tickTime.averageNanos() / r.tickNanos;
+        allocBytesPerTick = r.tickAlloc.average();
+        allocBytesLastTick = r.tickAlloc.last();
+        commandQueueMaxDepth = r.commands.maxDepth();
+        commandDrops = r.commands.drops();
+    }
+
+    @Override public String toString() {
+        return String.format("'%s' shard=%d players=%d enemies=%d ticks=%d tick avg/last/max/p99=%.0f/%.0f/%.0f/%d us"
+                        + " jitter p99=%d us load=%.1f%% over=%d late=%d alloc avg/last=%.0f/%d B/tick cmd max=%d drops=%d",
+                name, shard, players, enemies, ticks, avgTickUs, lastTickUs, maxTickUs, p99TickUs, p99JitterUs,
+                load * 100, overruns, lateTicks, allocBytesPerTick, allocBytesLastTick, commandQueueMaxDepth, commandDrops);
+    }
+}
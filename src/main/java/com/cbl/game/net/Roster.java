@@ -0,0 +1,53 @@
+package com.cbl.game.net;
+
+import com.cbl.game.core.collect.IntIntMap;
+
+/**
+ * Immutable once published: connections in a plain array plus id → index.
+ * Writers build a new one ({@link #with}/{@link #without}) and swap a volatile
+ * reference, so readers look clients up without a lock or an allocation.
+ */
+final class Roster {
+    static final Roster EMPTY = new Roster(new Connection[0]);
+    final Connection[] list;
+    final IntIntMap index;
+
+    private Roster(Connection[] list) {
+        this.list = list;
+        this.index = new IntIntMap(list.length);
+        for (int i = 0; i < list.length; i++) index.put(list[i].id, i);
+    }
+
+    Connection get(int id) {
+        int i = index.get(id, -1);
+        return i < 0 ? null : list[i];
+    }
+
+    /** @return a roster that also holds {@code c} (this one if it already does). */
+    Roster with(Connection c) {
+        if (index.get(c.id, -1) >= 0) return this;
+        var l = java.util.Arrays.copyOf(list, list.length + 1);
+        l[list.length] = c;
+        return new Roster(l);
+    }
+
+    /** @return a roster with {@code c} in place of the connection that has its id (which must be in it). */
+    Roster replacing(Connection c) {
+        var l = list.clone();
+        l[index.get(c.id, -1)] = c;
+        return new Roster(l);
+    }
+
+    /** @return a roster without {@code c} (this one if it was not in it). */
+    Roster without(Connection c) { return without(c.id); }
+
+    /** @return a roster without the connection that has {@code id} (this one if there is none). */
+    Roster without(int id) {
+        int i = index.get(id, -1);
+        if (i < 0) return this;
+        var l = new Connection[list.length - 1];
+        System.arraycopy(list, 0, l, 0, i);
+        System.arraycopy(list, i + 1, l, i, list.length - i - 1);
+        return new Roster(l);
+    }
+}
@@ -0,0 +1,243 @@
+package com.cbl.game.net;
+
+import com.cbl.game.core.metrics.Histogram;
+
+import java.util.Locale;
+
+/**
+ * Server-wide instrumentation, cheap enough to leave on: each room records
+ * its tick duration and start jitter into its own {@link Histogram} (a few
+ * atomic adds per tick), each connection counts its own traffic and
+ * unreadable frames. Nothing is aggregated on the hot path; readers (JMX,
+ * {@code /metrics}, {@link NetServer#metrics()}) total the rooms and
+ * connections on demand, at most once a second for the histograms.
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+    private static final long MERGE_NANOS = 1_000_000_000L;
+
+    private final RoomManager rooms;
+    private volatile Roster open = Roster.EMPTY;   // every accepted connection, replaced under this
+    // closed connections' share of the totals (guarded by this)
+    private long closedBytesIn, closedBytesOut, closedMessagesIn, closedFramesOut, closedParseErrors;
+    volatile long badDatagrams, staleDatagrams;    // loop 0 only: unknown sender or token / out of order
+
+    // all rooms merged (guarded by this)
+    private final Histogram ticks = new Histogram(), jitter = new Histogram();
+    private long mergedAt;
+    private boolean merged;
+
+    ServerMetrics(RoomManager rooms) { this.rooms = rooms; }
+
+    synchronized void opened(Connection c) { open = open.with(c); }
+
+    /** IO thread, at handshake: {@code c}, listed under {@code oldId} since accept, took over a resumed session's id. */
+    synchronized void rekeyed(Connection c, int oldId) {
+        open = open.without(oldId).with(c);
+    }
+
+    /** IO thread, once the connection is gone: keeps its counts in the totals. */
+    synchronized void closed(Connection c) {
+        open = open.without(c);
+        closedBytesIn += c.bytesIn();
+        closedBytesOut += c.bytesOut();
+        closedMessagesIn += c.messagesIn();
+        closedFramesOut += c.framesOut();
+        closedParseErrors += c.parseErrors();
+    }
+
+    @Override public int getRooms() { return rooms.roomCount(); }
+    @Override public int getConnections() { return open.list.length; }
+
+    @Override public int getPlayers() {
+        int n = 0;
+        for (Room r : rooms.rooms()) n += r.players();
+        return n;
+    }
+
+    @Override public int getEnemies() {
+        int n = 0;
+        for (Room r : rooms.rooms()) n += r.enemies();
+        return n;
+    }
+
+    @Override public double[] getSimLoad() {
+        var l = new double[rooms.shardCount()];
+        for (int i = 0; i < l.length; i++) l[i] = rooms.shard(i).load();
+        return l;
+    }
+
+    @Override public long getTicks() {
+        long n;
+        synchronized (rooms) { n = rooms.closedTickCount; }
+        for (Room r : rooms.rooms()) n += r.ticks();
+        return n;
+    }
+
+    @Override public double getTickMeanMicros() { return ticks().mean(); }
+    @Override public long getTickP50Micros() { return ticks().percentile(50); }
+    @Override public long getTickP99Micros() { return ticks().percentile(99); }
+    @Override public long getTickP999Micros() { return ticks().percentile(99.9); }
+    @Override public long getTickMaxMicros() { return ticks().max(); }
+    @Override public long getJitterP50Micros() { return jitter().percentile(50); }
+    @Override public long getJitterP99Micros() { return jitter().percentile(99); }
+    @Override public long getJitterMaxMicros() { return jitter().max(); }
+
+    @Override public long getTickOverruns() {
+        long n;
+        synchronized (rooms) { n = rooms.closedOverruns; }
+        for (Room r : rooms.rooms()) n += r.tickTime.overruns();
+        return n;
+    }
+
+    @Override public long getLateTicks() {
+        long n;
+        synchronized (rooms) { n = rooms.closedLateTicks; }
+        for (Room r : rooms.rooms()) n += r.lateTicks;
+        return n;
+    }
+
+    @Override public synchronized long getBytesIn() {
+        long n = closedBytesIn;
+        for (Connection c : open.list) n += c.bytesIn();
+        return n;
+    }
+
+    @Override public synchronized long getBytesOut() {
+        long n = closedBytesOut;
+        for (Connection c : open.list) n += c.bytesOut();
+        return n;
+    }
+
+    @Override public synchronized long getMessagesIn() {
+        long n = closedMessagesIn;
+        for (Connection c : open.list) n += c.messagesIn();
+        return n;
+    }
+
+    @Override public synchronized long getFramesOut() {
+        long n = closedFramesOut;
+        for (Connection c : open.list) n += c.framesOut();
+        return n;
+    }
+
+    @Override public synchronized long getParseErrors() {
+        long n = closedParseErrors;
+        for (Connection c : open.list) n += c.parseErrors();
+        return n;
+    }
+
+    @Override public long getBadDatagrams() { return badDatagrams; }
+    @Override public long getStaleDatagrams() { return staleDatagrams; }
+
+    @Override public void resetHistograms() {
+        synchronized (rooms) {
+            rooms.closedTicks.reset();
+            rooms.closedJitter.reset();
+        }
+        for (Room r : rooms.rooms()) {
+            r.tickMicros.reset();
+            r.jitterMicros.reset();
+        }
+        synchronized (this) { merged = false; }
+    }
+
+    private synchronized Histogram ticks() {
+        merge();
+        return ticks;
+    }
+
+    private synchronized Histogram jitter() {
+        merge();
+        return jitter;
+    }
+
+    /** Caller holds this. Re-totals the room histograms if the last total is over a second old. */
+    private void merge() {
+        long now = System.nanoTime();
+        if (merged && now - mergedAt < MERGE_NANOS) return;
+        ticks.reset();
+        jitter.reset();
+        synchronized (rooms) {
+            rooms.closedTicks.addTo(ticks);
+            rooms.closedJitter.addTo(jitter);
+        }
+        for (Room r : rooms.rooms()) {
+            r.tickMicros.addTo(ticks);
+            r.jitterMicros.addTo(jitter);
+        }
+        mergedAt = now;
+        merged = true;
+    }
+
+    /** Prometheus text format; one line per value, rooms and clients labelled. */
+    @Override public String text() {
+        var sb = new StringBuilder(4096);
+        line(sb, "cbl_rooms", "", getRooms());
+        line(sb, "cbl_connections", "", getConnections());
+        line(sb, "cbl_players", "", getPlayers());
+        line(sb, "cbl_enemies", "", getEnemies());
+        double[] load = getSimLoad();
+        for (int i = 0; i < load.length; i++) line(sb, "cbl_sim_load", "shard=\"" + i + "\"", load[i]);
+
+        synchronized (this) {
+            merge();
+            summary(sb, "cbl_tick_micros", "", ticks);
+            summary(sb, "cbl_tick_jitter_micros", "", jitter);
+        }
+        line(sb, "cbl_ticks_total", "", getTicks());
+        line(sb, "cbl_tick_overruns_total", "", getTickOverruns());
+        line(sb, "cbl_late_ticks_total", "", getLateTicks());
+
+        line(sb, "cbl_bytes_in_total", "", getBytesIn());
+        line(sb, "cbl_bytes_out_total", "", getBytesOut());
+        line(sb, "cbl_messages_in_total", "", getMessagesIn());
+        line(sb, "cbl_frames_out_total", "", getFramesOut());
+        line(sb, "cbl_parse_errors_total", "", getParseErrors());
+        line(sb, "cbl_bad_datagrams_total", "", getBadDatagrams());
+        line(sb, "cbl_stale_datagrams_total", "", getStaleDatagrams());
+
+        for (Room r : rooms.rooms()) {
+            String l = "room=\"" + escape(r.name) + "\"";
+            line(sb, "cbl_room_players", l, r.players());
+            line(sb, "cbl_room_enemies", l, r.enemies());
+            summary(sb, "cbl_room_tick_micros", l, r.tickMicros);
+            summary(sb, "cbl_room_tick_jitter_micros", l, r.jitterMicros);
+        }
+        for (Connection c : open.list) {
+            Room r = c.room;
+            String l = "client=\"" + c.id + "\",room=\"" + (r == null ? "" : escape(r.name)) + "\"";
+            line(sb, "cbl_client_bytes_in_total", l, c.bytesIn());
+            line(sb, "cbl_client_bytes_out_total", l, c.bytesOut());
+            line(sb, "cbl_client_messages_in_total", l, c.messagesIn());
+            line(sb, "cbl_client_frames_out_total", l, c.framesOut());
+            line(sb, "cbl_client_parse_errors_total", l, c.parseErrors());
+        }
+        return sb.toString();
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, Histogram h) {
+        String sep = labels.isEmpty() ? "" : ",";
+        line(sb, name, labels + sep + "quantile=\"0.5\"", h.percentile(50));
+        line(sb, name, labels + sep + "quantile=\"0.99\"", h.percentile(99));
+        line(sb, name, labels + sep + "quantile=\"0.999\"", h.percentile(99.9));
+        line(sb, name + "_max", labels, h.max());
+        line(sb, name + "_sum", labels, h.sum());
+        line(sb, name + "_count", labels, h.count());
+    }
+
+    private static void line(StringBuilder sb, String name, String labels, long v) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(v).append('\n');
+    }
+
+    private static void line(StringBuilder sb, String name, String labels, double v) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(String.format(Locale.ROOT, "%.4f", v)).append('\n');
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
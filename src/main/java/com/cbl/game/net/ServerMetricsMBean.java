@@ -0,0 +1,41 @@
+package com.cbl.game.net;
+
+/**
+ * JMX view of {@link ServerMetrics}, registered as
+ * {@code com.cbl.game:type=Server,port=<port>} while the server runs.
+ * Tick and jitter figures are in microseconds, over all rooms since start
+ * (or the last {@link #resetHistograms()}); counters are totals since start.
+ */
+public interface ServerMetricsMBean {
+    int getRooms();
+    int getConnections();
+    int getPlayers();
+    int getEnemies();
+    double[] getSimLoad();
+
+    long getTicks();
+    double getTickMeanMicros();
+    long getTickP50Micros();
+    long getTickP99Micros();
+    long getTickP999Micros();
+    long getTickMaxMicros();
+    long getJitterP50Micros();
+    long getJitterP99Micros();
+    long getJitterMaxMicros();
+    long getTickOverruns();
+    long getLateTicks();
+
+    long getBytesIn();
+    long getBytesOut();
+    long getMessagesIn();
+    long getFramesOut();
+    long getParseErrors();
+    long getBadDatagrams();
+    long getStaleDatagrams();
+
+    /** Starts the tick and jitter histograms over, e.g. after a deploy or a config change. */
+    void resetHistograms();
+
+    /** Everything above plus per-room and per-client lines, as served on {@code /metrics}. */
+    String text();
+}
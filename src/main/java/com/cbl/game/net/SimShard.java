@@ -0,0 +1,107 @@
+package com.cbl.game.net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulation thread for a share of the rooms. Ticks each of its rooms when
+ * that room's deadline comes up, then parks until the earliest next one, so
+ * many rooms share one core without a timer per room. Rooms arrive through
+ * {@link #add} (new, or handed over by another shard) and leave when they go
+ * idle or the balancer moves them; a room is only ever ticked by one shard.
+ */
+final class SimShard implements Runnable {
+    /** Cost assumed for a room that has not been measured yet, as a fraction of its tick. */
+    private static final double MIN_COST = 0.002;
+
+    final int index;
+    private final RoomManager manager;
+    private final Queue<Room> inbox = new ConcurrentLinkedQueue<>();
+    private volatile Room[] rooms = new Room[0];   // replaced by this thread only
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    SimShard(int index, RoomManager manager) {
+        this.index = index;
+        this.manager = manager;
+        this.thread = new Thread(this, "sim-" + index);  // không daemon: giữ JVM của server sống
+    }
+
+    void start() { thread.start(); }
+
+    /** Hands a room to this shard (any thread); it is ticked from the next pass on. */
+    void add(Room r) {
+        inbox.add(r);
+        LockSupport.unpark(thread);
+    }
+
+    Room[] rooms() { return rooms; }
+
+    /** Share of one core this shard's rooms need, from their average tick time. */
+    double load() {
+        double sum = inbox.size() * MIN_COST;  // vừa giao, chưa nhận: vẫn tính để phòng mở dồn không dồn một shard
+        for (Room r : rooms) sum += cost(r);
+        return sum;
+    }
+
+    static double cost(Room r) {
+        return Math.max(MIN_COST, r.tickTime.averageNanos() / r.tickNanos);
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /** Waits for the running tick to finish after {@link #stop()}. */
+    void join(long millis) throws InterruptedException { thread.join(millis); }
+    boolean alive() { return thread.isAlive(); }
+
+    @Override public void run() {
+        while (running) {
+            for (Room r; (r = inbox.poll()) != null; ) {
+                r.shard = index;
+                rooms = append(rooms, r);
+            }
+            long now = System.nanoTime(), next = now + 100_000_000L;
+            for (Room r : rooms) {
+                int to = r.moveTo;
+                if (to >= 0) {
+                    r.moveTo = -1;
+                    if (to != index) { rooms = remove(rooms, r); manager.shard(to).add(r); continue; }
+                }
+                if (now - r.deadline >= 0) {
+                    r.jitterMicros.record((now - r.deadline) / 1000);
+                    // trễ hơn cả một tick: không tick bù dồn dập, chỉ đếm và bắt nhịp lại
+                    if (now - r.deadline > r.tickNanos) { r.lateTicks++; r.deadline = now; }
+                    r.deadline += r.tickNanos;
+                    try {
+                        r.tick();
+                    } catch (RuntimeException e) {
+                        System.err.println("[Server] room '" + r.name + "' tick failed: " + e);
+                    }
+                    now = System.nanoTime();
+                    if (r.players() == 0 && manager.closeIfIdle(r, now)) { rooms = remove(rooms, r); continue; }
+                }
+                if (r.deadline - next < 0) next = r.deadline;
+            }
+            if (index == 0) manager.rebalance(now);
+            long wait = next - System.nanoTime();
+            if (wait > 0 && inbox.isEmpty()) LockSupport.parkNanos(this, wait);
+        }
+    }
+
+    private static Room[] append(Room[] a, Room r) {
+        var b = java.util.Arrays.copyOf(a, a.length + 1);
+        b[a.length] = r;
+        return b;
+    }
+
+    private static Room[] remove(Room[] a, Room r) {
+        int n = 0;
+        var b = new Room[a.length - 1];
+        for (Room x : a) if (x != r && n < b.length) b[n++] = x;
+        return b;
+    }
+}
@@ -0,0 +1,181 @@
+package com.cbl.game.net;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * World state at one server tick, stored exactly as it goes on the wire
+ * (positions quantized, see {@link NetMessage#quantize}). Rows are sorted by
+ * id so two snapshots can be diffed with a single merge pass.
+ * <p>
+ * Delta layout per table: records of {@code varint(idDelta << 1 | removed)},
+ * then for live rows a field mask byte and one zigzag varint per changed
+ * field (value minus baseline value, 0 for new rows). A 0 header ends the table.
+ */
+public final class Snapshot {
+    public static final int ENEMY_X = 0, ENEMY_Y = 1, ENEMY_HP = 2;
+    /** Player rows also carry what the owning client needs to reconcile its prediction. */
+    public static final int PLAYER_X = 0, PLAYER_Y = 1, PLAYER_VX = 2, PLAYER_VY = 3, PLAYER_HP = 4, PLAYER_INPUT = 5;
+
+    public int seq;
+    public final Table enemies = new Table(3);
+    public final Table players = new Table(6);
+
+    public void clear() { enemies.clear(); players.clear(); }
+
+    void copyFrom(Snapshot o) { seq = o.seq; enemies.copyFrom(o.enemies); players.copyFrom(o.players); }
+
+    /** Writes this snapshot as a delta against {@code base} (null = full snapshot). */
+    void writeDelta(ByteBuffer b, Snapshot base) {
+        enemies.writeDelta(b, base != null ? base.enemies : null);
+        players.writeDelta(b, base != null ? base.players : null);
+    }
+
+    /** Rebuilds this snapshot from {@code base} (null = full) plus the delta in {@code b}. */
+    void readDelta(ByteBuffer b, Snapshot base) {
+        enemies.readDelta(b, base != null ? base.enemies : null);
+        players.readDelta(b, base != null ? base.players : null);
+    }
+
+    /** Id-sorted rows of fixed-width int fields. Grows on demand, never shrinks. */
+    public static final class Table {
+        public final int fields;
+        private int count;
+        private int[] ids = new int[64];
+        private int[] data;
+        private long[] sortKeys = new long[0];
+        private int[] sortTmp = new int[0];
+
+        Table(int fields) { this.fields = fields; this.data = new int[64 * fields]; }
+
+        public int size() { return count; }
+        public int id(int row) { return ids[row]; }
+        public int get(int row, int field) { return data[row * fields + field]; }
+
+        public void clear() { count = 0; }
+
+        /** Appends a row (any id order; call {@link #sort()} afterwards). @return the row index. */
+        public int add(int id) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                data = Arrays.copyOf(data, count * 2 * fields);
+            }
+            ids[count] = id;
+            Arrays.fill(data, count * fields, (count + 1) * fields, 0);
+            return count++;
+        }
+
+        public void set(int row, int field, int v) { data[row * fields + field] = v; }
+
+        /** @return the row of {@code id}, or -1. Table must be sorted. */
+        public int find(int id) {
+            int r = Arrays.binarySearch(ids, 0, count, id);
+            return r >= 0 ? r : -1;
+        }
+
+        /** Sorts rows by id in place using reusable scratch arrays. */
+        public void sort() {
+            boolean sorted = true;
+            for (int i = 1; i < count && sorted; i++) sorted = ids[i - 1] < ids[i];
+            if (sorted) return;
+            if (sortKeys.length < count) {
+                sortKeys = new long[ids.length];
+                sortTmp = new int[data.length];
+            }
+            for (int i = 0; i < count; i++) sortKeys[i] = ((long) ids[i] << 32) | i;
+            Arrays.sort(sortKeys, 0, count);
+            System.arraycopy(data, 0, sortTmp, 0, count * fields);
+            for (int i = 0; i < count; i++) {
+                int from = (int) sortKeys[i];
+                ids[i] = (int) (sortKeys[i] >>> 32);
+                System.arraycopy(sortTmp, from * fields, data, i * fields, fields);
+            }
+        }
+
+        void copyFrom(Table o) {
+            if (ids.length < o.count) { ids = new int[o.ids.length]; data = new int[o.data.length]; }
+            System.arraycopy(o.ids, 0, ids, 0, o.count);
+            System.arraycopy(o.data, 0, data, 0, o.count * fields);
+            count = o.count;
+        }
+
+        void writeDelta(ByteBuffer b, Table base) {
+            int i = 0, j = 0, prevId = 0;
+            int nb = base != null ? base.count : 0;
+            while (i < count || j < nb) {
+                int cur = i < count ? ids[i] : Integer.MAX_VALUE;
+                int old = j < nb ? base.ids[j] : Integer.MAX_VALUE;
+                if (old < cur) {                       // gone since baseline
+                    NetMessage.putVar(b, ((old - prevId) << 1) | 1);
+                    prevId = old; j++;
+                    continue;
+                }
+                int mask = 0, row = i * fields, baseRow = old == cur ? j * fields : -1;
+                for (int f = 0; f < fields; f++) {
+                    if (baseRow < 0 || data[row + f] != base.data[baseRow + f]) mask |= 1 << f;
+                }
+                if (mask != 0) {
+                    NetMessage.putVar(b, (cur - prevId) << 1);
+                    b.put((byte) mask);
+                    for (int f = 0; f < fields; f++) {
+                        if ((mask & (1 << f)) == 0) continue;
+                        NetMessage.putSVar(b, data[row + f] - (baseRow < 0 ? 0 : base.data[baseRow + f]));
+                    }
+                    prevId = cur;
+                }
+                i++;
+                if (baseRow >= 0) j++;
+            }
+            NetMessage.putVar(b, 0);
+        }
+
+        void readDelta(ByteBuffer b, Table base) {
+            clear();
+            int j = 0, id = 0;
+            int nb = base != null ? base.count : 0;
+            for (int h = NetMessage.getVar(b); h != 0; h = NetMessage.getVar(b)) {
+                id += h >>> 1;
+                while (j < nb && base.ids[j] < id) copyRow(base, j++);   // unchanged rows
+                boolean inBase = j < nb && base.ids[j] == id;
+                if ((h & 1) != 0) { if (inBase) j++; continue; }         // removed
+                int row = add(id) * fields;
+                if (inBase) System.arraycopy(base.data, j++ * fields, data, row, fields);
+                int mask = b.get() & 0xFF;
+                for (int f = 0; f < fields; f++) {
+                    if ((mask & (1 << f)) != 0) data[row + f] += NetMessage.getSVar(b);
+                }
+            }
+            while (j < nb) copyRow(base, j++);
+        }
+
+        private void copyRow(Table src, int r) {
+            int row = add(src.ids[r]) * fields;
+            System.arraycopy(src.data, r * fields, data, row, fields);
+        }
+    }
+
+    /** Fixed ring of recent snapshots indexed by {@code seq % size}. */
+    static final class History {
+        private final Snapshot[] ring;
+
+        History(int size) {
+            ring = new Snapshot[size];
+            for (int i = 0; i < size; i++) { ring[i] = new Snapshot(); ring[i].seq = -1; }
+        }
+
+        /** @return the slot to fill for {@code seq} (its previous contents are discarded). */
+        Snapshot slot(int seq) {
+            var s = ring[Math.floorMod(seq, ring.length)];
+            s.clear();
+            s.seq = seq;
+            return s;
+        }
+
+        /** @return the snapshot for {@code seq}, or null if it was never stored or got overwritten. */
+        Snapshot get(int seq) {
+            if (seq <= 0) return null;
+            var s = ring[Math.floorMod(seq, ring.length)];
+            return s.seq == seq ? s : null;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.cbl.game.net;
+
+import java.util.Arrays;
+
+/**
+ * Client-side jitter buffer: keeps the last few snapshots stamped with their
+ * server time ({@code seq * tickMs}) and renders remote entities a fixed
+ * {@code delayMs} in the past, interpolating between the two snapshots around
+ * that time. When the next snapshot is late it extrapolates from the last two
+ * for at most {@code maxExtrapolateMs}, then holds.
+ * <p>
+ * Server time is mapped to local time with a running offset that follows the
+ * fastest arrivals quickly and late ones slowly, so one delayed packet does not
+ * shift the whole timeline. {@link #push} runs on the net thread,
+ * {@link #sample} on the render thread.
+ */
+public final class SnapshotBuffer {
+    /** Sampled entity positions in px, reused between calls. */
+    public static final class Frame {
+        public int enemyCount, playerCount;
+        public int[] enemyIds = new int[64], enemyHp = new int[64];
+        public float[] enemyX = new float[64], enemyY = new float[64];
+        public int[] playerIds = new int[16];
+        public float[] playerX = new float[16], playerY = new float[16];
+        /** Server time the frame shows, as a (fractional) snapshot seq. */
+        public double seq;
+
+        void ensure(int enemies, int players) {
+            if (enemyIds.length < enemies) {
+                int n = Math.max(enemies, enemyIds.length * 2);
+                enemyIds = Arrays.copyOf(enemyIds, n); enemyHp = Arrays.copyOf(enemyHp, n);
+                enemyX = Arrays.copyOf(enemyX, n); enemyY = Arrays.copyOf(enemyY, n);
+            }
+            if (playerIds.length < players) {
+                int n = Math.max(players, playerIds.length * 2);
+                playerIds = Arrays.copyOf(playerIds, n);
+                playerX = Arrays.copyOf(playerX, n); playerY = Arrays.copyOf(playerY, n);
+            }
+        }
+    }
+
+    private final int delayMs, maxExtrapolateMs;
+    private int tickMs;
+    private final Snapshot[] ring;
+    private int newest = -1, count;
+    private double offsetMs;     // local ms − server ms, as seen on the fastest arrivals
+    private boolean hasOffset;
+
+    // stats (guarded by this)
+    private long samples, underrunSamples, underruns, holds;
+    private double lastExtrapolateMs, maxExtrapolatedMs;
+    private boolean inUnderrun;
+
+    public SnapshotBuffer(int tickMs, int delayMs, int maxExtrapolateMs, int capacity) {
+        this.tickMs = tickMs;
+        this.delayMs = delayMs;
+        this.maxExtrapolateMs = maxExtrapolateMs;
+        this.ring = new Snapshot[capacity];
+        for (int i = 0; i < capacity; i++) ring[i] = new Snapshot();
+    }
+
+    /** Copies {@code s} in; older or duplicate seqs are ignored. */
+    public synchronized void push(Snapshot s, long nowNanos) {
+        if (count > 0 && s.seq <= ring[newest].seq) return;
+        newest = (newest + 1) % ring.length;
+        ring[newest].copyFrom(s);
+        if (count < ring.length) count++;
+
+        double sample = nowNanos / 1e6 - (double) s.seq * tickMs;
+        if (!hasOffset || sample < offsetMs) { offsetMs = sample; hasOffset = true; }
+        else offsetMs += (sample - offsetMs) * 0.02; // trôi chậm lên nếu mạng chậm dần
+    }
+
+    public synchronized void clear() { count = 0; newest = -1; hasOffset = false; }
+
+    /** Server tick length as announced in WELCOME; drops what is buffered if it changes. */
+    public synchronized void setTickMs(int tickMs) {
+        if (tickMs <= 0 || tickMs == this.tickMs) return;
+        this.tickMs = tickMs;
+        clear();
+    }
+
+    /**
+     * Fills {@code out} with the world as of {@code delayMs} ago.
+     * @return false if nothing has arrived yet ({@code out} untouched).
+     */
+    public synchronized boolean sample(long nowNanos, Frame out) {
+        if (count == 0) return false;
+        samples++;
+        double renderMs = nowNanos / 1e6 - offsetMs - delayMs;
+        Snapshot last = ring[newest];
+        double lastMs = (double) last.seq * tickMs;
+
+        if (renderMs <= lastMs || count == 1) {
+            inUnderrun = false;
+            lastExtrapolateMs = 0;
+            // newest-first walk for the first snapshot at or before renderMs
+            Snapshot b = last;
+            for (int k = 1; k < count; k++) {
+                Snapshot a = ring[Math.floorMod(newest - k, ring.length)];
+                double aMs = (double) a.seq * tickMs;
+                if (aMs <= renderMs) {
+                    double t = (renderMs - aMs) / ((double) b.seq * tickMs - aMs);
+                    blend(a, b, t, out);
+                    out.seq = renderMs / tickMs;
+                    return true;
+                }
+                b = a;
+            }
+            blend(b, b, 0, out); // older than everything buffered: show the oldest
+            out.seq = b.seq;
+            return true;
+        }
+
+        // late: extrapolate from the last two, up to the limit, then hold
+        underrunSamples++;
+        if (!inUnderrun) { underruns++; inUnderrun = true; }
+        double over = renderMs - lastMs;
+        if (over > maxExtrapolateMs) { over = maxExtrapolateMs; holds++; }
+        lastExtrapolateMs = over;
+        maxExtrapolatedMs = Math.max(maxExtrapolatedMs, over);
+        Snapshot prev = ring[Math.floorMod(newest - 1, ring.length)];
+        blend(prev, last, 1 + over / ((double) (last.seq - prev.seq) * tickMs), out);
+        out.seq = (lastMs + over) / tickMs;
+        return true;
+    }
+
+    /** Rows of {@code b} at {@code a + (b - a) * t}; rows missing from {@code a} are taken as-is. */
+    private static void blend(Snapshot a, Snapshot b, double t, Frame out) {
+        var be = b.enemies; var ae = a.enemies;
+        var bp = b.players; var ap = a.players;
+        out.ensure(be.size(), bp.size());
+        for (int r = 0; r < be.size(); r++) {
+            int id = be.id(r), ra = a == b ? r : ae.find(id);
+            out.enemyIds[r] = id;
+            out.enemyHp[r] = be.get(r, Snapshot.ENEMY_HP);
+            out.enemyX[r] = lerp(ae, ra, be, r, Snapshot.ENEMY_X, t);
+            out.enemyY[r] = lerp(ae, ra, be, r, Snapshot.ENEMY_Y, t);
+        }
+        out.enemyCount = be.size();
+        for (int r = 0; r < bp.size(); r++) {
+            int id = bp.id(r), ra = a == b ? r : ap.find(id);
+            out.playerIds[r] = id;
+            out.playerX[r] = lerp(ap, ra, bp, r, Snapshot.PLAYER_X, t);
+            out.playerY[r] = lerp(ap, ra, bp, r, Snapshot.PLAYER_Y, t);
+        }
+        out.playerCount = bp.size();
+    }
+
+    private static float lerp(Snapshot.Table a, int ra, Snapshot.Table b, int rb, int f, double t) {
+        int vb = b.get(rb, f);
+        if (ra < 0) return NetMessage.dequantize(vb);
+        int va = a.get(ra, f);
+        return (float) (NetMessage.dequantize(va) + (NetMessage.dequantize(vb) - NetMessage.dequantize(va)) * t);
+    }
+
+    // ---------- stats ----------
+    /** Fraction of samples that had to extrapolate (or hold). */
+    public synchronized double underrunRatio() { return samples == 0 ? 0 : underrunSamples / (double) samples; }
+    /** Times the buffer ran dry (consecutive late samples count once). */
+    public synchronized long underruns() { return underruns; }
+    /** Samples that hit the extrapolation limit and froze. */
+    public synchronized long holds() { return holds; }
+    public synchronized double lastExtrapolateMs() { return lastExtrapolateMs; }
+    public synchronized double maxExtrapolatedMs() { return maxExtrapolatedMs; }
+    public int delayMs() { return delayMs; }
+}
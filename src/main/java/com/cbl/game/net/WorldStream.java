@@ -0,0 +1,54 @@
+package com.cbl.game.net;
+
+import com.cbl.game.sim.LockstepWorld;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * One LSTATE on its way to a client: the lockstep world as it was when the
+ * stream started, deflated and sent a few chunks per tick, only as far as
+ * the client's outbound queue has room. A big world neither stalls the tick
+ * nor overflows the connection. The client holds back the LSTEPs it gets
+ * meanwhile and applies them once the world is complete. Tick thread only.
+ */
+final class WorldStream {
+    static final int CHUNK = 16 * 1024;      // deflated bytes per LSTATE frame
+    static final int CHUNKS_PER_TICK = 4;
+
+    final Connection to;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final int rawBytes;
+    private boolean started;
+
+    WorldStream(Connection to, LockstepWorld world) {
+        this.to = to;
+        var raw = ByteBuffer.allocate(world.stateBytes());
+        world.write(raw);
+        rawBytes = raw.position();
+        deflater.setInput(raw.array(), 0, rawBytes);
+        deflater.finish();
+    }
+
+    /**
+     * Queues the next chunks. The first always goes out at once, so it is
+     * ahead of any LSTEP the client must hold back.
+     * @return true when done: the last chunk is queued or the client is gone
+     */
+    boolean pump(BufferPool buffers) {
+        if (to.closed || to.dropped() || !to.joined && started) { deflater.end(); return true; }
+        var b = buffers.acquire();
+        try {
+            for (int i = 0; i < CHUNKS_PER_TICK && (!started || to.outRoom() >= CHUNK + 64); i++) {
+                b.clear();
+                boolean last = NetMessage.writeWorldChunk(b, deflater, rawBytes, !started, CHUNK);
+                started = true;
+                to.enqueue(b);
+                if (last) { deflater.end(); return true; }
+            }
+            return false;
+        } finally {
+            buffers.release(b);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.cbl.game.sim;
+
+/**
+ * SplitMix64: a tiny RNG whose whole state is one {@code long}, so it can be
+ * checksummed and sent to a late joiner, and whose output is the same on
+ * every JVM. Everything random in a simulation that must replay (server
+ * rooms, lockstep peers, the offline fallback) draws from one of these.
+ */
+public final class DetRandom {
+    private long state;
+
+    public DetRandom(long seed) { this.state = seed; }
+
+    public long nextLong() {
+        long z = state += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** @return a value in [0, bound); {@code bound} must be positive. */
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /** @return a value in [0, 1). */
+    public float nextFloat() { return (nextLong() >>> 40) * 0x1.0p-24f; }
+
+    public long state() { return state; }
+    public void setState(long state) { this.state = state; }
+}
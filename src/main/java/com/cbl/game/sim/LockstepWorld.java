@@ -0,0 +1,435 @@
+package com.cbl.game.sim;
+
+import com.cbl.game.config.GameConfig;
+import com.cbl.game.core.collect.IntIntMap;
+import com.cbl.game.core.entity.EntityStore;
+import com.cbl.game.core.spatial.SpatialHash;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The room simulation in a form every peer can run: players, enemies and
+ * bullets advanced one fixed tick at a time by {@link #step(Inputs)}, from
+ * nothing but the buttons each player pressed during that tick. Given the
+ * same rules, seed and steps, two worlds are bit-identical: randomness comes
+ * from one {@link DetRandom}, float maths is IEEE (strict since Java 17) with
+ * {@code Math.sqrt} only, and every choice between several candidates (which
+ * enemy hits, which player is nearest) is broken by id, never by container
+ * order. So a lockstep server sends {@link Inputs} instead of enemy
+ * positions, and {@link #checksum()} tells when a peer has drifted.
+ * <p>
+ * {@link #write}/{@link #read} carry the complete state (rules included) for
+ * late joiners and resyncs. Players are kept sorted by id. Single-threaded.
+ */
+public final class LockstepWorld {
+    public static final int ENEMY_HP = 50;
+    /** Inputs between two shots of one player. */
+    public static final int FIRE_COOLDOWN = 6;
+    /** Bullets leave from the player's corner plus this (the sprite's centre), straight up. */
+    public static final float MUZZLE = 12f;
+    private static final int FORMAT = 1;
+
+    // rules
+    public final long seed;
+    public final int tickMs, worldW, worldH, maxEnemies, enemySpawnMs;
+    private final int spawnTicks, bulletLifeTicks;
+    private final float dt;
+
+    private int tick;
+    private final DetRandom rng;
+    private int nextEnemyId = 1;
+
+    // players, sorted by id
+    private int playerCount;
+    private int[] playerIds = new int[16], lastSeq = new int[16], cooldown = new int[16];
+    private PlayerState[] players = new PlayerState[16];
+
+    // enemies: rows in spawn order (swap-remove), grid for hit tests
+    private static final int EX = 0, EY = 1;       // float columns
+    private static final int EID = 0, EHP = 1;     // int columns
+    private final EntityStore enemies = new EntityStore(2, 2, 256);
+    private final IntIntMap enemyRows = new IntIntMap(256);   // id → handle
+    private final SpatialHash enemyGrid = new SpatialHash(64f, 1024);
+
+    // bullets
+    private static final int BX = 0, BY = 1, BVX = 2, BVY = 3;   // float columns
+    private static final int BOWNER = 0, BLIFE = 1;              // int columns
+    private final EntityStore bullets = new EntityStore(4, 2, 128);
+
+    // shots fired by the last step, for renderers (not part of the state)
+    private int shots;
+    private int[] shotOwner = new int[16];
+    private float[] shotX = new float[16], shotY = new float[16];
+
+    public LockstepWorld(long seed, int tickMs, int worldW, int worldH, int maxEnemies, int enemySpawnMs) {
+        this.seed = seed;
+        this.tickMs = tickMs;
+        this.worldW = worldW;
+        this.worldH = worldH;
+        this.maxEnemies = maxEnemies;
+        this.enemySpawnMs = enemySpawnMs;
+        this.spawnTicks = Math.max(1, enemySpawnMs / tickMs);
+        this.bulletLifeTicks = Math.max(1, GameConfig.BULLET_LIFETIME_MS / tickMs);
+        this.dt = tickMs / 1000f;
+        this.rng = new DetRandom(seed);
+    }
+
+    /** Steps taken so far; the next {@link Inputs#tick} this world accepts. */
+    public int tick() { return tick; }
+
+    /**
+     * Advances one tick: the player set becomes exactly the players listed in
+     * {@code in} (new ones spawn, missing ones leave), each applies its
+     * buttons in order, then enemies spawn, move and bite, and bullets fly.
+     */
+    public void step(Inputs in) {
+        syncPlayers(in);
+        shots = 0;
+        for (int p = 0; p < in.count; p++) {   // syncPlayers: player p is in.ids[p]
+            PlayerState s = players[p];
+            for (int j = in.offset[p], end = j + in.counts[p]; j < end; j++) {
+                int b = in.buttons[j];
+                PlayerMotion.step(s, b, worldW, worldH);
+                if (cooldown[p] > 0) cooldown[p]--;
+                if ((b & PlayerMotion.FIRE) != 0 && cooldown[p] == 0 && !s.dead()) {
+                    cooldown[p] = FIRE_COOLDOWN;
+                    fire(playerIds[p], s.x + MUZZLE, s.y + MUZZLE);
+                }
+            }
+            lastSeq[p] = in.lastSeq[p];
+        }
+        if (tick % spawnTicks == 0) spawnEnemy();
+        moveEnemies();
+        for (int p = 0; p < playerCount; p++) {
+            PlayerState s = players[p];
+            int hit = enemyGrid.lowestWithin(s.x, s.y, GameConfig.PLAYER_HIT_RADIUS);
+            if (hit != SpatialHash.NONE) PlayerMotion.hurt(s, enemyGrid.x(hit), enemyGrid.y(hit), GameConfig.CONTACT_DAMAGE);
+        }
+        stepBullets();
+        tick++;
+    }
+
+    private void syncPlayers(Inputs in) {
+        if (playerCount == in.count && sameIds(in)) return;
+        // hai danh sách đều theo id: trộn một lượt (chỉ khi có người vào/ra)
+        var oldIds = Arrays.copyOf(playerIds, playerCount);
+        var oldStates = Arrays.copyOf(players, playerCount);
+        var oldSeq = Arrays.copyOf(lastSeq, playerCount);
+        var oldCool = Arrays.copyOf(cooldown, playerCount);
+        ensurePlayers(in.count);
+        for (int k = 0, o = 0; k < in.count; k++) {
+            int id = in.ids[k];
+            while (o < oldIds.length && oldIds[o] < id) o++;
+            boolean kept = o < oldIds.length && oldIds[o] == id;
+            playerIds[k] = id;
+            players[k] = kept ? oldStates[o] : new PlayerState();
+            lastSeq[k] = kept ? oldSeq[o] : 0;
+            cooldown[k] = kept ? oldCool[o] : 0;
+        }
+        playerCount = in.count;
+    }
+
+    private boolean sameIds(Inputs in) {
+        for (int k = 0; k < playerCount; k++) if (playerIds[k] != in.ids[k]) return false;
+        return true;
+    }
+
+    private void ensurePlayers(int n) {
+        if (n <= playerIds.length) return;
+        int cap = Math.max(n, playerIds.length * 2);
+        playerIds = Arrays.copyOf(playerIds, cap);
+        lastSeq = Arrays.copyOf(lastSeq, cap);
+        cooldown = Arrays.copyOf(cooldown, cap);
+        players = Arrays.copyOf(players, cap);
+    }
+
+    /** One enemy on a random edge, unless the world is full or empty. */
+    private void spawnEnemy() {
+        if (enemies.size() >= maxEnemies || playerCount == 0) return;
+        int w = worldW, h = worldH;
+        int x = 0, y = 0;
+        switch (rng.nextInt(4)) {
+            case 0: x = 0;               y = rng.nextInt(h); break;     // trái
+            case 1: x = w - 32;          y = rng.nextInt(h); break;     // phải
+            case 2: x = rng.nextInt(w);  y = 0; break;                  // trên
+            case 3: x = rng.nextInt(w);  y = h - 32; break;             // dưới
+        }
+        addEnemy(nextEnemyId++, x, y, ENEMY_HP);
+    }
+
+    private void addEnemy(int id, float x, float y, int hp) {
+        enemyRows.put(id, enemies.add());
+        int row = enemies.size() - 1;
+        enemies.f(EX)[row] = x; enemies.f(EY)[row] = y;
+        enemies.i(EID)[row] = id; enemies.i(EHP)[row] = hp;
+        enemyGrid.put(id, x, y);
+    }
+
+    /** Each enemy walks toward the nearest living player (lowest id on a tie). */
+    private void moveEnemies() {
+        float[] ex = enemies.f(EX), ey = enemies.f(EY);
+        int[] eid = enemies.i(EID);
+        float step = GameConfig.ENEMY_SPEED * dt;
+        for (int r = 0, n = enemies.size(); r < n; r++) {
+            PlayerState target = null;
+            float best = Float.MAX_VALUE;
+            for (int p = 0; p < playerCount; p++) {
+                PlayerState s = players[p];
+                if (s.dead()) continue;
+                float dx = s.x - ex[r], dy = s.y - ey[r], d2 = dx * dx + dy * dy;
+                if (d2 < best) { best = d2; target = s; }
+            }
+            if (target == null) continue;
+            float len = (float) Math.sqrt(best);
+            if (len > 1e-3f) {
+                ex[r] += (target.x - ex[r]) / len * step;
+                ey[r] += (target.y - ey[r]) / len * step;
+                enemyGrid.put(eid[r], ex[r], ey[r]);
+            }
+        }
+    }
+
+    private void fire(int owner, float x, float y) {
+        spawnBullet(owner, x, y, 0, -GameConfig.BULLET_SPEED);
+        if (shots == shotOwner.length) {
+            shotOwner = Arrays.copyOf(shotOwner, shots * 2);
+            shotX = Arrays.copyOf(shotX, shots * 2);
+            shotY = Arrays.copyOf(shotY, shots * 2);
+        }
+        shotOwner[shots] = owner; shotX[shots] = x; shotY[shots] = y;
+        shots++;
+    }
+
+    private void spawnBullet(int owner, float x, float y, float vx, float vy) {
+        bullets.add();
+        int row = bullets.size() - 1;
+        bullets.f(BX)[row] = x; bullets.f(BY)[row] = y;
+        bullets.f(BVX)[row] = vx; bullets.f(BVY)[row] = vy;
+        bullets.i(BOWNER)[row] = owner; bullets.i(BLIFE)[row] = bulletLifeTicks;
+    }
+
+    private void stepBullets() {
+        float[] x = bullets.f(BX), y = bullets.f(BY), vx = bullets.f(BVX), vy = bullets.f(BVY);
+        int[] life = bullets.i(BLIFE);
+        // đi ngược để swap-remove không làm sót hàng; thứ tự hàng giống nhau ở mọi máy
+        for (int r = bullets.size() - 1; r >= 0; r--) {
+            x[r] += vx[r] * dt; y[r] += vy[r] * dt;
+            int hit = enemyGrid.lowestWithin(x[r], y[r], GameConfig.BULLET_HIT_RADIUS);
+            if (hit != SpatialHash.NONE) {
+                damageEnemy(hit);
+                bullets.removeRow(r);
+            } else if (--life[r] <= 0) {
+                bullets.removeRow(r);
+            }
+        }
+    }
+
+    private void damageEnemy(int id) {
+        int row = enemies.row(enemyRows.get(id, EntityStore.NONE));
+        if (row == EntityStore.NONE) return;
+        if ((enemies.i(EHP)[row] -= GameConfig.BULLET_DAMAGE) <= 0) {
+            enemies.removeRow(row);
+            enemyRows.remove(id, EntityStore.NONE);
+            enemyGrid.remove(id);
+        }
+    }
+
+    // ---------- reading the state (renderers, snapshots) ----------
+    public int playerCount() { return playerCount; }
+    public int playerId(int i) { return playerIds[i]; }
+    public PlayerState player(int i) { return players[i]; }
+    /** Seq of the newest input applied for player {@code i}, for the owner's reconciliation. */
+    public int playerInputSeq(int i) { return lastSeq[i]; }
+
+    public int enemyCount() { return enemies.size(); }
+    public int enemyId(int row) { return enemies.i(EID)[row]; }
+    public float enemyX(int row) { return enemies.f(EX)[row]; }
+    public float enemyY(int row) { return enemies.f(EY)[row]; }
+    public int enemyHp(int row) { return enemies.i(EHP)[row]; }
+
+    public int bulletCount() { return bullets.size(); }
+
+    /** Bullets the last {@link #step} fired: shooter and origin (they fly straight up at BULLET_SPEED). */
+    public int shotCount() { return shots; }
+    public int shotOwner(int i) { return shotOwner[i]; }
+    public float shotX(int i) { return shotX[i]; }
+    public float shotY(int i) { return shotY[i]; }
+
+    /** Hash of the whole simulated state, RNG included. */
+    public long checksum() {
+        long h = mix(seed, tick);
+        h = mix(h, rng.state());
+        h = mix(h, nextEnemyId);
+        for (int p = 0; p < playerCount; p++) {
+            PlayerState s = players[p];
+            h = mix(h, playerIds[p]);
+            h = mix(h, lastSeq[p]);
+            h = mix(h, cooldown[p]);
+            h = mix(h, Float.floatToRawIntBits(s.x));
+            h = mix(h, Float.floatToRawIntBits(s.y));
+            h = mix(h, Float.floatToRawIntBits(s.vx));
+            h = mix(h, Float.floatToRawIntBits(s.vy));
+            h = mix(h, Float.floatToRawIntBits(s.iframe));
+            h = mix(h, s.hp);
+        }
+        float[] ex = enemies.f(EX), ey = enemies.f(EY);
+        int[] eid = enemies.i(EID), ehp = enemies.i(EHP);
+        for (int r = 0, n = enemies.size(); r < n; r++) {
+            h = mix(h, eid[r]);
+            h = mix(h, Float.floatToRawIntBits(ex[r]));
+            h = mix(h, Float.floatToRawIntBits(ey[r]));
+            h = mix(h, ehp[r]);
+        }
+        float[] bx = bullets.f(BX), by = bullets.f(BY);
+        int[] owner = bullets.i(BOWNER), life = bullets.i(BLIFE);
+        for (int r = 0, n = bullets.size(); r < n; r++) {
+            h = mix(h, owner[r]);
+            h = mix(h, Float.floatToRawIntBits(bx[r]));
+            h = mix(h, Float.floatToRawIntBits(by[r]));
+            h = mix(h, life[r]);
+        }
+        return h;
+    }
+
+    private static long mix(long h, long v) {
+        h = (h ^ v) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    // ---------- whole state ----------
+    /** Bytes {@link #write} needs at most right now. */
+    public int stateBytes() {
+        return 64 + playerCount * 40 + enemies.size() * 16 + bullets.size() * 24;
+    }
+
+    /** Rules, counters, RNG and every entity, exact (raw float bits), in row order. */
+    public void write(ByteBuffer b) {
+        b.put((byte) FORMAT);
+        b.putLong(seed).putInt(tickMs).putInt(worldW).putInt(worldH).putInt(maxEnemies).putInt(enemySpawnMs);
+        b.putInt(tick).putLong(rng.state()).putInt(nextEnemyId);
+        b.putInt(playerCount);
+        for (int p = 0; p < playerCount; p++) {
+            PlayerState s = players[p];
+            b.putInt(playerIds[p]).putInt(lastSeq[p]).putInt(cooldown[p]).putInt(s.hp);
+            b.putFloat(s.x).putFloat(s.y).putFloat(s.vx).putFloat(s.vy).putFloat(s.iframe);
+        }
+        float[] ex = enemies.f(EX), ey = enemies.f(EY);
+        int[] eid = enemies.i(EID), ehp = enemies.i(EHP);
+        b.putInt(enemies.size());
+        for (int r = 0, n = enemies.size(); r < n; r++) b.putInt(eid[r]).putFloat(ex[r]).putFloat(ey[r]).putInt(ehp[r]);
+        float[] bx = bullets.f(BX), by = bullets.f(BY), bvx = bullets.f(BVX), bvy = bullets.f(BVY);
+        int[] owner = bullets.i(BOWNER), life = bullets.i(BLIFE);
+        b.putInt(bullets.size());
+        for (int r = 0, n = bullets.size(); r < n; r++) {
+            b.putFloat(bx[r]).putFloat(by[r]).putFloat(bvx[r]).putFloat(bvy[r]).putInt(owner[r]).putInt(life[r]);
+        }
+    }
+
+    /**
+     * A world equal to the one that {@link #write wrote} {@code b}.
+     * @throws IllegalArgumentException if the data is not a world state
+     * @throws java.nio.BufferUnderflowException if it is cut short
+     */
+    public static LockstepWorld read(ByteBuffer b) {
+        int format = b.get();
+        if (format != FORMAT) throw new IllegalArgumentException("world format " + format);
+        var w = new LockstepWorld(b.getLong(), b.getInt(), b.getInt(), b.getInt(), b.getInt(), b.getInt());
+        w.tick = b.getInt();
+        w.rng.setState(b.getLong());
+        w.nextEnemyId = b.getInt();
+        int n = count(b, 40);
+        w.ensurePlayers(n);
+        for (int p = 0; p < n; p++) {
+            var s = new PlayerState();
+            w.playerIds[p] = b.getInt(); w.lastSeq[p] = b.getInt(); w.cooldown[p] = b.getInt(); s.hp = b.getInt();
+            s.x = b.getFloat(); s.y = b.getFloat(); s.vx = b.getFloat(); s.vy = b.getFloat(); s.iframe = b.getFloat();
+            w.players[p] = s;
+        }
+        w.playerCount = n;
+        for (int r = 0, e = count(b, 16); r < e; r++) {
+            int id = b.getInt();
+            float x = b.getFloat(), y = b.getFloat();
+            w.addEnemy(id, x, y, b.getInt());
+        }
+        for (int r = 0, e = count(b, 24); r < e; r++) {
+            float x = b.getFloat(), y = b.getFloat(), vx = b.getFloat(), vy = b.getFloat();
+            w.spawnBullet(b.getInt(), x, y, vx, vy);
+            w.bullets.i(BLIFE)[r] = b.getInt();
+        }
+        return w;
+    }
+
+    private static int count(ByteBuffer b, int bytesEach) {
+        int n = b.getInt();
+        if (n < 0 || n > b.remaining() / bytesEach) throw new IllegalArgumentException("bad count " + n);
+        return n;
+    }
+
+    /**
+     * What every player pressed during one tick: ids ascending, each with the
+     * buttons applied in order and the seq of its newest one. The server
+     * fills one per tick from its input queues; peers decode it off the wire.
+     */
+    public static final class Inputs {
+        public int tick, count;
+        public int[] ids = new int[16], lastSeq = new int[16], counts = new int[16], offset = new int[16];
+        public int[] buttons = new int[64];
+        private int used;
+
+        public void clear(int tick) {
+            this.tick = tick;
+            count = 0;
+            used = 0;
+        }
+
+        /** Opens player {@code id}'s entry; follow with {@link #button} calls, then {@link #end}. Ids may come in any order. */
+        public void begin(int id) {
+            if (count == ids.length) {
+                int n = count * 2;
+                ids = Arrays.copyOf(ids, n); lastSeq = Arrays.copyOf(lastSeq, n);
+                counts = Arrays.copyOf(counts, n); offset = Arrays.copyOf(offset, n);
+            }
+            ids[count] = id;
+            counts[count] = 0;
+            offset[count] = used;
+        }
+
+        public void button(int b) {
+            if (used == buttons.length) buttons = Arrays.copyOf(buttons, used * 2);
+            buttons[used++] = b;
+            counts[count]++;
+        }
+
+        public void end(int newestSeq) {
+            lastSeq[count++] = newestSeq;
+        }
+
+        /** Puts the entries in id order (insertion sort: a handful of players, usually already sorted). */
+        public void sort() {
+            for (int i = 1; i < count; i++) {
+                int id = ids[i], seq = lastSeq[i], n = counts[i], off = offset[i], j = i - 1;
+                for (; j >= 0 && ids[j] > id; j--) {
+                    ids[j + 1] = ids[j]; lastSeq[j + 1] = lastSeq[j]; counts[j + 1] = counts[j]; offset[j + 1] = offset[j];
+                }
+                ids[j + 1] = id; lastSeq[j + 1] = seq; counts[j + 1] = n; offset[j + 1] = off;
+            }
+        }
+
+        /** Makes this a copy of {@code o} (e.g. to hold a step back until the world it applies to arrives). */
+        public void copyFrom(Inputs o) {
+            clear(o.tick);
+            for (int k = 0; k < o.count; k++) {
+                begin(o.ids[k]);
+                for (int j = o.offset[k], e = j + o.counts[k]; j < e; j++) button(o.buttons[j]);
+                end(o.lastSeq[k]);
+            }
+        }
+
+        /** @return whether the entries are in strictly ascending id order (what {@link #step} requires). */
+        public boolean sorted() {
+            for (int i = 1; i < count; i++) if (ids[i - 1] >= ids[i]) return false;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.cbl.game.sim;
+
+import com.cbl.game.config.GameConfig;
+
+/**
+ * Player movement rules shared by the client (prediction) and the server
+ * (authority). One input is one step of {@link #DT}; given the same state and
+ * the same buttons both sides land on the same result, which is what lets the
+ * client replay unacknowledged inputs on top of a server correction.
+ * {@link LockstepWorld} runs these rules too, so lengths use {@code Math.sqrt}
+ * (correctly rounded on every JVM) and never {@code Math.hypot} (which is not).
+ */
+public final class PlayerMotion {
+    private PlayerMotion() {}
+
+    /** Input button bits. FIRE only means something in lockstep rooms (see {@link LockstepWorld}); movement ignores it. */
+    public static final int UP = 1, DOWN = 2, LEFT = 4, RIGHT = 8, RESPAWN = 16, FIRE = 32;
+
+    public static final float DT = 1f / GameConfig.TICK_HZ; // length of one input = one client update
+    public static final float SPEED = 180f;     // px/s
+    public static final float FRICTION = 0.85f; // per step when no key is held (để knockback có tác dụng)
+    public static final float KNOCKBACK = 220f; // lực hất lùi
+    public static final float IFRAME_SEC = 0.8f, SPAWN_IFRAME_SEC = 1f;
+    public static final int MAX_HP = 100;
+    public static final float SPAWN_X = 120, SPAWN_Y = 120;
+
+    /** Applies one input in the default-sized world. */
+    public static void step(PlayerState s, int buttons) {
+        step(s, buttons, GameConfig.WORLD_W, GameConfig.WORLD_H);
+    }
+
+    /** Applies one input, keeping the player inside a {@code worldW}×{@code worldH} map. Dead players only react to {@link #RESPAWN}. */
+    public static void step(PlayerState s, int buttons, int worldW, int worldH) {
+        if (s.iframe > 0) s.iframe = Math.max(0, s.iframe - DT);
+        if (s.dead()) {
+            if ((buttons & RESPAWN) != 0) respawn(s);
+            return;
+        }
+        float ix = 0, iy = 0;
+        if ((buttons & LEFT) != 0)  ix -= 1;
+        if ((buttons & RIGHT) != 0) ix += 1;
+        if ((buttons & UP) != 0)    iy -= 1;
+        if ((buttons & DOWN) != 0)  iy += 1;
+        if (ix != 0 || iy != 0) {
+            float len = (float) Math.sqrt(ix * ix + iy * iy);
+            s.vx = ix / len * SPEED;
+            s.vy = iy / len * SPEED;
+        } else {
+            s.vx *= FRICTION;
+            s.vy *= FRICTION;
+            if (Math.abs(s.vx) < 1) s.vx = 0;
+            if (Math.abs(s.vy) < 1) s.vy = 0;
+        }
+        s.x = clamp(s.x + s.vx * DT, 16, worldW - 32);
+        s.y = clamp(s.y + s.vy * DT, 16, worldH - 32);
+    }
+
+    /**
+     * Damage from something at (srcX, srcY), pushing the player away from it.
+     * @return false if the player is dead or still invulnerable.
+     */
+    public static boolean hurt(PlayerState s, float srcX, float srcY, int dmg) {
+        if (s.dead() || s.iframe > 0) return false;
+        s.hp = Math.max(0, s.hp - dmg);
+        float dx = s.x - srcX, dy = s.y - srcY;
+        float len = (float) Math.sqrt(dx * dx + dy * dy);
+        if (len < 1e-3f) { dx = 1; dy = 0; len = 1; }
+        s.vx = dx / len * KNOCKBACK;
+        s.vy = dy / len * KNOCKBACK;
+        s.iframe = IFRAME_SEC;
+        return true;
+    }
+
+    public static void respawn(PlayerState s) {
+        s.hp = MAX_HP;
+        s.x = SPAWN_X; s.y = SPAWN_Y;
+        s.vx = s.vy = 0;
+        s.iframe = SPAWN_IFRAME_SEC; // spawn protection
+    }
+
+    private static float clamp(float v, float lo, float hi) { return Math.max(lo, Math.min(hi, v)); }
+}
@@ -0,0 +1,15 @@
+package com.cbl.game.sim;
+
+/** One player's simulated state; stepped by {@link PlayerMotion} on both client and server. */
+public final class PlayerState {
+    public float x = PlayerMotion.SPAWN_X, y = PlayerMotion.SPAWN_Y;
+    public float vx, vy;
+    public int hp = PlayerMotion.MAX_HP;
+    public float iframe;   // giây miễn thương còn lại
+
+    public boolean dead() { return hp <= 0; }
+
+    public void set(PlayerState o) {
+        x = o.x; y = o.y; vx = o.vx; vy = o.vy; hp = o.hp; iframe = o.iframe;
+    }
+}
@@ -0,0 +1,88 @@
+package com.cbl.game.net;
+
+import com.cbl.game.config.ServerConfig;
+import com.cbl.game.core.metrics.AllocationMeter;
+import com.cbl.game.sim.PlayerMotion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * A warmed-up {@link Room#tick()} allocates nothing: players and enemies are
+ * primitive arrays, buffers are pooled and snapshots recycled. Rooms are set
+ * up like {@code RoomTickBenchmark}: in-memory connections that send one input
+ * and ack the last snapshot every tick, their output dropped after it.
+ * Reads {@link Room#tickAlloc}, so the test is skipped on JVMs without the
+ * per-thread allocation counter.
+ */
+class RoomAllocationTest {
+    static final int WORLD = 4096, PLAYERS = 8, ENEMIES = 500;
+    static final int WARMUP_TICKS = 5000, MEASURED_TICKS = 500;
+
+    private Room room;
+    private IoLoop loop;
+    private Connection[] clients;
+    private final NetMessage input = new NetMessage();
+    private int inputSeq;
+
+    @AfterEach
+    void stopLoop() { if (loop != null) loop.stop(); }
+
+    @Test
+    void snapshotTickAllocatesNothing() throws IOException {
+        setup(false);
+        for (int i = 0; i < ENEMIES; i++) room.spawnEnemy();
+        assertSteadyTicksAllocateNothing();
+    }
+
+    @Test
+    void lockstepTickAllocatesNothing() throws IOException {
+        setup(true);   // the world spawns its own enemies, one per tick, during warm-up
+        assertSteadyTicksAllocateNothing();
+    }
+
+    private void setup(boolean lockstep) throws IOException {
+        assumeTrue(AllocationMeter.supported(), "no per-thread allocation counter on this JVM");
+        var cfg = new ServerConfig(0, 20, 1, WORLD, WORLD, ENEMIES, 1, 1, 1, 0, 0, 0, 0, null, lockstep);
+        room = new Room("alloc", 0, cfg, null, new BufferPool(NetMessage.MAX_FRAME, 4));
+        loop = new IoLoop("alloc-io", null);   // never started: only collects write requests
+        clients = new Connection[PLAYERS];
+        var rnd = new SplittableRandom(7);
+        for (int i = 0; i < PLAYERS; i++) {
+            clients[i] = new Connection(i + 1, i, null, loop);
+            room.commands.join(clients[i]);
+        }
+        room.tick();
+        for (Connection c : clients) {
+            c.player.x = 64 + rnd.nextInt(WORLD - 128);
+            c.player.y = 64 + rnd.nextInt(WORLD - 128);
+            c.player.iframe = Float.MAX_VALUE;   // enemies reach them but nobody dies mid-run
+        }
+        input.type = MessageType.INPUT;
+        input.value = 1;
+    }
+
+    private void assertSteadyTicksAllocateNothing() {
+        for (int i = 0; i < WARMUP_TICKS; i++) step();   // fills the world, grows buffers, lets the JIT settle
+        room.tickAlloc.reset();
+        for (int i = 0; i < MEASURED_TICKS; i++) step();
+        assertEquals(MEASURED_TICKS, room.tickAlloc.samples());
+        assertEquals(0, room.tickAlloc.max(), "bytes allocated by the worst of " + MEASURED_TICKS + " ticks");
+    }
+
+    private void step() {
+        input.id = ++inputSeq;
+        input.inputs[0] = (inputSeq & 32) == 0 ? PlayerMotion.RIGHT | PlayerMotion.DOWN : PlayerMotion.LEFT | PlayerMotion.UP;
+        for (Connection c : clients) {
+            room.commands.input(c, input);
+            room.commands.ack(c, c.lastSentSeq);
+        }
+        room.tick();
+        for (Connection c : clients) c.discardOutput();
+    }
+}